@@ -17,33 +17,38 @@
  */
 package io.github.bbayu123.bk2048;
 
-import java.awt.Dimension;
 import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
+import java.util.Locale;
 import java.util.Random;
 import java.util.UUID;
-import java.util.stream.IntStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.ItemFrame;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 
 import com.bergerkiller.bukkit.common.events.map.MapClickEvent;
 import com.bergerkiller.bukkit.common.events.map.MapKeyEvent;
-import com.bergerkiller.bukkit.common.events.map.MapStatusEvent;
 import com.bergerkiller.bukkit.common.map.MapCanvas;
-import com.bergerkiller.bukkit.common.map.MapColorPalette;
 import com.bergerkiller.bukkit.common.map.MapDisplay;
 import com.bergerkiller.bukkit.common.map.MapDisplayProperties;
-import com.bergerkiller.bukkit.common.map.MapEventPropagation;
-import com.bergerkiller.bukkit.common.map.MapFont;
 import com.bergerkiller.bukkit.common.map.MapPlayerInput;
-import com.bergerkiller.bukkit.common.map.MapPlayerInput.Key;
 import com.bergerkiller.bukkit.common.map.MapSessionMode;
 import com.bergerkiller.bukkit.common.map.MapTexture;
 import com.bergerkiller.bukkit.common.map.widgets.MapWidget;
@@ -62,15 +67,175 @@ import com.bergerkiller.bukkit.common.utils.ItemUtil;
  *
  */
 public class Main extends JavaPlugin {
+	/**
+	 * The number of random moves that the engine plays at startup
+	 */
+	private static final int WARM_UP_MOVES = 200_000;
+	/**
+	 * How often the map pool is saved, in ticks
+	 */
+	private static final long POOL_SAVE_TICKS = 6000L;
+	/**
+	 * The names of the directions of {@link TwoZeroFourEightEngine}, as shown in
+	 * hints
+	 */
+	static final String[] DIRECTION_NAMES = new String[] { "up", "down", "left", "right" };
+	/**
+	 * The number of games shown by {@code /2048 top} and {@code /2048 games}
+	 */
+	private static final int LIST_SIZE = 10;
+
+	/**
+	 * The task that saves the statistics
+	 */
+	private BukkitTask statsTask = null;
 
 	/**
 	 * {@inheritDoc}
 	 * <p>
-	 * What we are doing here is linking the command executor to our plugin.
+	 * What we are doing here is linking the command executor to our plugin,
+	 * reading the configuration, and warming up the game in the background.
 	 */
 	@Override
 	public void onEnable() {
 		this.getCommand("2048").setExecutor(this);
+
+		this.saveDefaultConfig();
+		this.applySettings();
+
+		TwoZeroFourEightSettings settings = TwoZeroFourEightSettings.get();
+		TwoZeroFourEightStorageWriter.start(this,
+				settings.getStorageType().equals("file") ? new TwoZeroFourEightFileStorage(this.getDataFolder())
+						: new TwoZeroFourEightSqliteStorage(this.getDataFolder()),
+				settings.getStorageBatchSize());
+		TwoZeroFourEightStats.load();
+
+		Bukkit.getScheduler().runTaskTimer(this, new TwoZeroFourEightTickMonitor(), 1L, 1L);
+
+		TwoZeroFourEightMapPool.load(this);
+		Bukkit.getScheduler().runTaskTimer(this, TwoZeroFourEightMapPool::save, Main.POOL_SAVE_TICKS,
+				Main.POOL_SAVE_TICKS);
+
+		for (String theme : TwoZeroFourEightTheme.BUNDLED) {
+			if (!new File(this.getDataFolder(), "themes/" + theme + ".yml").exists()) {
+				this.saveResource("themes/" + theme + ".yml", false);
+			}
+		}
+		this.warmUp();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Here we end all running races, save the map pool and the statistics, and
+	 * wait for the storage to write everything that is queued, so that nothing is
+	 * lost.
+	 */
+	@Override
+	public void onDisable() {
+		TwoZeroFourEightRace.endAll();
+		TwoZeroFourEightMapPool.save();
+		TwoZeroFourEightStats.flush();
+		TwoZeroFourEightStorageWriter.stop();
+		TwoZeroFourEightSearch.stopPrefetching();
+		TwoZeroFourEightAnalysis.stop();
+	}
+
+	/**
+	 * Loads the settings from {@code config.yml} and swaps them in
+	 * <p>
+	 * Running boards pick up the new settings at their next move, nothing is
+	 * rebuilt. Settings that belong to the server as a whole are passed on right
+	 * away, and the AI weights and tablebases are only mapped again when the files
+	 * have changed.
+	 * The storage only reads its settings when the server starts.
+	 *
+	 * @return the problems that were found in the configuration
+	 * @see TwoZeroFourEightSettings
+	 */
+	private List<String> applySettings() {
+		TwoZeroFourEightSettings previous = TwoZeroFourEightSettings.get();
+		TwoZeroFourEightSettings settings = TwoZeroFourEightSettings.load(this.getConfig());
+		for (String warning : settings.getWarnings()) {
+			this.getLogger().warning(warning);
+		}
+		TwoZeroFourEightSettings.swap(settings);
+
+		TwoZeroFourEightQuality.configure(settings.isAdaptive(), settings.getReduceBelowTps(),
+				settings.getMinimalBelowTps(), settings.getViewDistance());
+		TwoZeroFourEightSessions.setLimits(settings.getMaxGamesPerPlayer(), settings.getMaxGamesTotal());
+		TwoZeroFourEightSearch.setDepth(settings.getAiDepth());
+		TwoZeroFourEightSearch.configureCache(settings.getAiCacheMegabytes());
+		if (!TwoZeroFourEightEvents.configure(settings.isFlightRecorder()) && settings.isFlightRecorder()) {
+			this.getLogger().warning("The flight recorder is not available on this Java version");
+		}
+
+		String weights = settings.getAiWeights();
+		if (weights.isEmpty()) {
+			TwoZeroFourEightSearch.setEvaluator(TwoZeroFourEightHeuristic.INSTANCE);
+		} else if (!weights.equals(previous.getAiWeights()) || previous == TwoZeroFourEightSettings.DEFAULT) {
+			try {
+				TwoZeroFourEightSearch
+						.setEvaluator(TwoZeroFourEightNTupleNetwork.map(new File(this.getDataFolder(), weights)));
+			} catch (IOException e) {
+				this.getLogger()
+						.warning("Could not load the AI weights, using the heuristic instead: " + e.getMessage());
+				TwoZeroFourEightSearch.setEvaluator(TwoZeroFourEightHeuristic.INSTANCE);
+			}
+		}
+		List<String> tablebases = settings.getAiTablebases();
+		if (!tablebases.equals(previous.getAiTablebases()) || previous == TwoZeroFourEightSettings.DEFAULT) {
+			List<TwoZeroFourEightTablebase> mapped = new ArrayList<>();
+			for (String name : tablebases) {
+				try {
+					mapped.add(TwoZeroFourEightTablebase.map(new File(this.getDataFolder(), name)));
+				} catch (IOException e) {
+					this.getLogger().warning("Could not load the tablebase " + name + ": " + e.getMessage());
+				}
+			}
+			TwoZeroFourEightSearch.setTablebases(mapped);
+		}
+
+		if (this.statsTask == null || settings.getStatsFlushSeconds() != previous.getStatsFlushSeconds()) {
+			if (this.statsTask != null) {
+				this.statsTask.cancel();
+			}
+			long flushTicks = settings.getStatsFlushSeconds() * 20L;
+			this.statsTask = Bukkit.getScheduler().runTaskTimer(this, TwoZeroFourEightStats::flush, flushTicks,
+					flushTicks);
+		}
+		return settings.getWarnings();
+	}
+
+	/**
+	 * Pays the one-time costs of the game before the first player does
+	 * <p>
+	 * Two things run in the background at the same time. The move tables of
+	 * {@link TwoZeroFourEightEngine} are built, and the engine plays random games
+	 * until the JIT has compiled it. Meanwhile, the default theme is loaded, which
+	 * resolves its palette and draws the sprites, measuring every font on the way.
+	 * Readiness is logged once both are done.
+	 */
+	private void warmUp() {
+		long start = System.nanoTime();
+		AtomicInteger pending = new AtomicInteger(2);
+		Runnable done = () -> {
+			if (pending.decrementAndGet() == 0) {
+				this.getLogger().info("2048 is ready (warm-up took "
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms)");
+			}
+		};
+
+		Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+			TwoZeroFourEightEngine.warmUp(Main.WARM_UP_MOVES);
+			done.run();
+		});
+		TwoZeroFourEightTheme.apply(this, "default", error -> {
+			if (error != null) {
+				this.getLogger().warning("Could not load the default theme: " + error);
+			}
+			done.run();
+		});
 	}
 
 	/**
@@ -79,8 +244,48 @@ public class Main extends JavaPlugin {
 	 * Since only players can hold items, we check if it is a player before
 	 * continuing.
 	 * <p>
-	 * When the player does {@code /2048 get}, then we create the map item using
-	 * {@link MapDisplay#createMapItem(Class)}, and give this to the player.
+	 * When the player does {@code /2048 get}, then we take a map item from the
+	 * {@link TwoZeroFourEightMapPool}, and give this to the player. The pool only
+	 * creates a new map item using {@link MapDisplay#createMapItem(Class)} if no
+	 * released map can be reused.
+	 * <p>
+	 * When the player does {@code /2048 return}, then we take the map that the
+	 * player is holding, and release it to the pool.
+	 * <p>
+	 * When the player does {@code /2048 spectate <player>}, then we give the player
+	 * a copy of the map item of the other player's game. Since the copy refers to
+	 * the same display, it shows the same game without rendering it again.
+	 * <p>
+	 * When the player does {@code /2048 hint}, then we search for the best move in
+	 * the game of the player in the background, and tell the player. When the
+	 * player does {@code /2048 autoplay}, then the AI starts or stops playing the
+	 * game of the player.
+	 * <p>
+	 * When the player does {@code /2048 me}, then we show the player their
+	 * {@link TwoZeroFourEightStats}.
+	 * <p>
+	 * When the player does {@code /2048 top}, then we show the player the games
+	 * with the highest scores. When the player does {@code /2048 games <player>},
+	 * then we show the player the most recent games of another player. Both are
+	 * read from the {@link TwoZeroFourEightStorage} in the background.
+	 * <p>
+	 * When the player does {@code /2048 cache}, then we show the player how full
+	 * the {@link TwoZeroFourEightTranspositionCache} of the AI is, and how often
+	 * it is hit.
+	 * <p>
+	 * When the player does {@code /2048 loadtest <n> <moves/sec>}, then we start a
+	 * {@link TwoZeroFourEightLoadTest} with {@code n} simulated games, which runs
+	 * until {@code /2048 loadtest stop}.
+	 * <p>
+	 * When the player does {@code /2048 race <score|time> <minutes> <players...>},
+	 * then we start a {@link TwoZeroFourEightRace}, and give every participant a
+	 * map item that is linked to the race.
+	 * <p>
+	 * When the player does {@code /2048 theme <name>}, then we switch all displays
+	 * to another {@link TwoZeroFourEightTheme}.
+	 * <p>
+	 * When the player does {@code /2048 reload}, then we read {@code config.yml}
+	 * again, and swap in the new {@link TwoZeroFourEightSettings}.
 	 * <p>
 	 * If we need to pass in parameters/properties to the display, we use
 	 * {@link ItemUtil#getMetaTag(ItemStack)} and then call
@@ -100,37 +305,240 @@ public class Main extends JavaPlugin {
 			return false;
 		}
 		if (args[0].equalsIgnoreCase("get")) {
-			ItemStack item = MapDisplay.createMapItem(TwoZeroFourEight.class);
-			ItemUtil.getMetaTag(item).putValue("owner", player.getUniqueId());
-			ItemUtil.setDisplayName(item, "2048");
+			ItemStack item = TwoZeroFourEightMapPool.take(player.getUniqueId());
 			player.getInventory().addItem(item);
 			player.sendMessage(ChatColor.GREEN + "Obtained 2048");
+		} else if (args[0].equalsIgnoreCase("return")) {
+			ItemStack item = player.getInventory().getItemInMainHand();
+			UUID gameId = TwoZeroFourEightMapPool.getGameId(item);
+			if (gameId == null
+					|| !player.getUniqueId().equals(ItemUtil.getMetaTag(item).getValue("owner", UUID.class))) {
+				player.sendMessage(ChatColor.RED + "You must hold one of your own 2048 maps!");
+				return true;
+			}
+			player.getInventory().setItemInMainHand(null);
+			TwoZeroFourEightMapPool.release(gameId);
+			player.sendMessage(ChatColor.GREEN + "Returned 2048");
+		} else if (args[0].equalsIgnoreCase("spectate")) {
+			if (args.length < 2) {
+				return false;
+			}
+			Player target = Bukkit.getPlayerExact(args[1]);
+			if (target == null) {
+				player.sendMessage(ChatColor.RED + "That player is not online!");
+				return true;
+			}
+			TwoZeroFourEight game = TwoZeroFourEight.findGame(target.getUniqueId());
+			if (game == null) {
+				player.sendMessage(ChatColor.RED + "That player is not playing 2048!");
+				return true;
+			}
+			ItemStack item = game.properties.getMapItem().clone();
+			ItemUtil.getMetaTag(item).putValue("spectator", true);
+			ItemUtil.setDisplayName(item, "2048 - " + target.getName());
+			player.getInventory().addItem(item);
+			player.sendMessage(ChatColor.GREEN + "Now spectating " + target.getName());
+		} else if (args[0].equalsIgnoreCase("hint")) {
+			TwoZeroFourEight game = TwoZeroFourEight.findGame(player.getUniqueId());
+			long board = game == null ? -1L : game.getSearchBoard();
+			if (board == -1L) {
+				player.sendMessage(ChatColor.RED + "No hint is available right now!");
+				return true;
+			}
+			TwoZeroFourEightRules rules = game.getRules();
+			Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+				int direction = TwoZeroFourEightSearch.hint(rules, board);
+				float expected = TwoZeroFourEightSearch.getExpectedScore(rules, board);
+				String outlook = Float.isNaN(expected) ? ""
+						: ChatColor.GRAY + " (perfect play scores " + Math.round(expected) + " more)";
+				Bukkit.getScheduler().runTask(this, () -> player.sendMessage(direction == -1
+						? ChatColor.RED + "There are no moves left!"
+						: ChatColor.GREEN + "Hint: move " + Main.DIRECTION_NAMES[direction] + outlook));
+			});
+		} else if (args[0].equalsIgnoreCase("autoplay")) {
+			TwoZeroFourEight game = TwoZeroFourEight.findGame(player.getUniqueId());
+			if (game == null) {
+				player.sendMessage(ChatColor.RED + "You are not playing 2048!");
+				return true;
+			}
+			player.sendMessage(game.toggleAutoplay() ? ChatColor.GREEN + "The AI is now playing your game"
+					: ChatColor.YELLOW + "The AI is not playing your game");
+		} else if (args[0].equalsIgnoreCase("me")) {
+			player.sendMessage(ChatColor.GOLD + "Your 2048 statistics:");
+			for (String line : TwoZeroFourEightStats.get(player.getUniqueId()).format()) {
+				player.sendMessage(ChatColor.YELLOW + line);
+			}
+		} else if (args[0].equalsIgnoreCase("top")) {
+			TwoZeroFourEightStorageWriter.query(storage -> storage.readTopGames(Main.LIST_SIZE),
+					games -> Main.sendGames(player, "2048 leaderboard:", games));
+		} else if (args[0].equalsIgnoreCase("games")) {
+			if (!player.hasPermission("bk2048.moderate")) {
+				player.sendMessage(ChatColor.RED + "You do not have permission to do this!");
+				return true;
+			}
+			if (args.length < 2) {
+				return false;
+			}
+			UUID target = Main.findPlayer(args[1]);
+			if (target == null) {
+				player.sendMessage(ChatColor.RED + args[1] + " has never played on this server!");
+				return true;
+			}
+			TwoZeroFourEightStorageWriter.query(storage -> storage.readRecentGames(target, Main.LIST_SIZE),
+					games -> Main.sendGames(player, "Recent 2048 games of " + args[1] + ":", games));
+		} else if (args[0].equalsIgnoreCase("cache")) {
+			if (!player.hasPermission("bk2048.loadtest")) {
+				player.sendMessage(ChatColor.RED + "You do not have permission to do this!");
+				return true;
+			}
+			TwoZeroFourEightTranspositionCache cache = TwoZeroFourEightSearch.getCache();
+			if (cache == null) {
+				player.sendMessage(ChatColor.RED + "The AI cache is turned off!");
+				return true;
+			}
+			player.sendMessage(ChatColor.GOLD + "AI cache: " + ChatColor.WHITE + cache.getBytes() / (1024 * 1024)
+					+ " MB, " + cache.getFilled() + " of " + cache.getCapacity() + " entries used");
+			player.sendMessage(ChatColor.GOLD + "Hit rate: " + ChatColor.WHITE
+					+ String.format(Locale.ENGLISH, "%.1f%%", 100.0 * cache.getHitRate()) + " (" + cache.getHits()
+					+ " hits, " + cache.getMisses() + " misses, " + cache.getEvictions() + " evictions)");
+		} else if (args[0].equalsIgnoreCase("loadtest")) {
+			if (!player.hasPermission("bk2048.loadtest")) {
+				player.sendMessage(ChatColor.RED + "You do not have permission to do this!");
+				return true;
+			}
+			if (args.length == 2 && args[1].equalsIgnoreCase("stop")) {
+				if (!TwoZeroFourEightLoadTest.stopCurrent()) {
+					player.sendMessage(ChatColor.RED + "No load test is running!");
+				}
+				return true;
+			}
+			if (args.length < 3) {
+				return false;
+			}
+			int games;
+			double movesPerSecond;
+			try {
+				games = Integer.parseInt(args[1]);
+				movesPerSecond = Double.parseDouble(args[2]);
+			} catch (NumberFormatException e) {
+				return false;
+			}
+			if (games <= 0 || movesPerSecond < 0) {
+				return false;
+			}
+			TwoZeroFourEightLoadTest.stopCurrent();
+			new TwoZeroFourEightLoadTest(player, games, movesPerSecond).start(this);
+		} else if (args[0].equalsIgnoreCase("race")) {
+			if (!player.hasPermission("bk2048.race")) {
+				player.sendMessage(ChatColor.RED + "You do not have permission to do this!");
+				return true;
+			}
+			if (args.length < 4) {
+				return false;
+			}
+
+			TwoZeroFourEightRace.Goal goal;
+			int minutes;
+			try {
+				goal = TwoZeroFourEightRace.Goal.valueOf(args[1].toUpperCase(Locale.ENGLISH));
+				minutes = Integer.parseInt(args[2]);
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+
+			List<Player> participants = new ArrayList<>();
+			for (int i = 3; i < args.length; i++) {
+				Player participant = Bukkit.getPlayerExact(args[i]);
+				if (participant == null) {
+					player.sendMessage(ChatColor.RED + args[i] + " is not online!");
+					return true;
+				}
+				if (!participants.contains(participant)) {
+					participants.add(participant);
+				}
+			}
+
+			TwoZeroFourEightRace race = new TwoZeroFourEightRace(goal, minutes * 60L * 20L, participants);
+			race.start(this);
+			for (Player participant : participants) {
+				ItemStack item = TwoZeroFourEightMapPool.take(participant.getUniqueId());
+				ItemUtil.getMetaTag(item).putValue("race", race.getId());
+				ItemUtil.setDisplayName(item, "2048 Race");
+				participant.getInventory().addItem(item);
+				participant.sendMessage(ChatColor.GREEN + "The 2048 race has started!");
+			}
+		} else if (args[0].equalsIgnoreCase("theme")) {
+			if (!player.hasPermission("bk2048.theme")) {
+				player.sendMessage(ChatColor.RED + "You do not have permission to do this!");
+				return true;
+			}
+			if (args.length < 2) {
+				return false;
+			}
+			TwoZeroFourEightTheme.apply(this, args[1], error -> {
+				if (error == null) {
+					player.sendMessage(ChatColor.GREEN + "Switched to theme " + args[1]);
+				} else {
+					player.sendMessage(ChatColor.RED + error);
+				}
+			});
+		} else if (args[0].equalsIgnoreCase("reload")) {
+			if (!player.hasPermission("bk2048.reload")) {
+				player.sendMessage(ChatColor.RED + "You do not have permission to do this!");
+				return true;
+			}
+			this.reloadConfig();
+			List<String> warnings = this.applySettings();
+			player.sendMessage(ChatColor.GREEN + "Reloaded the configuration");
+			for (String warning : warnings) {
+				player.sendMessage(ChatColor.YELLOW + warning);
+			}
 		}
 		return true;
 	}
 
 	/**
-	 * A simple check to see if the clicked position is within the bounds of the
-	 * target widget
-	 *
-	 * @param widget   the target widget that we want to check bounds for
-	 * @param clickedX the X-position of the click
-	 * @param clickedY the Y-position of the click
-	 * @return whether the click was within the bounds of the widget, or
-	 *         {@code false} if the widget is {@code null}
+	 * Finds a player by name, whether they are online or not
 	 *
-	 * @see MapWidget#getAbsoluteX()
-	 * @see MapWidget#getAbsoluteY()
-	 * @see MapWidget#getWidth()
-	 * @see MapWidget#getHeight()
+	 * @param name the name of the player
+	 * @return the unique id of the player, or {@code null} if no player with that
+	 *         name has played on this server
 	 */
-	public static boolean isInBounds(MapWidget widget, int clickedX, int clickedY) {
-		if (widget == null) {
-			return false;
+	private static UUID findPlayer(String name) {
+		Player online = Bukkit.getPlayerExact(name);
+		if (online != null) {
+			return online.getUniqueId();
+		}
+		for (OfflinePlayer offline : Bukkit.getOfflinePlayers()) {
+			if (name.equalsIgnoreCase(offline.getName())) {
+				return offline.getUniqueId();
+			}
 		}
+		return null;
+	}
 
-		return clickedX >= widget.getAbsoluteX() && clickedX <= widget.getAbsoluteX() + widget.getWidth()
-				&& clickedY >= widget.getAbsoluteY() && clickedY <= widget.getAbsoluteY() + widget.getHeight();
+	/**
+	 * Sends a list of finished games to a player
+	 *
+	 * @param player the player
+	 * @param title  the title of the list
+	 * @param games  the games, or {@code null} if they could not be read
+	 */
+	private static void sendGames(Player player, String title, List<TwoZeroFourEightStorage.Game> games) {
+		if (games == null) {
+			player.sendMessage(ChatColor.RED + "The games could not be read, please try again later!");
+			return;
+		}
+		player.sendMessage(ChatColor.GOLD + title);
+		if (games.isEmpty()) {
+			player.sendMessage(ChatColor.YELLOW + "No games have been finished yet");
+		}
+		for (int i = 0; i < games.size(); i++) {
+			TwoZeroFourEightStorage.Game game = games.get(i);
+			player.sendMessage(String.format("%s#%d %s%s - %d (tile %d, %d moves, %tF)", ChatColor.YELLOW, i + 1,
+					game.getName(), ChatColor.WHITE, game.getScore(), game.getHighestTile(), game.getMoves(),
+					game.getFinishedAt()));
+		}
 	}
 
 	/**
@@ -179,11 +587,37 @@ public class Main extends JavaPlugin {
 		private TwoZeroFourEightBoard board = null;
 
 		/**
-		 * The owner of this minesweeper display. Unused in this example.
+		 * The owner of this 2048 display. Only the owner can control the game, everyone
+		 * else that views the display is a spectator.
 		 */
-		@SuppressWarnings("unused")
 		private UUID owner = null;
 
+		/**
+		 * The race that this display is part of, or {@code null} if it is a normal
+		 * game
+		 */
+		private TwoZeroFourEightRace race = null;
+
+		/**
+		 * Whether this display is a simulated game of a load test, which ticks without
+		 * viewers and is not tracked as a session
+		 */
+		private boolean headless = false;
+
+		/**
+		 * When the owner last gave input to this display, in nanoseconds
+		 */
+		private volatile long lastPlayed = System.nanoTime();
+
+		/**
+		 * The width of the display when it was last reloaded
+		 */
+		private int loadedWidth = 0;
+		/**
+		 * The height of the display when it was last reloaded
+		 */
+		private int loadedHeight = 0;
+
 		/**
 		 * {@inheritDoc}
 		 * <p>
@@ -197,6 +631,15 @@ public class Main extends JavaPlugin {
 		 * <p>
 		 * This method only sets up the behavior of the display. We use a separate
 		 * method to handle the content of the display.
+		 * <p>
+		 * The display is global, which means that it is rendered only once, and the
+		 * same map data is sent to every player viewing it. This is what makes
+		 * spectating cheap: a spectator is given a copy of the same map item, so they
+		 * share the display of the owner rather than getting their own.
+		 * <p>
+		 * If the game was hibernated, it is restored, and the display is registered
+		 * with {@link TwoZeroFourEightSessions}, which may hibernate other games of the
+		 * same owner.
 		 *
 		 * @see {@link MapDisplay#properties} for more information about the properties
 		 *      object
@@ -207,25 +650,75 @@ public class Main extends JavaPlugin {
 		@Override
 		public void onAttached() {
 			this.owner = this.properties.get("owner", UUID.class);
+			this.race = TwoZeroFourEightRace.get(this.properties.get("race", UUID.class));
+			this.headless = this.properties.get("headless", false);
 
 			this.setGlobal(true);
-			this.setUpdateWithoutViewers(false);
+			this.setUpdateWithoutViewers(this.headless);
 			this.setSessionMode(MapSessionMode.VIEWING);
-			this.setMasterVolume(0.3f);
+			this.setMasterVolume(TwoZeroFourEightSettings.get().getVolume());
 			this.reload();
+			this.board.wake(this.properties);
+
+			if (!this.headless) {
+				TwoZeroFourEightMapPool.attached(this);
+				TwoZeroFourEightSessions.register(this);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * <p>
+		 * We use this method to remove the display from the session registry and the
+		 * map pool.
+		 */
+		@Override
+		public void onDetached() {
+			if (!this.headless) {
+				TwoZeroFourEightSessions.unregister(this);
+				TwoZeroFourEightMapPool.detached(this);
+			}
+		}
+
+		/**
+		 * Makes a move in a random direction, starting a new game if needed, as a
+		 * simulated player of a load test does
+		 *
+		 * @param random the random generator
+		 */
+		public void playRandomMove(Random random) {
+			this.board.playRandomMove(random);
+		}
+
+		/**
+		 * Saves the game into the map item and closes the display, so that it no
+		 * longer ticks until the map is viewed again
+		 */
+		public void hibernate() {
+			if (this.board != null) {
+				this.board.hibernate(this.properties);
+			}
+			this.close();
 		}
 
 		/**
 		 * {@inheritDoc}
 		 * <p>
-		 * We use this method to override map input to allow walking while sneaking
+		 * We use this method to override map input to allow walking while sneaking.
+		 * Only the owner can control the game, so we only look at the owner.
 		 */
 		@Override
 		public void onTick() {
-			if (this.getViewers().size() == 0) {
+			// Item frames can be added to or removed from the wall, so rebuild at the new
+			// size if that happens
+			if (this.getWidth() != this.loadedWidth || this.getHeight() != this.loadedHeight) {
+				this.reload();
+			}
+
+			Player player = this.getOwnerPlayer();
+			if (player == null) {
 				return;
 			}
-			Player player = this.getViewers().get(0);
 
 			// Allow walking around when sneaking
 			if (this.sneakWalking && !player.isSneaking()) {
@@ -241,7 +734,7 @@ public class Main extends JavaPlugin {
 		 * <ol>
 		 * <li>Clear all existing widgets
 		 * <li>Initialize the 2048 board widget
-		 * <li>Fill the background with a gray color
+		 * <li>Fill the background with the background color of the theme
 		 * <li>Add the board widget to the display
 		 * <li>Update sneak walking
 		 * </ol>
@@ -251,33 +744,155 @@ public class Main extends JavaPlugin {
 		 *      background)
 		 * @see {@link Layer#fillRectangle(int, int, int, int, byte)} to fill a
 		 *      rectangle
-		 * @see {@link MapColorPalette#getColor(int, int, int)} to get a byte color
-		 *      representation
+		 * @see {@link TwoZeroFourEightTheme#getBackground()} to get the background
+		 *      color
 		 * @see {@link MapDisplay#addWidget(MapWidget)} to add the widget to the display
 		 */
 		public void reload() {
 			this.clearWidgets();
+			this.loadedWidth = this.getWidth();
+			this.loadedHeight = this.getHeight();
 
 			this.board = new TwoZeroFourEightBoard();
+			if (this.race != null && this.owner != null) {
+				this.board.setRace(this.race, this.race.getSlot(this.owner));
+			}
+			if (this.owner != null) {
+				this.board.setStats(TwoZeroFourEightStats.get(this.owner));
+			}
 			this.board.setState(GameState.TITLE);
 
 			this.getLayer().fillRectangle(0, 0, this.getWidth(), this.getHeight(),
-					MapColorPalette.getColor(223, 223, 223));
+					TwoZeroFourEightTheme.getCurrent().getBackground());
 			this.addWidget(this.board);
 
-			this.sneakWalking = this.getOwners().get(0).isSneaking();
+			Player player = this.getOwnerPlayer();
+			this.sneakWalking = player != null && player.isSneaking();
 			this.setReceiveInputWhenHolding(!this.sneakWalking);
 		}
 
+		/**
+		 * Redraws the display in the current theme, without interrupting the game
+		 *
+		 * @see {@link TwoZeroFourEightTheme#apply(org.bukkit.plugin.Plugin, String, java.util.function.Consumer)}
+		 *      for how the theme is changed
+		 */
+		public void refreshTheme() {
+			this.getLayer().fillRectangle(0, 0, this.getWidth(), this.getHeight(),
+					TwoZeroFourEightTheme.getCurrent().getBackground());
+			if (this.board != null) {
+				this.board.refreshTheme();
+			}
+		}
+
+		/**
+		 * Checks whether a player is the owner of this display
+		 * <p>
+		 * Maps that were created without an owner can be controlled by anyone.
+		 *
+		 * @param player the player to check
+		 * @return whether the player is allowed to control the game
+		 */
+		public boolean isOwner(Player player) {
+			return this.owner == null || this.owner.equals(player.getUniqueId());
+		}
+
+		/**
+		 * Gets the position of the game for a hint
+		 *
+		 * @return the packed board, or -1 if no hint can be given right now
+		 * @see TwoZeroFourEightBoard#getSearchBoard()
+		 */
+		public long getSearchBoard() {
+			return this.board == null ? -1L : this.board.getSearchBoard();
+		}
+
+		/**
+		 * Gets the rules of the game
+		 *
+		 * @return the rules
+		 * @see TwoZeroFourEightBoard#getRules()
+		 */
+		public TwoZeroFourEightRules getRules() {
+			return this.board == null ? TwoZeroFourEightRules.STANDARD : this.board.getRules();
+		}
+
+		/**
+		 * Turns the AI player of the game on or off
+		 *
+		 * @return whether the AI is now playing
+		 */
+		public boolean toggleAutoplay() {
+			return this.board != null && this.board.toggleAutoplay();
+		}
+
+		/**
+		 * Gets the owner of this display
+		 *
+		 * @return the unique id of the owner, or {@code null} if anyone can control
+		 *         the game
+		 */
+		public UUID getOwner() {
+			return this.owner;
+		}
+
+		/**
+		 * Gets when the owner last gave input to this display
+		 *
+		 * @return the time in nanoseconds, as given by {@link System#nanoTime()}
+		 */
+		public long getLastPlayed() {
+			return this.lastPlayed;
+		}
+
+		/**
+		 * Gets the owner of this display, if the owner is currently holding the map
+		 *
+		 * @return the owner, or {@code null} if the owner is not holding the map
+		 */
+		private Player getOwnerPlayer() {
+			for (Player player : this.getOwners()) {
+				if (this.isOwner(player)) {
+					return player;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Finds a 2048 display that is owned by a player
+		 * <p>
+		 * If the owner has multiple displays, the one that the owner is holding is
+		 * preferred.
+		 *
+		 * @param owner the unique id of the owner
+		 * @return the display, or {@code null} if the owner has no running displays
+		 */
+		public static TwoZeroFourEight findGame(UUID owner) {
+			TwoZeroFourEight found = null;
+			for (TwoZeroFourEight game : TwoZeroFourEightSessions.getGames(owner)) {
+				if (game.getOwnerPlayer() != null) {
+					return game;
+				}
+				found = game;
+			}
+			return found;
+		}
+
 		/**
 		 * {@inheritDoc}
 		 * <p>
-		 * We use this method to update sneak walking.
+		 * We use this method to update sneak walking. Key presses of spectators are
+		 * ignored.
 		 *
 		 * @see #updateSneakWalking(MapKeyEvent)
 		 */
 		@Override
 		public void onKeyPressed(MapKeyEvent event) {
+			if (!this.isOwner(event.getPlayer())) {
+				return;
+			}
+			this.lastPlayed = System.nanoTime();
 			super.onKeyPressed(event);
 			this.updateSneakWalking(event);
 		}
@@ -291,7 +906,7 @@ public class Main extends JavaPlugin {
 		private boolean updateSneakWalking(MapKeyEvent event) {
 			if (event.getKey() == MapPlayerInput.Key.BACK) {
 				this.setReceiveInputWhenHolding(false);
-				this.getOwners().get(0).setSneaking(true);
+				event.getPlayer().setSneaking(true);
 				this.sneakWalking = true;
 				return true;
 			}
@@ -301,15 +916,13 @@ public class Main extends JavaPlugin {
 		/**
 		 * {@inheritDoc}
 		 * <p>
-		 * We use this to cancel the default behavior of the click event, and notify the
-		 * clicked position to all child widgets.
+		 * We use this to cancel the default behavior of the click event, and pass the
+		 * clicked position to the board. Clicks of spectators are cancelled, but not
+		 * passed on.
 		 *
 		 * @param event the event containing the map click
-		 * @see {@link MapDisplay#sendStatusChange(String, Object)} for notifying the
-		 *      entire display
-		 * @see {@link MapWidget#sendStatusChange(MapEventPropagation, String, Object)}
-		 *      for notifying a specific widget with a direction to propagate the
-		 *      message
+		 * @see {@link TwoZeroFourEightBoard#handleInput(MapInputType, int, int)} for
+		 *      how the board finds the widget that was clicked
 		 * @see {@link #onRightClick(MapClickEvent)} for the exact same thing but
 		 *      handling right-click instead
 		 */
@@ -319,22 +932,23 @@ public class Main extends JavaPlugin {
 				return;
 			}
 			event.setCancelled(true);
-			this.board.sendStatusChange(MapEventPropagation.UPSTREAM, "LEFT_CLICK",
-					new Point(event.getX(), event.getY()));
+			if (!this.isOwner(event.getPlayer())) {
+				return;
+			}
+			this.lastPlayed = System.nanoTime();
+			this.board.handleInput(MapInputType.LEFT_CLICK, event.getX(), event.getY());
 		}
 
 		/**
 		 * {@inheritDoc}
 		 * <p>
-		 * We use this to cancel the default behavior of the click event, and notify the
-		 * clicked position to all child widgets.
+		 * We use this to cancel the default behavior of the click event, and pass the
+		 * clicked position to the board. Clicks of spectators are cancelled, but not
+		 * passed on.
 		 *
 		 * @param event the event containing the map click
-		 * @see {@link MapDisplay#sendStatusChange(String, Object)} for notifying the
-		 *      entire display
-		 * @see {@link MapWidget#sendStatusChange(MapEventPropagation, String, Object)}
-		 *      for notifying a specific widget with a direction to propagate the
-		 *      message
+		 * @see {@link TwoZeroFourEightBoard#handleInput(MapInputType, int, int)} for
+		 *      how the board finds the widget that was clicked
 		 * @see {@link #onLeftClick(MapClickEvent)} for the exact same thing but
 		 *      handling left-click instead
 		 */
@@ -344,8 +958,11 @@ public class Main extends JavaPlugin {
 				return;
 			}
 			event.setCancelled(true);
-			this.board.sendStatusChange(MapEventPropagation.UPSTREAM, "RIGHT_CLICK",
-					new Point(event.getX(), event.getY()));
+			if (!this.isOwner(event.getPlayer())) {
+				return;
+			}
+			this.lastPlayed = System.nanoTime();
+			this.board.handleInput(MapInputType.RIGHT_CLICK, event.getX(), event.getY());
 		}
 	}
 
@@ -355,34 +972,36 @@ public class Main extends JavaPlugin {
 	 * This is a {@link MapWidget} class. Use this class to understand how to use
 	 * {@code MapWidget}s.
 	 * <p>
-	 * This widget handles all the game logic of 2048. The appearance and visuals
-	 * are handled by each child widget.
+	 * This widget handles all the game logic of 2048, and draws the tiles itself.
+	 * Only the part of the board that changed since the last tick is drawn onto the
+	 * display.
 	 * <p>
 	 * This class can have any visibility, as long as it is visible to the display
 	 * class.
 	 *
 	 * @author Cyrus Mian Xi Li (bbayu/bbayu123)
 	 *
-	 * @see {@link TwoZeroFourEightTile} for another widget class
+	 * @see {@link TwoZeroFourEightTile} for the tiles on the board
 	 */
-	private static class TwoZeroFourEightBoard extends MapWidget {
+	static class TwoZeroFourEightBoard extends MapWidget {
 		/**
 		 * The minimum border thickness
 		 */
 		private static final int MINIMUM_BORDER = 1;
 
 		/**
-		 * The pixel position of the top left of the first tile
+		 * The size of the display of a single map, which has a scale of 1
 		 */
-		private static final int TOP_LEFT_TILE = 9;
+		private static final int MAP_SIZE = 128;
+
 		/**
-		 * The offset between tiles
+		 * The pixel position of the top left of the first tile, at a scale of 1
 		 */
-		private static final int TILE_OFFSET = 28;
+		private static final int TOP_LEFT_TILE = 9;
 		/**
-		 * The tile size
+		 * The offset between tiles, at a scale of 1
 		 */
-		private static final int TILE_SIZE = 25;
+		private static final int TILE_OFFSET = 28;
 
 		/**
 		 * Number of rows
@@ -394,14 +1013,24 @@ public class Main extends JavaPlugin {
 		private static final int BOARD_COLS = 4;
 
 		/**
-		 * The global randomizer
+		 * The global randomizer, used to pick the seed of each game
 		 */
 		private static final Random RANDOM = new Random();
 
 		/**
-		 * The value to set the counter to when movement happens.
+		 * The number of moves that can be undone
 		 */
-		private static final int MOVEMENT_FRAMES = 4;
+		private static final int UNDO_DEPTH = 10;
+		/**
+		 * How long it takes before a board checks again whether anyone is close
+		 * enough to see it, in nanoseconds
+		 */
+		private static final long VIEW_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+		/**
+		 * The keys of the directions of {@link TwoZeroFourEightEngine}
+		 */
+		private static final MapPlayerInput.Key[] DIRECTION_KEYS = new MapPlayerInput.Key[] { MapPlayerInput.Key.UP,
+				MapPlayerInput.Key.DOWN, MapPlayerInput.Key.LEFT, MapPlayerInput.Key.RIGHT };
 
 		/**
 		 * The current state of the game
@@ -409,9 +1038,31 @@ public class Main extends JavaPlugin {
 		private GameState state = GameState.TITLE;
 
 		/**
-		 * The list of 2048 tiles on the board
+		 * The list of 2048 tiles on the board, which is either {@link #cells} or
+		 * {@code null} on the title screen
 		 */
 		private List<TwoZeroFourEightTile> tiles = null;
+		/**
+		 * The cells of the board, which are reused for every game
+		 */
+		private final List<TwoZeroFourEightTile> cells = Arrays
+				.asList(new TwoZeroFourEightTile[TwoZeroFourEightEngine.CELLS]);
+		/**
+		 * Tiles that have left the board, which are reused for new tiles
+		 */
+		private final ArrayDeque<TwoZeroFourEightTile> spareTiles = new ArrayDeque<>();
+		/**
+		 * The tiles that an undo restores, by cell
+		 */
+		private final TwoZeroFourEightTile[] restoredTiles = new TwoZeroFourEightTile[TwoZeroFourEightEngine.CELLS];
+		/**
+		 * The tiles that a move leaves on each cell
+		 */
+		private final TwoZeroFourEightTile[] arrivedTiles = new TwoZeroFourEightTile[TwoZeroFourEightEngine.CELLS];
+		/**
+		 * Which tiles an undo has already taken, by cell
+		 */
+		private final boolean[] claimedTiles = new boolean[TwoZeroFourEightEngine.CELLS];
 
 		/**
 		 * The score of the game
@@ -419,163 +1070,510 @@ public class Main extends JavaPlugin {
 		private int score = 0;
 
 		/**
-		 * A counter showing how many ticks remaining in the movement
+		 * The tiles that move or change value in the current animation, which has room
+		 * for every cell, since a move animates each tile at most once
 		 */
-		private int movementCounter = 0;
+		private final List<TwoZeroFourEightTile> animated = new ArrayList<>(TwoZeroFourEightEngine.CELLS);
 		/**
-		 * A counter showing how many ticks since the last win/lose check
+		 * Whether an animation is running
 		 */
-		private int winLoseCounter = 0;
-
+		private boolean animating = false;
 		/**
-		 * The continue mode flag, allows continuing after 2048 is reached
+		 * The number of ticks since the current animation started
 		 */
-		private boolean continueMode = false;
-
+		private int frame = 0;
 		/**
-		 * Creates a TwoZeroFourEightBoard
-		 * <p>
-		 * Here we ensure that the board is focusable, which is required to allow key
-		 * presses to be received without any focusable child widgets.
+		 * The number of ticks that the current animation takes
 		 */
-		public TwoZeroFourEightBoard() {
-			this.setFocusable(true);
-		}
-
+		private int frames = 0;
 		/**
-		 * {@inheritDoc}
-		 * <p>
-		 * Here we set the bounds of the widget, and initiate the loading of the board.
-		 *
+		 * The easing of the current animation
+		 */
+		private TwoZeroFourEightEasing easing = TwoZeroFourEightEasing.LINEAR;
+		/**
+		 * Whether a new tile spawns when the current animation ends
+		 */
+		private boolean spawnAfterAnimation = false;
+		/**
+		 * Whether tiles that merged into another tile disappear right away in the
+		 * current animation
+		 */
+		private boolean instantMerges = false;
+		/**
+		 * Whether anyone was close enough to see the board when it was last checked
+		 */
+		private boolean seen = true;
+		/**
+		 * When it was last checked whether anyone is close enough to see the board
+		 */
+		private long seenCheckedAt = System.nanoTime() - TwoZeroFourEightBoard.VIEW_CHECK_NANOS;
+
+		/**
+		 * Whether the AI is playing this game
+		 */
+		private boolean autoplay = false;
+		/**
+		 * Whether the AI is searching for its next move in the background
+		 */
+		private boolean autoplaySearching = false;
+
+		/**
+		 * The statistics of the owner, or {@code null} if the display has no owner
+		 */
+		private TwoZeroFourEightStats stats = null;
+		/**
+		 * The score that was recorded in the statistics when this game was won, or -1
+		 * if it has not been won
+		 */
+		private int recordedScore = -1;
+		/**
+		 * Whether the current finish has been recorded already, which is reset when
+		 * the game is continued after a win, or a new game starts
+		 */
+		private boolean finishRecorded = false;
+		/**
+		 * The moves of the current game, as stored in a
+		 * {@link TwoZeroFourEightStorage.Game}, which grows as needed and is reused
+		 * for the next game
+		 */
+		private byte[] replay = new byte[256];
+		/**
+		 * The number of bytes of the replay that are used
+		 */
+		private int replayLength = 0;
+		/**
+		 * Whether the replay holds the whole game, which is not the case for a race, or
+		 * a game that was saved into its map and restored
+		 */
+		private boolean replayComplete = false;
+		/**
+		 * The number of moves made in the current game
+		 */
+		private int moveCount = 0;
+		/**
+		 * The packed board before each move of the current game that has not been
+		 * undone, which grows as needed and is reused for the next game
+		 */
+		private long[] playedBoards = new long[256];
+		/**
+		 * The direction of each move of the current game that has not been undone
+		 */
+		private byte[] playedMoves = new byte[256];
+		/**
+		 * The number of moves in {@link #playedBoards} and {@link #playedMoves}
+		 */
+		private int playedCount = 0;
+		/**
+		 * A counter showing how many ticks since the last win/lose check
+		 */
+		private int winLoseCounter = 0;
+
+		/**
+		 * The settings that this board uses until its next move
+		 */
+		private TwoZeroFourEightSettings settings = TwoZeroFourEightSettings.get();
+		/**
+		 * The rules of the current game, which are chosen when the game starts and do
+		 * not change until the next one
+		 */
+		private TwoZeroFourEightRules rules = TwoZeroFourEightRules.STANDARD;
+
+		/**
+		 * The continue mode flag, allows continuing after 2048 is reached
+		 */
+		private boolean continueMode = false;
+
+		/**
+		 * The sprite cache for the scale of the display
+		 */
+		private TwoZeroFourEightSprites sprites = TwoZeroFourEightSprites.forScale(1);
+		/**
+		 * The pixel position of the top left of the first tile, scaled to the display
+		 */
+		private int topLeftTile = TwoZeroFourEightBoard.TOP_LEFT_TILE;
+		/**
+		 * The offset between tiles, scaled to the display
+		 */
+		private int tileOffset = TwoZeroFourEightBoard.TILE_OFFSET;
+
+		/**
+		 * The empty board, which the tiles are drawn on. This is replaced, never
+		 * changed, so that it can be read in the background.
+		 */
+		private MapTexture background = null;
+		/**
+		 * The frame that the board and its tiles are composed into before it is shown
+		 */
+		private MapTexture composed = null;
+		/**
+		 * The prepared frames of the current animation, or {@code null} if the frames
+		 * are drawn on each tick
+		 */
+		private TwoZeroFourEightFrameSequence sequence = null;
+		/**
+		 * The pixels that are currently shown on the display, which the next composed
+		 * frame is compared with
+		 */
+		private byte[] presented = null;
+		/**
+		 * Whether anything has changed that needs a new frame to be composed
+		 */
+		private boolean changed = false;
+		/**
+		 * Whether the whole board is redrawn in the next {@link #onDraw()}, in which
+		 * case there is no need to present a frame before that
+		 */
+		private boolean redrawing = false;
+
+		/**
+		 * The click regions that move the tiles, which split the board into a 4x4 grid
+		 * of which the middle cells along each edge move towards that edge, and the
+		 * center undoes the last move
+		 */
+		private MapRegionIndex<MapPlayerInput.Key> moveRegions = null;
+
+		/**
+		 * The win/lose dialog, if it is open
+		 */
+		private TwoZeroFourEightWinLoseDialog dialog = null;
+
+		/**
+		 * The race that this board is part of, or {@code null} if it is a normal game
+		 */
+		private TwoZeroFourEightRace race = null;
+		/**
+		 * The slot of this board in the race
+		 */
+		private int raceSlot = -1;
+		/**
+		 * The index of the next spawn. In a race, this is the index in the spawn
+		 * sequence of the race, otherwise it is mixed with the seed of the game.
+		 */
+		private int spawnIndex = 0;
+		/**
+		 * The seed of the game, which together with the spawn index decides where new
+		 * tiles appear outside of a race
+		 */
+		private long seed = 0L;
+
+		/**
+		 * The moves that can be undone
+		 */
+		private final TwoZeroFourEightHistory history = new TwoZeroFourEightHistory(TwoZeroFourEightBoard.UNDO_DEPTH);
+		/**
+		 * The destination of each cell during the current move, packed like a board
+		 */
+		private long moveDestinations = 0L;
+
+		/**
+		 * Creates a TwoZeroFourEightBoard
+		 * <p>
+		 * Here we ensure that the board is focusable, which is required to allow key
+		 * presses to be received without any focusable child widgets.
+		 */
+		public TwoZeroFourEightBoard() {
+			this.setFocusable(true);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * <p>
+		 * Here we set the bounds of the widget, and initiate the loading of the board.
+		 * <p>
+		 * When the display spans a wall of item frames, the board is scaled up by the
+		 * number of maps that fit on the shortest side, and centered on the wall.
+		 *
 		 * @see {@link #reload()} for more information on how the board is loaded
 		 */
 		@Override
 		public void onAttached() {
 			super.onAttached();
-			this.setBounds(TwoZeroFourEightBoard.MINIMUM_BORDER, TwoZeroFourEightBoard.MINIMUM_BORDER,
-					this.display.getWidth() - TwoZeroFourEightBoard.MINIMUM_BORDER * 2,
-					this.display.getHeight() - TwoZeroFourEightBoard.MINIMUM_BORDER * 2);
+			int scale = Math.max(1, Math.min(this.display.getWidth(), this.display.getHeight())
+					/ TwoZeroFourEightBoard.MAP_SIZE);
+			this.sprites = TwoZeroFourEightSprites.forScale(scale);
+			this.topLeftTile = TwoZeroFourEightBoard.TOP_LEFT_TILE * scale;
+			this.tileOffset = TwoZeroFourEightBoard.TILE_OFFSET * scale;
+
+			int size = (TwoZeroFourEightBoard.MAP_SIZE - TwoZeroFourEightBoard.MINIMUM_BORDER * 2) * scale;
+			this.setBounds((this.display.getWidth() - size) / 2, (this.display.getHeight() - size) / 2, size, size);
+			this.composed = MapTexture.createEmpty(size, size);
+			this.presented = new byte[size * size];
+			this.background = this.drawBackground();
+
+			int quarter = size / 4;
+			this.moveRegions = new MapRegionIndex<MapPlayerInput.Key>(size, size, 4, 4)
+					.add(quarter, 0, quarter * 2, quarter, MapPlayerInput.Key.UP)
+					.add(quarter, quarter * 3, quarter * 2, quarter, MapPlayerInput.Key.DOWN)
+					.add(0, quarter, quarter, quarter * 2, MapPlayerInput.Key.LEFT)
+					.add(quarter * 3, quarter, quarter, quarter * 2, MapPlayerInput.Key.RIGHT)
+					.add(quarter, quarter, quarter * 2, quarter * 2, MapPlayerInput.Key.ENTER);
 			this.reload();
 		}
 
 		/**
 		 * {@inheritDoc}
 		 * <p>
-		 * Here we tick the movement counter and the win/lose counter, and act
-		 * accordingly.
+		 * Here we advance the game and present the changed part of the frame, and
+		 * record how long that took in the {@link TwoZeroFourEightTickMonitor}.
 		 */
 		@Override
 		public void onTick() {
+			long start = System.nanoTime();
+			this.tickGame();
+			this.present();
+			TwoZeroFourEightTickMonitor.recordGame(System.nanoTime() - start);
+		}
+
+		/**
+		 * Advances the game by one tick
+		 * <p>
+		 * Here we advance the animation clock and tick the win/lose counter, and act
+		 * accordingly.
+		 */
+		private void tickGame() {
 			if (this.tiles == null) {
 				return;
 			}
 
-			if (this.movementCounter > 0) {
-				if (--this.movementCounter == 0) {
-					// Generate new tile
-					{
-						int index = this.findRandomEmptyTile();
-						int value = TwoZeroFourEightBoard.getRandomStartingValue();
-
-						TwoZeroFourEightTile tile = new TwoZeroFourEightTile(value);
-						Point rowCol = this.getRowColFromIndex(index);
-						tile.setBounds(this.getPixelPosFromIndex(rowCol.y), this.getPixelPosFromIndex(rowCol.x),
-								TwoZeroFourEightBoard.TILE_SIZE, TwoZeroFourEightBoard.TILE_SIZE);
-						this.tiles.set(index, tile);
-						this.addWidget(tile);
+			if (this.animating) {
+				if (++this.frame >= this.frames) {
+					this.finishAnimation();
+				} else if (this.sequence == null || !this.sequence.present(this.frame, this.view, this.presented)) {
+					// Draw the frame on this tick, also for the rest of the move
+					this.sequence = null;
+					double progress = this.easing.apply((double) this.frame / this.frames);
+					for (int i = 0; i < this.animated.size(); i++) {
+						this.animated.get(i).animate(progress);
 					}
+					this.changed = true;
 				}
 			}
 
+			if (this.autoplay && !this.animating && !this.autoplaySearching) {
+				this.searchAutoplayMove();
+			}
+
 			if (this.state != GameState.GAME) {
 				return;
 			}
+			if (this.stats != null) {
+				this.stats.recordTick();
+			}
 
-			if (++this.winLoseCounter > 10) {
+			if (++this.winLoseCounter >= this.settings.getWinLoseCheckTicks()) {
 				// Don't check if the tiles are still moving
-				if (this.tiles.stream().filter(Objects::nonNull).anyMatch(TwoZeroFourEightTile::isMoving)) {
+				if (this.animating) {
 					return;
 				}
+				this.winLoseCounter = 0;
 
-				// Check if the 2048 tile has appeared
-				if (!this.continueMode
-						&& this.tiles.stream().filter(Objects::nonNull).anyMatch(tile -> tile.getValue() == 2048)) {
-					this.setState(GameState.WIN);
+				long start = TwoZeroFourEightEvents.isEnabled() ? System.nanoTime() : 0L;
+				this.checkWinLose();
+				if (TwoZeroFourEightEvents.isEnabled()) {
+					TwoZeroFourEightEvents.winLoseCheck(this.state.name(), System.nanoTime() - start);
 				}
+			}
+		}
 
-				// Check if it is no longer possible to move
-				// Matching condition is if all tiles are filled AND if each tile doesn't have
-				// adjacent of same value
-				if (this.tiles.stream().allMatch(Objects::nonNull)) {
-					Point[] adjacents = new Point[] { new Point(0, 1), new Point(1, 0) };
-
-					if (
-					// Get all rows
-					IntStream.range(0, TwoZeroFourEightBoard.BOARD_ROWS).boxed()
-							// Combine with all columns
-							.flatMap(row -> IntStream.range(0, TwoZeroFourEightBoard.BOARD_COLS)
-									.mapToObj(col -> new Point(row, col)))
-							// Combine with adjacents to make pairs
-							.flatMap(rowCol -> Arrays.stream(adjacents)
-									.map(adjacent -> new Point(rowCol.x + adjacent.x, rowCol.y + adjacent.y))
-									.map(newRowCol -> new Pair<>(rowCol, newRowCol)))
-							// Filter invalid secondary points
-							.filter(pair -> this.getTile(pair.second().x, pair.second().y) != null)
-							// Map to pair of tiles
-							.map(pair -> new Pair<>(this.getTile(pair.first().x, pair.first().y),
-									this.getTile(pair.second().x, pair.second().y)))
-							// ALL MATCH pairs have different values
-							.allMatch(pair -> pair.first().getValue() != pair.second().getValue())) {
-						this.setState(GameState.LOSE);
-					}
+		/**
+		 * Checks whether the game has been won or lost, and opens the win/lose dialog
+		 * if it has
+		 */
+		private void checkWinLose() {
+			// Check if the winning tile has appeared
+			int winTile = this.rules.getWinTile();
+			boolean full = true, won = false;
+			for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+				TwoZeroFourEightTile tile = this.tiles.get(index);
+				if (tile == null) {
+					full = false;
+				} else if (tile.getValue() == winTile) {
+					won = true;
 				}
 			}
+			if (won && !this.continueMode) {
+				if (this.race != null) {
+					this.race.reportFinish(this.raceSlot);
+				}
+				this.recordFinish(true);
+				this.setState(GameState.WIN);
+				// A full board is only a loss once the player continues
+				return;
+			}
+
+			// Tiles that could only merge beyond the highest rank end the game, since a
+			// packed board cannot hold the merged tile
+			if (this.isCapped()) {
+				this.recordFinish(this.continueMode);
+				this.setState(GameState.LOSE);
+				return;
+			}
+
+			// Check if it is no longer possible to move
+			// Matching condition is if all cells are filled AND if no direction changes
+			// the board under the rules of the game
+			if (!full || this.rules.canMove(this.packBoard())) {
+				return;
+			}
+			this.recordFinish(this.continueMode);
+			this.setState(GameState.LOSE);
+		}
+
+		/**
+		 * Checks whether tiles on the board could only merge beyond the highest rank
+		 * that the rules can hold
+		 *
+		 * @return whether the game has to end because of that limit
+		 * @see TwoZeroFourEightRules#isCapped(long)
+		 */
+		private boolean isCapped() {
+			if (this.tiles == null) {
+				return false;
+			}
+			long board = this.packBoard();
+			return board != -1L && this.rules.isCapped(board);
 		}
 
 		/**
 		 * {@inheritDoc}
 		 * <p>
-		 * In here, we draw 2 lines of text within the widget bounds using different
-		 * fonts.
+		 * In here, we draw the whole frame. This only happens when the board is first
+		 * shown, or when it is reloaded. Everything else is drawn by
+		 * {@link #present()}, which only draws what has changed.
 		 *
 		 * @see {@link MapWidget#view} for obtaining the canvas that is bound by the
 		 *      widget
-		 * @see {@link MapCanvas#draw(MapFont, int, int, byte, CharSequence)} for
-		 *      drawing the text onto the canvas
+		 * @see {@link MapCanvas#draw(MapCanvas, int, int)} for drawing the frame onto
+		 *      the canvas
+		 * @see {@link #compose()} for how the frame is drawn
 		 */
 		@Override
 		public void onDraw() {
-			if (this.tiles != null) {
-				this.view.fillRectangle(0, 0, this.getWidth(), this.getHeight(),
-						MapColorPalette.getColor(158, 148, 137));
-
-				for (int row = 0; row < TwoZeroFourEightBoard.BOARD_ROWS; row++) {
-					for (int col = 0; col < TwoZeroFourEightBoard.BOARD_COLS; col++) {
-						int x = this.getPixelPosFromIndex(col);
-						int y = this.getPixelPosFromIndex(row);
-						MapCanvas tileView = this.view.getView(x, y, TwoZeroFourEightBoard.TILE_SIZE,
-								TwoZeroFourEightBoard.TILE_SIZE);
-						Main.fillRoundedRectangle(tileView, MapColorPalette.getColor(205, 193, 181));
-					}
+			long start = TwoZeroFourEightEvents.isEnabled() ? System.nanoTime() : 0L;
+			this.redrawing = false;
+			this.changed = false;
+			this.compose();
+			this.view.draw(this.composed, 0, 0);
+			System.arraycopy(this.composed.getBuffer(), 0, this.presented, 0, this.presented.length);
+			if (TwoZeroFourEightEvents.isEnabled()) {
+				TwoZeroFourEightEvents.draw(this.getWidth(), this.getHeight(), true, System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * Draws the board, either the title screen or the empty cells with the tiles
+		 * on top, into the composed frame
+		 * <p>
+		 * Everything is copied from the sprite cache, so that no text or shapes have
+		 * to be drawn on the larger walls. Tiles that were merged into another tile
+		 * are drawn first, so that they slide underneath it.
+		 *
+		 * @see {@link TwoZeroFourEightSprites} for how the sprites are drawn
+		 */
+		private void compose() {
+			MapTexture canvas = this.composed;
+			if (this.tiles == null) {
+				canvas.fill(this.sprites.getTheme().getBackground());
+				canvas.draw(this.sprites.getTitle(), 0, 0);
+				return;
+			}
+
+			canvas.draw(this.background, 0, 0);
+			for (int i = 0; i < this.animated.size(); i++) {
+				TwoZeroFourEightTile tile = this.animated.get(i);
+				if (tile.isMerged() && !this.instantMerges) {
+					canvas.draw(this.getSprite(tile), tile.getX(), tile.getY());
 				}
-			} else {
-				MapFont<Character> titleFont = MapFont.MINECRAFT, subtitleFont = MapFont.TINY;
-				String titleText = "2048", subtitleText = "TAP TO START";
-				byte textColor = MapColorPalette.getColor(229, 198, 67);
-				byte subColor = MapColorPalette.getSpecular(textColor, 0.7f);
+			}
+			for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+				TwoZeroFourEightTile tile = this.tiles.get(index);
+				if (tile != null) {
+					canvas.draw(this.getSprite(tile), tile.getX(), tile.getY());
+				}
+			}
+		}
+
+		/**
+		 * Gets the sprite of a tile, which is the obstacle sprite for an obstacle
+		 *
+		 * @param tile the tile
+		 * @return the sprite
+		 */
+		private MapTexture getSprite(TwoZeroFourEightTile tile) {
+			int value = tile.getValue();
+			return value == TwoZeroFourEightRules.OBSTACLE ? this.sprites.getObstacle() : this.sprites.getTile(value);
+		}
 
-				Dimension titleDimensions = this.view.calcFontSize(titleFont, titleText);
-				Dimension subtitleDimensions = this.view.calcFontSize(subtitleFont, subtitleText);
+		/**
+		 * Draws the empty board with its cells
+		 *
+		 * @return the empty board
+		 */
+		private MapTexture drawBackground() {
+			MapTexture canvas = MapTexture.createEmpty(this.getWidth(), this.getHeight());
+			canvas.fill(this.sprites.getTheme().getBoard());
+			MapTexture emptyCell = this.sprites.getEmptyCell();
+			for (int row = 0; row < TwoZeroFourEightBoard.BOARD_ROWS; row++) {
+				for (int col = 0; col < TwoZeroFourEightBoard.BOARD_COLS; col++) {
+					canvas.draw(emptyCell, this.getPixelPosFromIndex(col), this.getPixelPosFromIndex(row));
+				}
+			}
+			return canvas;
+		}
 
-				int titleX = (this.getWidth() - titleDimensions.width) / 2;
-				int titleY = this.getHeight() / 2 - 4 - titleDimensions.height;
-				int subtitleX = (this.getWidth() - subtitleDimensions.width) / 2;
-				int subtitleY = this.getHeight() / 2 + 4;
+		/**
+		 * Shows the next frame if anything has changed
+		 * <p>
+		 * The frame is composed and compared with the pixels that are currently shown,
+		 * row by row, to find the smallest rectangle that contains every changed
+		 * pixel. Only that rectangle is drawn onto the display, so only that part of
+		 * the map is sent to the players. A frame that looks the same as the last one,
+		 * for example a tile that moved less than a pixel, is not drawn at all.
+		 * <p>
+		 * Nothing is drawn while the win/lose dialog is open, because it covers the
+		 * board.
+		 */
+		private void present() {
+			if (!this.changed || this.composed == null || this.redrawing || this.dialog != null) {
+				return;
+			}
+			this.changed = false;
+			long start = TwoZeroFourEightEvents.isEnabled() ? System.nanoTime() : 0L;
+			this.compose();
+
+			byte[] next = this.composed.getBuffer(), shown = this.presented;
+			int width = this.composed.getWidth(), height = this.composed.getHeight();
+			int minX = width, maxX = -1, minY = -1, maxY = -1;
+			for (int y = 0; y < height; y++) {
+				int row = y * width, left = 0;
+				while (left < width && next[row + left] == shown[row + left]) {
+					left++;
+				}
+				if (left == width) {
+					continue;
+				}
+				int right = width - 1;
+				while (next[row + right] == shown[row + right]) {
+					right--;
+				}
+				minX = Math.min(minX, left);
+				maxX = Math.max(maxX, right);
+				if (minY == -1) {
+					minY = y;
+				}
+				maxY = y;
+			}
+			if (minY == -1) {
+				return;
+			}
 
-				this.view.draw(titleFont, titleX + 1, titleY + 1, subColor, titleText);
-				this.view.draw(subtitleFont, subtitleX + 1, subtitleY + 1, subColor, subtitleText);
-				this.view.draw(titleFont, titleX, titleY, textColor, titleText);
-				this.view.draw(subtitleFont, subtitleX, subtitleY, textColor, subtitleText);
+			int regionWidth = maxX - minX + 1;
+			for (int y = minY; y <= maxY; y++) {
+				System.arraycopy(next, y * width + minX, shown, y * width + minX, regionWidth);
+			}
+			this.view.getView(minX, minY, regionWidth, maxY - minY + 1).draw(this.composed, -minX, -minY);
+			if (TwoZeroFourEightEvents.isEnabled()) {
+				TwoZeroFourEightEvents.draw(regionWidth, maxY - minY + 1, false, System.nanoTime() - start);
 			}
 		}
 
@@ -586,20 +1584,25 @@ public class Main extends JavaPlugin {
 		 * <ol>
 		 * <li>Clear all existing widgets
 		 * <li>Load the required board state
-		 * <li>Draw the board to the root widget
+		 * <li>Redraw the whole board
 		 * </ol>
 		 *
 		 * @see {@link MapWidget#clearWidgets()} for clearing all widgets
 		 * @see {@link #loadBoard()} for loading the required board state
-		 * @see {@link #drawBoard()} for drawing the board to the root widget
+		 * @see {@link #onDraw()} for drawing the board
 		 */
 		public void reload() {
 			if (this.display == null) {
 				return;
 			}
+			if (this.animating) {
+				this.finishAnimation();
+			}
 			this.clearWidgets();
+			this.dialog = null;
 			this.loadBoard();
-			this.drawBoard();
+			this.redrawing = true;
+			this.invalidate();
 		}
 
 		/**
@@ -653,82 +1656,248 @@ public class Main extends JavaPlugin {
 		}
 
 		/**
-		 * Draws the board to the current root widget
+		 * Generates a new board
 		 * <p>
-		 * This method adds tiles for each in the list.
+		 * In here, we do 3 things:
+		 * <ol>
+		 * <li>Generate all the required tiles, setting their bounds and focusable
+		 * state, and hook into any callback functions that are required
+		 * <li>Randomly pick tiles to generate the required number of mines. This loops
+		 * infinitely until the required number is achieved
+		 * <li>For each non-mine, count the number of mines surrounding it, and update
+		 * the number that's shown on the tile
 		 */
-		private void drawBoard() {
-			if (this.tiles == null) {
-				return;
+		private void generateNewBoard() {
+			this.clearCells();
+			this.refreshSettings();
+			this.rules = this.race != null ? this.race.getRules() : this.settings.getRules();
+			this.spawnIndex = 0;
+			this.seed = TwoZeroFourEightBoard.RANDOM.nextLong();
+			this.history.clear();
+			this.recordedScore = -1;
+			this.finishRecorded = false;
+			this.replayLength = 0;
+			this.replayComplete = this.race == null;
+			this.moveCount = 0;
+			this.playedCount = 0;
+			if (this.stats != null) {
+				this.stats.recordGame();
 			}
 
-			for (TwoZeroFourEightTile tile : this.tiles) {
-				if (tile != null) {
-					this.addWidget(tile);
+			for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+				if (!this.rules.isPlayable(index)) {
+					this.placeTile(index, TwoZeroFourEightRules.OBSTACLE);
 				}
 			}
+			for (int i = 0; i < this.rules.getObstacles(); i++) {
+				this.spawnTile(true);
+			}
+			for (int i = 0; i < 2; i++) {
+				this.spawnTile(false);
+			}
+		}
 
-			if (this.state == GameState.GAME) {
-				// Add 4 dummy map widgets that handle click
-				int divideFactor = 4;
-				int widthDivided = this.getWidth() / divideFactor, heightDivided = this.getHeight() / divideFactor;
-				this.addWidget(new MapWidgetClickKey(MapPlayerInput.Key.UP) {
-					@Override
-					public void onClick(Key key) {
-						TwoZeroFourEightBoard.this.handleMove(key);
-					}
-				}).setBounds(widthDivided, 0, widthDivided * (divideFactor - 2), heightDivided);
+		/**
+		 * Spawns a new tile on a random empty cell
+		 * <p>
+		 * In a race, the cell and the value are taken from the shared spawn sequence of
+		 * the race, so that all participants get the same tiles. Otherwise, they are
+		 * picked by mixing the seed of the game with the spawn index, so that undoing
+		 * a move and making it again gives the same tile.
+		 * <p>
+		 * Obstacles are placed the same way at the start of a game, so all
+		 * participants of a race also get the same obstacles.
+		 *
+		 * @param obstacle whether to place an obstacle instead of a tile
+		 * @return the new tile, or {@code null} if there are no empty cells
+		 */
+		private TwoZeroFourEightTile spawnTile(boolean obstacle) {
+			int emptyCount = 0;
+			for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+				if (this.tiles.get(index) == null) {
+					emptyCount++;
+				}
+			}
+			if (emptyCount == 0) {
+				return null;
+			}
 
-				this.addWidget(new MapWidgetClickKey(MapPlayerInput.Key.DOWN) {
-					@Override
-					public void onClick(Key key) {
-						TwoZeroFourEightBoard.this.handleMove(key);
-					}
-				}).setBounds(widthDivided, heightDivided * (divideFactor - 1), widthDivided * (divideFactor - 2),
-						heightDivided);
+			int index, rank;
+			if (this.race != null) {
+				TwoZeroFourEightSpawnSequence spawns = this.race.getSpawns();
+				index = this.findEmptyTile(spawns.getPick(this.spawnIndex, emptyCount));
+				rank = spawns.getRank(this.spawnIndex);
+			} else {
+				long random = this.getSpawnRandom();
+				index = this.findEmptyTile((int) ((random >>> 32) % emptyCount));
+				rank = this.getSpawnRank(random);
+			}
+			this.spawnIndex++;
 
-				this.addWidget(new MapWidgetClickKey(MapPlayerInput.Key.LEFT) {
-					@Override
-					public void onClick(Key key) {
-						TwoZeroFourEightBoard.this.handleMove(key);
-					}
-				}).setBounds(0, heightDivided, widthDivided, heightDivided * (divideFactor - 2));
+			return this.placeTile(index, obstacle ? TwoZeroFourEightRules.OBSTACLE : this.rules.toValue(rank));
+		}
 
-				this.addWidget(new MapWidgetClickKey(MapPlayerInput.Key.RIGHT) {
-					@Override
-					public void onClick(Key key) {
-						TwoZeroFourEightBoard.this.handleMove(key);
-					}
-				}).setBounds(widthDivided * (divideFactor - 1), heightDivided, widthDivided,
-						heightDivided * (divideFactor - 2));
+		/**
+		 * Gets the random number that decides the next spawn outside of a race
+		 * <p>
+		 * It only depends on the seed of the game and the number of spawns so far, so
+		 * the next spawn is known before it happens.
+		 *
+		 * @return the random number
+		 */
+		private long getSpawnRandom() {
+			return TwoZeroFourEightBoard.mix(this.seed + this.spawnIndex * 0x9E3779B97F4A7C15L);
+		}
+
+		/**
+		 * Gets the rank of a spawned tile outside of a race
+		 *
+		 * @param random the random number of the spawn
+		 * @return the rank of the new tile
+		 */
+		private int getSpawnRank(long random) {
+			return (random & 0xFFFFFF) < this.settings.getFourProbability() * 0x1000000 ? 2 : 1;
+		}
+
+		/**
+		 * Works out the position after the next spawn outside of a race, without
+		 * changing the game
+		 *
+		 * @param board the packed board before the spawn
+		 * @return the packed board after the spawn
+		 */
+		private long predictSpawn(long board) {
+			int emptyCount = TwoZeroFourEightEngine.countEmpty(board);
+			if (emptyCount == 0) {
+				return board;
 			}
+			long random = this.getSpawnRandom();
+			return TwoZeroFourEightEngine.spawn(board, (int) ((random >>> 32) % emptyCount),
+					this.getSpawnRank(random));
 		}
 
 		/**
-		 * Generates a new board
-		 * <p>
-		 * In here, we do 3 things:
-		 * <ol>
-		 * <li>Generate all the required tiles, setting their bounds and focusable
-		 * state, and hook into any callback functions that are required
-		 * <li>Randomly pick tiles to generate the required number of mines. This loops
-		 * infinitely until the required number is achieved
-		 * <li>For each non-mine, count the number of mines surrounding it, and update
-		 * the number that's shown on the tile
+		 * Creates a tile on an empty cell
+		 *
+		 * @param index the index of the cell
+		 * @param value the value of the tile
+		 * @return the new tile
 		 */
-		private void generateNewBoard() {
-			this.tiles = Arrays.asList(new TwoZeroFourEightTile[16]);
+		private TwoZeroFourEightTile placeTile(int index, int value) {
+			TwoZeroFourEightTile tile = this.obtainTile(value);
+			tile.place(this.getPixelPosFromIndex(index % TwoZeroFourEightBoard.BOARD_COLS),
+					this.getPixelPosFromIndex(index / TwoZeroFourEightBoard.BOARD_COLS));
+			this.tiles.set(index, tile);
+			return tile;
+		}
 
-			for (int i = 0; i < 2; i++) {
-				int index = this.findRandomEmptyTile();
-				int value = TwoZeroFourEightBoard.getRandomStartingValue();
+		/**
+		 * Gets a tile that is not on the board, reusing one that has left the board
+		 * if there is one
+		 *
+		 * @param value the value of the tile
+		 * @return the tile, which still has to be placed
+		 */
+		private TwoZeroFourEightTile obtainTile(int value) {
+			TwoZeroFourEightTile tile = this.spareTiles.poll();
+			if (tile == null) {
+				return new TwoZeroFourEightTile(value);
+			}
+			tile.setValue(value);
+			return tile;
+		}
+
+		/**
+		 * Keeps a tile that has left the board, so that it can be reused
+		 *
+		 * @param tile the tile
+		 */
+		private void recycleTile(TwoZeroFourEightTile tile) {
+			if (this.spareTiles.size() < TwoZeroFourEightEngine.CELLS) {
+				tile.bufferValue(0);
+				this.spareTiles.push(tile);
+			}
+		}
+
+		/**
+		 * Empties all cells of the board, keeping their tiles for reuse, and makes
+		 * the cells the tiles of the board
+		 */
+		private void clearCells() {
+			for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+				TwoZeroFourEightTile tile = this.cells.get(index);
+				if (tile != null) {
+					this.recycleTile(tile);
+					this.cells.set(index, null);
+				}
+			}
+			this.tiles = this.cells;
+		}
+
+		/**
+		 * Saves a running game into the properties of the display
+		 * <p>
+		 * The tiles are saved as a packed board, together with the rules that the
+		 * game is played under.
+		 *
+		 * @param properties the properties of the display
+		 * @see TwoZeroFourEightEngine
+		 */
+		public void hibernate(MapDisplayProperties properties) {
+			if (this.animating) {
+				this.finishAnimation();
+			}
+			long board = this.state == GameState.GAME && this.tiles != null ? this.packBoard() : -1L;
+			properties.set("hibernated", board != -1L);
+			if (board == -1L) {
+				return;
+			}
+			properties.set("savedBoard", board);
+			properties.set("savedScore", this.score);
+			properties.set("savedSeed", this.seed);
+			properties.set("savedSpawnIndex", this.spawnIndex);
+			properties.set("savedContinueMode", this.continueMode);
+			properties.set("savedMoveCount", this.moveCount);
+			properties.set("savedRules", this.rules.getMerge().name());
+			properties.set("savedWinTile", this.rules.getWinTile());
+			properties.set("savedObstacles", this.rules.getObstacles());
+			properties.set("savedRows", this.rules.getRows());
+			properties.set("savedCols", this.rules.getCols());
+		}
 
-				TwoZeroFourEightTile tile = new TwoZeroFourEightTile(value);
-				Point rowCol = this.getRowColFromIndex(index);
-				tile.setBounds(this.getPixelPosFromIndex(rowCol.y), this.getPixelPosFromIndex(rowCol.x),
-						TwoZeroFourEightBoard.TILE_SIZE, TwoZeroFourEightBoard.TILE_SIZE);
-				this.tiles.set(index, tile);
+		/**
+		 * Restores a game that was saved by {@link #hibernate(MapDisplayProperties)}
+		 *
+		 * @param properties the properties of the display
+		 */
+		public void wake(MapDisplayProperties properties) {
+			if (!properties.get("hibernated", false)) {
+				return;
+			}
+			properties.set("hibernated", false);
+
+			long board = properties.get("savedBoard", 0L);
+			TwoZeroFourEightRules.Merge merge = TwoZeroFourEightRules.Merge
+					.fromName(properties.get("savedRules", TwoZeroFourEightRules.Merge.STANDARD.name()));
+			this.rules = TwoZeroFourEightRules.compile(merge == null ? TwoZeroFourEightRules.Merge.STANDARD : merge,
+					properties.get("savedWinTile", 2048), properties.get("savedObstacles", 0),
+					properties.get("savedRows", 4), properties.get("savedCols", 4));
+			this.clearCells();
+			for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+				int rank = TwoZeroFourEightEngine.getCell(board, index);
+				if (rank != 0) {
+					this.placeTile(index, this.rules.toValue(rank));
+				}
 			}
+			this.score = properties.get("savedScore", 0);
+			this.seed = properties.get("savedSeed", 0L);
+			this.spawnIndex = properties.get("savedSpawnIndex", 0);
+			this.continueMode = properties.get("savedContinueMode", false);
+			this.moveCount = properties.get("savedMoveCount", 0);
+			this.replayLength = 0;
+			this.replayComplete = false;
+			this.history.clear();
+			this.setState(GameState.GAME);
 		}
 
 		/**
@@ -738,211 +1907,651 @@ public class Main extends JavaPlugin {
 		 * works.
 		 */
 		private void handleMove(MapPlayerInput.Key direction) {
-			if (this.tiles.stream().filter(Objects::nonNull).anyMatch(TwoZeroFourEightTile::isMoving)) {
+			if (this.animating) {
+				return;
+			}
+			this.refreshSettings();
+			long start = TwoZeroFourEightEvents.isEnabled() ? System.nanoTime() : 0L;
+
+			// Remember the state before the move, so that it can be undone
+			long before = this.packBoard();
+			int scoreBefore = this.score;
+			if (before == -1L) {
+				// A tile that the rules do not have cannot be moved, so the game cannot go on.
+				// It is not recorded, since it was not played under its rules.
+				if (this.display != null) {
+					this.display.getPlugin().getLogger()
+							.warning("Ended a game of 2048 that has a tile its rules do not have");
+				}
+				this.setState(GameState.LOSE);
 				return;
 			}
 
-			// Choose the order according to move direction
-			int[] order = new int[0];
-
+			int engineDirection;
 			switch (direction) {
 			case UP:
-				order = IntStream.range(0, TwoZeroFourEightBoard.BOARD_ROWS * TwoZeroFourEightBoard.BOARD_COLS)
-						.toArray();
+				engineDirection = TwoZeroFourEightEngine.UP;
 				break;
 			case DOWN:
-				order = IntStream.range(0, TwoZeroFourEightBoard.BOARD_ROWS * TwoZeroFourEightBoard.BOARD_COLS)
-						.map(i -> ~i).sorted().map(i -> ~i).toArray();
+				engineDirection = TwoZeroFourEightEngine.DOWN;
 				break;
 			case LEFT:
-				order = IntStream.range(0, TwoZeroFourEightBoard.BOARD_COLS).flatMap(i -> IntStream
-						.range(0, TwoZeroFourEightBoard.BOARD_ROWS).map(j -> j * TwoZeroFourEightBoard.BOARD_COLS + i))
-						.toArray();
+				engineDirection = TwoZeroFourEightEngine.LEFT;
 				break;
 			case RIGHT:
-				order = IntStream.range(0, TwoZeroFourEightBoard.BOARD_COLS).map(i -> ~i).sorted().map(i -> ~i)
-						.flatMap(i -> IntStream.range(0, TwoZeroFourEightBoard.BOARD_ROWS)
-								.map(j -> j * TwoZeroFourEightBoard.BOARD_COLS + i))
-						.toArray();
+				engineDirection = TwoZeroFourEightEngine.RIGHT;
 				break;
 			default:
-				break;
+				return;
 			}
 
-			// For each tile, move to position, merging when necessary
-			boolean hasMoved = false;
-			for (int index : order) {
-				TwoZeroFourEightTile current = this.getTile(index);
-				if (current == null) {
-					continue;
+			// Look up where each tile goes in the tables of the rules, and move it there
+			long after = this.rules.move(before, engineDirection);
+			boolean hasMoved = after != before;
+			if (hasMoved) {
+				this.moveDestinations = this.rules.getDestinations(before, engineDirection);
+				this.score += this.rules.score(before, engineDirection);
+				this.applyMove(after);
+				this.history.push(before, this.moveDestinations, scoreBefore, this.spawnIndex);
+				if (this.race != null) {
+					this.race.reportScore(this.raceSlot, this.score);
+				}
+				if (this.stats != null) {
+					this.stats.recordMove();
+				}
+				this.moveCount++;
+				this.recordReplay((byte) engineDirection);
+				this.recordPlayed(before, (byte) engineDirection);
+				if (this.race == null && this.settings.isAiPrefetch()) {
+					// The spawn is already known, so the next position can be searched right away
+					TwoZeroFourEightSearch.prefetch(this.rules, this.predictSpawn(after));
 				}
+				this.startAnimation(true);
+			}
 
-				Point rowCol = this.getRowColFromIndex(index);
-				int row = rowCol.x, col = rowCol.y;
-
-				switch (direction) {
-				case UP: {
-					while (row >= 0) {
-						int newRow = row - 1, newCol = col;
-						boolean nextToWall = newRow < 0;
-						TwoZeroFourEightTile adjacent = this.getTile(newRow, newCol);
-						if (nextToWall || adjacent != null && (adjacent.hasBufferedValue() || current.hasBufferedValue()
-								|| adjacent.getValue() != current.getValue())) {
-							// It is next to wall or tile of different value. End movement on current tile.
-							this.moveTile(index, row, col);
-							break;
-						}
-						if (adjacent != null && adjacent.getValue() == current.getValue()) {
-							// It is next to tile of same value. End movement on next tile.
-							this.mergeScores(current, adjacent);
-							hasMoved = true;
-							this.moveTile(index, newRow, newCol);
-							break;
+			if (TwoZeroFourEightEvents.isEnabled()) {
+				this.recordMoveEvent(direction, before, hasMoved, System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * Sends a flight recorder event for a move
+		 *
+		 * @param direction the direction of the move
+		 * @param before    the packed board before the move
+		 * @param hasMoved  whether any tile moved
+		 * @param nanos     how long the move took
+		 */
+		private void recordMoveEvent(MapPlayerInput.Key direction, long before, boolean hasMoved, long nanos) {
+			int moved = 0, merges = 0;
+			if (hasMoved) {
+				int tilesBefore = 0;
+				for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+					if (TwoZeroFourEightEngine.getCell(before, index) != 0) {
+						tilesBefore++;
+						if (TwoZeroFourEightEngine.getCell(this.moveDestinations, index) != index) {
+							moved++;
 						}
-						// There is room to move
-						row = newRow;
-						col = newCol;
-						hasMoved = true;
 					}
-					break;
 				}
-				case DOWN: {
-					while (row < TwoZeroFourEightBoard.BOARD_ROWS) {
-						int newRow = row + 1, newCol = col;
-						boolean nextToWall = newRow >= TwoZeroFourEightBoard.BOARD_ROWS;
-						TwoZeroFourEightTile adjacent = this.getTile(newRow, newCol);
-						if (nextToWall || adjacent != null && (adjacent.hasBufferedValue() || current.hasBufferedValue()
-								|| adjacent.getValue() != current.getValue())) {
-							// It is next to wall or tile of different value. End movement on current tile.
-							this.moveTile(index, row, col);
-							break;
-						}
-						if (adjacent != null && adjacent.getValue() == current.getValue()) {
-							// It is next to tile of same value. End movement on next tile.
-							this.mergeScores(current, adjacent);
-							hasMoved = true;
-							this.moveTile(index, newRow, newCol);
-							break;
-						}
-						// There is room to move
-						row = newRow;
-						col = newCol;
-						hasMoved = true;
+				int tilesAfter = 0;
+				for (TwoZeroFourEightTile tile : this.tiles) {
+					if (tile != null) {
+						tilesAfter++;
 					}
-					break;
 				}
-				case LEFT: {
-					while (col >= 0) {
-						int newRow = row, newCol = col - 1;
-						boolean nextToWall = newCol < 0;
-						TwoZeroFourEightTile adjacent = this.getTile(newRow, newCol);
-						if (nextToWall || adjacent != null && (adjacent.hasBufferedValue() || current.hasBufferedValue()
-								|| adjacent.getValue() != current.getValue())) {
-							// It is next to wall or tile of different value. End movement on current tile.
-							this.moveTile(index, row, col);
-							break;
-						}
-						if (adjacent != null && adjacent.getValue() == current.getValue()) {
-							// It is next to tile of same value. End movement on next tile.
-							this.mergeScores(current, adjacent);
-							hasMoved = true;
-							this.moveTile(index, newRow, newCol);
-							break;
-						}
-						// There is room to move
-						row = newRow;
-						col = newCol;
-						hasMoved = true;
+				// The new tile has already spawned if the move was not animated
+				merges = tilesBefore - tilesAfter + (this.animating ? 0 : 1);
+			}
+			TwoZeroFourEightEvents.move(direction.name(), moved, Math.max(0, merges), nanos);
+		}
+
+		/**
+		 * Switches to the current settings, which happens at the start of every move
+		 * and every new game
+		 */
+		private void refreshSettings() {
+			TwoZeroFourEightSettings current = TwoZeroFourEightSettings.get();
+			if (current == this.settings) {
+				return;
+			}
+			if (this.display != null && current.getVolume() != this.settings.getVolume()) {
+				this.display.setMasterVolume(current.getVolume());
+			}
+			this.settings = current;
+		}
+
+		/**
+		 * Moves every tile to the cell that the rules send it to, updating its
+		 * position on the display
+		 * <p>
+		 * The first tile that arrives at a cell stays, and takes the value that the
+		 * rules give that cell. Any other tile that arrives at the same cell is merged
+		 * into it.
+		 *
+		 * @param after the packed board after the move
+		 */
+		private void applyMove(long after) {
+			TwoZeroFourEightTile[] arrived = this.arrivedTiles;
+			Arrays.fill(arrived, null);
+			for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+				TwoZeroFourEightTile tile = this.tiles.get(index);
+				if (tile == null) {
+					continue;
+				}
+				int destination = TwoZeroFourEightEngine.getCell(this.moveDestinations, index);
+				tile.setTargetPosition(this.getPixelPosFromIndex(destination % TwoZeroFourEightBoard.BOARD_COLS),
+						this.getPixelPosFromIndex(destination / TwoZeroFourEightBoard.BOARD_COLS));
+
+				TwoZeroFourEightTile keep = arrived[destination];
+				if (keep == null) {
+					arrived[destination] = tile;
+					if (destination != index) {
+						this.animated.add(tile);
 					}
-					break;
+					continue;
 				}
-				case RIGHT: {
-					while (col < TwoZeroFourEightBoard.BOARD_COLS) {
-						int newRow = row, newCol = col + 1;
-						boolean nextToWall = newCol >= TwoZeroFourEightBoard.BOARD_COLS;
-						TwoZeroFourEightTile adjacent = this.getTile(newRow, newCol);
-						if (nextToWall || adjacent != null && (adjacent.hasBufferedValue() || current.hasBufferedValue()
-								|| adjacent.getValue() != current.getValue())) {
-							// It is next to wall or tile of different value. End movement on current tile.
-							this.moveTile(index, row, col);
-							break;
-						}
-						if (adjacent != null && adjacent.getValue() == current.getValue()) {
-							// It is next to tile of same value. End movement on next tile.
-							this.mergeScores(current, adjacent);
-							hasMoved = true;
-							this.moveTile(index, newRow, newCol);
-							break;
-						}
-						// There is room to move
-						row = newRow;
-						col = newCol;
-						hasMoved = true;
+				if (!keep.hasBufferedValue()) {
+					int value = this.rules.toValue(TwoZeroFourEightEngine.getCell(after, destination));
+					keep.bufferValue(value);
+					if (this.stats != null) {
+						this.stats.recordMerge(value);
+					}
+					// A tile that stays where it is has not been animated yet
+					if (keep.getStartX() == keep.getEndX() && keep.getStartY() == keep.getEndY()) {
+						this.animated.add(keep);
+					}
+				}
+				tile.bufferValue(-1);
+				this.animated.add(tile);
+			}
+			for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+				this.tiles.set(index, arrived[index]);
+			}
+		}
+
+		/**
+		 * Starts animating the tiles that have been given a target position or a
+		 * buffered value
+		 * <p>
+		 * The animation settings are read once here, so a move always finishes the
+		 * way it started. The number of frames and how merges look depend on the
+		 * {@link TwoZeroFourEightQuality} at that moment. With 0 frames, the
+		 * animation finishes right away.
+		 * <p>
+		 * If enabled, the frames of the move are prepared in the background, and the
+		 * ticks of the move only have to show them.
+		 *
+		 * @param spawn whether a new tile spawns when the animation ends
+		 * @see TwoZeroFourEightFrameSequence
+		 */
+		private void startAnimation(boolean spawn) {
+			this.animating = true;
+			this.frame = 0;
+			TwoZeroFourEightQuality quality = this.getQuality();
+			this.frames = quality.getFrames(this.settings.getAnimationFrames());
+			this.instantMerges = quality.hasInstantMerges();
+			this.easing = this.settings.getAnimationEasing();
+			this.spawnAfterAnimation = spawn;
+			this.changed = true;
+			if (this.frames <= 0) {
+				this.finishAnimation();
+			} else if (this.frames > 1 && this.settings.isPrepareAnimations() && this.composed != null) {
+				this.prepareSequence();
+			}
+		}
+
+		/**
+		 * Gets the quality that the next move is animated at
+		 * <p>
+		 * This is the quality of the server, unless nobody is close enough to see the
+		 * board, in which case tiles move instantly.
+		 *
+		 * @return the quality
+		 */
+		private TwoZeroFourEightQuality getQuality() {
+			TwoZeroFourEightQuality quality = TwoZeroFourEightQuality.getCurrent();
+			double distance = TwoZeroFourEightQuality.getViewDistance();
+			if (distance > 0.0 && quality != TwoZeroFourEightQuality.MINIMAL && this.display != null
+					&& !this.isSeen(distance)) {
+				return TwoZeroFourEightQuality.MINIMAL;
+			}
+			return quality;
+		}
+
+		/**
+		 * Checks whether anyone is close enough to see the board
+		 * <p>
+		 * A viewer sees the board when they hold its map, or when an item frame with
+		 * its map is within the distance. The result is kept for a second, since
+		 * looking for item frames is not free.
+		 *
+		 * @param distance how close a viewer has to be, in blocks
+		 * @return whether anyone can see the board
+		 */
+		private boolean isSeen(double distance) {
+			long now = System.nanoTime();
+			if (now - this.seenCheckedAt < TwoZeroFourEightBoard.VIEW_CHECK_NANOS) {
+				return this.seen;
+			}
+			this.seenCheckedAt = now;
+
+			for (Player viewer : this.display.getViewers()) {
+				if (this.isShownBy(viewer.getInventory().getItemInMainHand())) {
+					return this.seen = true;
+				}
+				for (Entity entity : viewer.getNearbyEntities(distance, distance, distance)) {
+					if (entity instanceof ItemFrame && this.isShownBy(((ItemFrame) entity).getItem())) {
+						return this.seen = true;
+					}
+				}
+			}
+			return this.seen = false;
+		}
+
+		/**
+		 * Checks whether an item is a map that shows this board
+		 *
+		 * @param item the item
+		 * @return whether the item shows this board
+		 */
+		private boolean isShownBy(ItemStack item) {
+			return item != null && MapDisplay.getAllDisplays(item).contains(this.display);
+		}
+
+		/**
+		 * Prepares the frames of the current animation in the background
+		 * <p>
+		 * Anything that has not been shown yet is shown first, so that the sequence
+		 * starts from the pixels that are on the display.
+		 */
+		private void prepareSequence() {
+			this.present();
+			if (this.redrawing) {
+				return;
+			}
+
+			this.sequence = new TwoZeroFourEightFrameSequence(this.background, this.frames, this.easing,
+					this.presented);
+			for (TwoZeroFourEightTile tile : this.animated) {
+				if (tile.isMerged() && !this.instantMerges) {
+					this.sequence.addTile(this.getSprite(tile), tile.getStartX(), tile.getStartY(),
+							tile.getEndX(), tile.getEndY());
+				}
+			}
+			for (TwoZeroFourEightTile tile : this.tiles) {
+				if (tile != null) {
+					this.sequence.addTile(this.getSprite(tile), tile.getStartX(), tile.getStartY(),
+							tile.getEndX(), tile.getEndY());
+				}
+			}
+			Bukkit.getScheduler().runTaskAsynchronously(this.display.getPlugin(), this.sequence);
+		}
+
+		/**
+		 * Finishes the current animation, placing all tiles at their target position,
+		 * applying buffered values, and spawning a new tile if needed
+		 */
+		private void finishAnimation() {
+			for (int i = 0; i < this.animated.size(); i++) {
+				TwoZeroFourEightTile tile = this.animated.get(i);
+				tile.animate(1.0);
+				if (tile.isMerged()) {
+					this.recycleTile(tile);
+				} else {
+					tile.applyBufferedValue();
+				}
+			}
+			this.animated.clear();
+			this.animating = false;
+			this.sequence = null;
+			this.changed = true;
+
+			if (this.spawnAfterAnimation) {
+				this.spawnAfterAnimation = false;
+				this.spawnTile(false);
+			}
+		}
+
+		/**
+		 * Undoes the last move
+		 * <p>
+		 * The tiles are not rebuilt. Instead, each tile of the earlier state takes the
+		 * tile that it became during the move, and slides back to where it came from.
+		 * A second tile that was merged into the same tile gets a new tile that slides
+		 * out of it, and the tile that spawned after the move is removed.
+		 * <p>
+		 * Undo is not available in a race, or while tiles are still moving.
+		 */
+		private void undo() {
+			if (this.race != null || this.animating) {
+				return;
+			}
+			int slot = this.history.pop();
+			if (slot == -1) {
+				return;
+			}
+
+			long board = this.history.getBoard(slot);
+			long destinations = this.history.getDestinations(slot);
+			TwoZeroFourEightTile[] restored = this.restoredTiles;
+			boolean[] claimed = this.claimedTiles;
+			Arrays.fill(restored, null);
+			Arrays.fill(claimed, false);
+
+			for (int index = 0; index < restored.length; index++) {
+				int rank = TwoZeroFourEightEngine.getCell(board, index);
+				if (rank == 0) {
+					continue;
+				}
+
+				int from = TwoZeroFourEightEngine.getCell(destinations, index);
+				TwoZeroFourEightTile tile = this.tiles.get(from);
+				if (tile == null || claimed[from]) {
+					tile = this.obtainTile(this.rules.toValue(rank));
+					tile.place(this.getPixelPosFromIndex(from % TwoZeroFourEightBoard.BOARD_COLS),
+							this.getPixelPosFromIndex(from / TwoZeroFourEightBoard.BOARD_COLS));
+				} else if (tile.getValue() != this.rules.toValue(rank)) {
+					tile.setValue(this.rules.toValue(rank));
+				}
+				claimed[from] = true;
+
+				tile.setTargetPosition(this.getPixelPosFromIndex(index % TwoZeroFourEightBoard.BOARD_COLS),
+						this.getPixelPosFromIndex(index / TwoZeroFourEightBoard.BOARD_COLS));
+				this.animated.add(tile);
+				restored[index] = tile;
+			}
+
+			// The tile that spawned after the move is not restored, so it is removed
+			for (int index = 0; index < restored.length; index++) {
+				TwoZeroFourEightTile tile = this.tiles.get(index);
+				if (tile != null && !claimed[index]) {
+					this.recycleTile(tile);
+				}
+			}
+			for (int index = 0; index < restored.length; index++) {
+				this.tiles.set(index, restored[index]);
+			}
+			this.score = this.history.getScore(slot);
+			this.spawnIndex = this.history.getSpawnIndex(slot);
+			this.recordReplay(TwoZeroFourEightStorage.Game.UNDO);
+			this.playedCount = Math.max(0, this.playedCount - 1);
+			this.startAnimation(false);
+		}
+
+		/**
+		 * Starts a new game right away, skipping the title screen
+		 * <p>
+		 * This also works on a board that is not attached to a display, which only
+		 * keeps the game state without drawing it.
+		 */
+		void startGame() {
+			this.tiles = null;
+			this.state = GameState.GAME;
+			if (this.display == null) {
+				this.loadBoard();
+			} else {
+				this.reload();
+			}
+		}
+
+		/**
+		 * Makes a move in a random direction, or starts a new game if the game is over
+		 *
+		 * @param random the random generator
+		 */
+		void playRandomMove(Random random) {
+			if (this.state != GameState.GAME || this.tiles == null) {
+				this.startGame();
+			} else {
+				this.handleMove(TwoZeroFourEightBoard.DIRECTION_KEYS[random.nextInt(4)]);
+			}
+		}
+
+		/**
+		 * Checks whether a game is running, which is not the case on the title screen
+		 * or once the game has been won or lost
+		 *
+		 * @return whether a game is running
+		 */
+		boolean isPlaying() {
+			return this.state == GameState.GAME && this.tiles != null;
+		}
+
+		/**
+		 * Makes a move in a random direction and finishes it right away, including the
+		 * spawn, which is only the move path without ticks or new games
+		 *
+		 * @param random the random generator
+		 * @return whether a game is running, otherwise nothing was done
+		 */
+		boolean playInstantMove(Random random) {
+			if (!this.isPlaying()) {
+				return false;
+			}
+			this.handleMove(TwoZeroFourEightBoard.DIRECTION_KEYS[random.nextInt(4)]);
+			if (this.animating) {
+				this.finishAnimation();
+			}
+			return true;
+		}
+
+		/**
+		 * Sets the statistics that this board records into
+		 *
+		 * @param stats the statistics of the owner
+		 */
+		public void setStats(TwoZeroFourEightStats stats) {
+			this.stats = stats;
+		}
+
+		/**
+		 * Adds a byte to the replay of the current game
+		 *
+		 * @param move a direction of {@link TwoZeroFourEightEngine}, or
+		 *             {@link TwoZeroFourEightStorage.Game#UNDO}
+		 */
+		private void recordReplay(byte move) {
+			if (!this.replayComplete) {
+				return;
+			}
+			if (this.replayLength == this.replay.length) {
+				this.replay = Arrays.copyOf(this.replay, this.replay.length * 2);
+			}
+			this.replay[this.replayLength++] = move;
+		}
+
+		/**
+		 * Adds a move to the moves of the current game that can be analysed
+		 *
+		 * @param board the packed board before the move
+		 * @param move  the direction of the move
+		 */
+		private void recordPlayed(long board, byte move) {
+			if (this.playedCount == this.playedBoards.length) {
+				this.playedBoards = Arrays.copyOf(this.playedBoards, this.playedCount * 2);
+				this.playedMoves = Arrays.copyOf(this.playedMoves, this.playedCount * 2);
+			}
+			this.playedBoards[this.playedCount] = board;
+			this.playedMoves[this.playedCount++] = move;
+		}
+
+		/**
+		 * Records the score of the game in the statistics when it is won or lost, and
+		 * queues the game to be stored
+		 * <p>
+		 * A game that is continued after it is won is stored again when it is lost,
+		 * replacing the first time. Each finish is only recorded once.
+		 * <p>
+		 * If enabled, the moves of the game are also queued to be analysed, except in
+		 * a race, where the AI is not allowed to help. Of a game that was saved into
+		 * its map and restored, only the moves since then are analysed.
+		 *
+		 * @param won whether the winning tile was reached
+		 */
+		private void recordFinish(boolean won) {
+			if (this.finishRecorded) {
+				return;
+			}
+			this.finishRecorded = true;
+			if (this.stats != null) {
+				this.stats.recordFinish(this.score, this.recordedScore);
+
+				int highestTile = 0;
+				for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+					TwoZeroFourEightTile tile = this.tiles.get(index);
+					if (tile != null) {
+						highestTile = Math.max(highestTile, tile.getValue());
 					}
-					break;
 				}
-				default:
-					break;
+				UUID player = this.stats.getPlayer();
+				String name = Bukkit.getOfflinePlayer(player).getName();
+				TwoZeroFourEightStorageWriter.submit(new TwoZeroFourEightStorage.Game(player,
+						name == null ? player.toString() : name, this.seed, System.currentTimeMillis(), this.score,
+						highestTile, this.moveCount, won,
+						this.replayComplete ? Arrays.copyOf(this.replay, this.replayLength) : null));
+
+				if (this.settings.isAiAnalysis() && this.race == null && this.playedCount > 0
+						&& this.display != null) {
+					TwoZeroFourEightAnalysis.submit(this.display.getPlugin(), player, this.rules,
+							Arrays.copyOf(this.playedBoards, this.playedCount),
+							Arrays.copyOf(this.playedMoves, this.playedCount), this.settings.getAiAnalysisDepth());
 				}
 			}
+			this.recordedScore = this.score;
+		}
 
-			if (hasMoved) {
-				this.movementCounter = TwoZeroFourEightBoard.MOVEMENT_FRAMES;
+		/**
+		 * Gets the position that the AI should search from
+		 *
+		 * @return the packed board, or -1 if there is no position to search, because
+		 *         no game is running, tiles are moving, the game is part of a race, or
+		 *         a tile is too large to be packed
+		 */
+		public long getSearchBoard() {
+			if (this.state != GameState.GAME || this.tiles == null || this.animating || this.race != null) {
+				return -1L;
 			}
+			return this.packBoard();
 		}
 
 		/**
-		 * Moves a tile to the new location in the list, updating its position on the
-		 * display
+		 * Gets the rules that the current game is played under, which the AI has to
+		 * search with
 		 *
-		 * @param oldIndex the current index of the tile
-		 * @param newRow   the new row number of the tile
-		 * @param newCol   the new column number of the tile
+		 * @return the rules
+		 */
+		public TwoZeroFourEightRules getRules() {
+			return this.rules;
+		}
+
+		/**
+		 * Searches for the next move of the AI player in the background, and makes it
+		 * on the main thread once it has been found
+		 * <p>
+		 * The move is only made if the board is still shown and the position has not
+		 * changed in the meantime, otherwise the search starts again on the next tick.
 		 */
-		private void moveTile(int oldIndex, int newRow, int newCol) {
-			TwoZeroFourEightTile tile = this.tiles.get(oldIndex);
-			tile.setTargetPosition(this.getPixelPosFromIndex(newCol), this.getPixelPosFromIndex(newRow));
-			this.tiles.set(oldIndex, null);
-			this.tiles.set(this.getIndexFromRowCol(newRow, newCol), tile);
+		private void searchAutoplayMove() {
+			long board = this.getSearchBoard();
+			if (board == -1L || this.display == null) {
+				this.autoplay = false;
+				return;
+			}
+			Plugin plugin = this.display.getPlugin();
+			TwoZeroFourEightRules rules = this.rules;
+			this.autoplaySearching = true;
+			Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+				int direction = TwoZeroFourEightSearch.bestMove(rules, board);
+				Bukkit.getScheduler().runTask(plugin, () -> {
+					this.autoplaySearching = false;
+					if (!this.autoplay || this.display == null || this.getSearchBoard() != board) {
+						return;
+					}
+					if (direction == -1) {
+						this.autoplay = false;
+					} else {
+						this.handleMove(TwoZeroFourEightBoard.DIRECTION_KEYS[direction]);
+					}
+				});
+			});
 		}
 
 		/**
-		 * Merge the scores of two tiles
+		 * Turns the AI player on or off
 		 *
-		 * @param keep the tile to keep
-		 * @param lose the tile to lose
+		 * @return whether the AI is now playing, which is never the case in a race
 		 */
-		private void mergeScores(TwoZeroFourEightTile keep, TwoZeroFourEightTile lose) {
-			int newValue = keep.getValue() + lose.getValue();
-			keep.bufferValue(newValue);
-			lose.bufferValue(-1);
-			this.score += newValue;
+		public boolean toggleAutoplay() {
+			this.autoplay = !this.autoplay && this.race == null;
+			return this.autoplay;
 		}
 
 		/**
-		 * {@inheritDoc}
-		 * <p>
-		 * We use this method to open the difficulty selector when a left-click action
-		 * is received and there are no child widgets on the board.
+		 * Packs the current tiles into a {@code long}
+		 *
+		 * @return the packed board, or -1 if a tile does not exist under the rules of
+		 *         the game
+		 * @see TwoZeroFourEightRules
+		 */
+		private long packBoard() {
+			long board = 0L;
+			for (int index = 0; index < this.tiles.size(); index++) {
+				TwoZeroFourEightTile tile = this.tiles.get(index);
+				if (tile != null) {
+					int rank = this.rules.toRank(tile.getValue());
+					if (rank < 0) {
+						return -1L;
+					}
+					board = TwoZeroFourEightEngine.setCell(board, index, rank);
+				}
+			}
+			return board;
+		}
+
+		/**
+		 * Handles a click on the display
 		 * <p>
-		 * It is important that the status event is sent to the {@code MapWidget} parent
-		 * ({@code super}) if the event is not handled, otherwise it will not propagate.
+		 * Instead of broadcasting the input to every widget, it is passed straight to
+		 * the one place that can use it:
+		 * <ul>
+		 * <li>If the win/lose dialog is open, it goes to the dialog
+		 * <li>If the title is shown, a left-click starts the game
+		 * <li>If a game is running, a left-click is looked up in the move regions
+		 * </ul>
+		 *
+		 * @param type the type of input
+		 * @param x    the X-position on the display
+		 * @param y    the Y-position on the display
+		 * @see {@link MapRegionIndex#get(int, int)} for how the region is looked up
 		 */
-		@Override
-		public void onStatusChanged(MapStatusEvent event) {
-			if (this.getWidgetCount() == 0 && event.getName().equals("LEFT_CLICK")) {
-				this.setState(GameState.GAME);
+		public void handleInput(MapInputType type, int x, int y) {
+			if (this.dialog != null) {
+				this.dialog.handleInput(type, x, y);
+				return;
+			}
+			if (type != MapInputType.LEFT_CLICK) {
 				return;
 			}
 
-			super.onStatusChanged(event);
+			if (this.tiles == null) {
+				this.setState(GameState.GAME);
+			} else if (this.state == GameState.GAME) {
+				MapPlayerInput.Key key = this.moveRegions.get(x - this.getAbsoluteX(), y - this.getAbsoluteY());
+				if (key == MapPlayerInput.Key.ENTER) {
+					this.undo();
+				} else if (key != null) {
+					this.handleMove(key);
+				}
+			}
 		}
 
 		/**
 		 * {@inheritDoc}
 		 * <p>
-		 * We use this method to open the difficulty selector when the {@code ENTER} key
-		 * is received and there are no child widgets on the board.
+		 * We use this method to start a game when the {@code ENTER} key is received on
+		 * the title screen. During a game, the
+		 * {@code ENTER} key undoes the last move, and the other keys move the tiles.
 		 * <p>
 		 * It is important that the key press event is sent to the {@code MapWidget}
 		 * parent ({@code super}) if the event is not handled, otherwise it will not
@@ -950,12 +2559,16 @@ public class Main extends JavaPlugin {
 		 */
 		@Override
 		public void onKeyPressed(MapKeyEvent event) {
-			if (this.getWidgetCount() == 0 && event.getKey() == MapPlayerInput.Key.ENTER) {
+			if (this.state == GameState.TITLE && event.getKey() == MapPlayerInput.Key.ENTER) {
 				this.setState(GameState.GAME);
 				return;
 			}
 			if (this.state == GameState.GAME && this.tiles != null) {
-				this.handleMove(event.getKey());
+				if (event.getKey() == MapPlayerInput.Key.ENTER) {
+					this.undo();
+				} else {
+					this.handleMove(event.getKey());
+				}
 				return;
 			}
 
@@ -968,22 +2581,28 @@ public class Main extends JavaPlugin {
 		 * This method first sets all board tiles to be non-focusable, then creates the
 		 * win/lose dialog, passing any arguments as needed and hooking into any
 		 * callback methods as required, and adds it as a widget to the board.
+		 * <p>
+		 * The dialog is kept at its normal size, and is centered on the board. A game
+		 * that ended because tiles could not merge any higher says so.
 		 *
 		 * @param win whether the game ended in a win or not
 		 * @see TwoZeroFourEightWinLoseDialog
 		 */
 		private void openWinLoseDialog(boolean win) {
-			this.addWidget(new TwoZeroFourEightWinLoseDialog(win, this.score) {
+			this.dialog = this.addWidget(new TwoZeroFourEightWinLoseDialog(win, !win && this.isCapped(), this.score) {
 				@Override
 				public void onClose() {
 					if (this.keepGoing) {
 						TwoZeroFourEightBoard.this.continueMode = true;
+						TwoZeroFourEightBoard.this.finishRecorded = false;
 						TwoZeroFourEightBoard.this.setState(GameState.GAME);
 					} else {
 						TwoZeroFourEightBoard.this.setState(GameState.TITLE);
 					}
 				}
 			});
+			this.dialog.setPosition((this.getWidth() - this.dialog.getWidth()) / 2,
+					(this.getHeight() - this.dialog.getHeight()) / 2 - TwoZeroFourEightWinLoseDialog.RAISE);
 		}
 
 		/**
@@ -994,62 +2613,40 @@ public class Main extends JavaPlugin {
 		 * @param newState the new game state
 		 */
 		public void setState(GameState newState) {
+			GameState oldState = this.state;
+			long start = TwoZeroFourEightEvents.isEnabled() ? System.nanoTime() : 0L;
 			this.state = newState;
 			this.reload();
-		}
-
-		/**
-		 * Gets a tile from its row,col location
-		 *
-		 * @param row the row of the tile
-		 * @param col the column of the tile
-		 * @return the requested tile, or null if there are no tiles or the selection is
-		 *         out of bounds
-		 */
-		private TwoZeroFourEightTile getTile(int row, int col) {
-			if (this.tiles == null) {
-				return null;
-			}
-			if (row < 0 || row >= TwoZeroFourEightBoard.BOARD_ROWS || col < 0
-					|| col >= TwoZeroFourEightBoard.BOARD_COLS) {
-				return null;
+			if (TwoZeroFourEightEvents.isEnabled()) {
+				TwoZeroFourEightEvents.stateChange(oldState.name(), newState.name(), System.nanoTime() - start);
 			}
-			return this.tiles.get(row * TwoZeroFourEightBoard.BOARD_COLS + col);
 		}
 
 		/**
-		 * Gets a tile from its index
-		 *
-		 * @param index the index of the tile
-		 * @return the requested tile, or null if there are no tiles or the selection is
-		 *         out of bounds
+		 * Switches to the sprites of the current theme, and redraws the board, the
+		 * tiles and the dialog
 		 */
-		private TwoZeroFourEightTile getTile(int index) {
-			if (this.tiles == null) {
-				return null;
+		public void refreshTheme() {
+			this.sprites = TwoZeroFourEightSprites.forScale(this.sprites.getScale());
+			this.background = this.drawBackground();
+			this.sequence = null;
+			this.redrawing = true;
+			this.invalidate();
+			if (this.dialog != null) {
+				this.dialog.setBackgroundColor(this.sprites.getTheme().getDialog());
 			}
-			return this.tiles.get(index);
 		}
 
 		/**
-		 * Calculates the row and column of a tile with a given index
+		 * Makes this board part of a race
 		 *
-		 * @param index the index of the tile
-		 * @return the row and column of the tile
+		 * @param race the race
+		 * @param slot the slot of the owner in the race, or -1 if the owner is not
+		 *             participating, in which case this is a normal game
 		 */
-		private Point getRowColFromIndex(int index) {
-			if (index < 0 || index >= this.tiles.size()) {
-				return null;
-			}
-			return new Point(index / TwoZeroFourEightBoard.BOARD_COLS, index % TwoZeroFourEightBoard.BOARD_COLS);
-		}
-
-		private int getIndexFromRowCol(int row, int col) {
-			if (row < 0 || row >= TwoZeroFourEightBoard.BOARD_ROWS || col < 0
-					|| col >= TwoZeroFourEightBoard.BOARD_COLS) {
-				return -1;
-			}
-			return row * TwoZeroFourEightBoard.BOARD_COLS + col;
+		public void setRace(TwoZeroFourEightRace race, int slot) {
+			this.race = slot == -1 ? null : race;
+			this.raceSlot = slot;
 		}
 
 		/**
@@ -1059,226 +2656,241 @@ public class Main extends JavaPlugin {
 		 * @return the pixel position
 		 */
 		private int getPixelPosFromIndex(int index) {
-			return index * TwoZeroFourEightBoard.TILE_OFFSET + TwoZeroFourEightBoard.TOP_LEFT_TILE;
+			return index * this.tileOffset + this.topLeftTile;
 		}
 
-		private int findRandomEmptyTile() {
-			if (!this.tiles.contains(null)) {
-				return -1;
-			}
-			while (true) {
-				int index = TwoZeroFourEightBoard.RANDOM.nextInt(this.tiles.size());
-				if (this.tiles.get(index) == null) {
+		/**
+		 * Finds the n-th empty cell on the board
+		 *
+		 * @param n which empty cell to find, starting at 0
+		 * @return the index of the cell, or -1 if there are not that many empty cells
+		 */
+		private int findEmptyTile(int n) {
+			for (int index = 0; index < this.tiles.size(); index++) {
+				if (this.tiles.get(index) == null && n-- == 0) {
 					return index;
 				}
 			}
+			return -1;
 		}
 
-		private static int getRandomStartingValue() {
-			return TwoZeroFourEightBoard.RANDOM.nextDouble() <= 0.1 ? 4 : 2;
+		/**
+		 * Mixes the bits of a number, so that consecutive inputs give unrelated
+		 * outputs
+		 *
+		 * @param z the input
+		 * @return the mixed output
+		 */
+		private static long mix(long z) {
+			z = (z ^ z >>> 30) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ z >>> 27) * 0x94D049BB133111EBL;
+			return z ^ z >>> 31;
 		}
 	}
 
 	/**
-	 * This is the tile widget class for the 2048 game
+	 * This is the tile class for the 2048 game
 	 * <p>
-	 * This is a {@link MapWidget} class. Use this class to understand how to use
-	 * {@code MapWidget}s.
-	 * <p>
-	 * This widget handles the appearance and visuals for each 2048 tile. The game
-	 * logic is handled in a different widget.
-	 * <p>
-	 * This class can have any visibility, as long as it is visible to the display
-	 * class.
+	 * A tile is not a widget. It only keeps its value and where it is on the board,
+	 * and the board draws all tiles into a single frame, so that it can find out
+	 * which pixels changed between two frames.
 	 *
 	 * @author Cyrus Mian Xi Li (bbayu/bbayu123)
 	 *
-	 * @see {@link TwoZeroFourEightBoard} for the game logic widget
+	 * @see {@link TwoZeroFourEightBoard} for the game logic and drawing
 	 */
-	private static class TwoZeroFourEightTile extends MapWidget {
+	private static class TwoZeroFourEightTile {
 		/**
 		 * The numeric value of a tile
 		 */
 		private int value = 0;
 
-		private int targetX = -1;
-		private int targetY = -1;
-		private int rateOfMoveX = 0;
-		private int rateOfMoveY = 0;
+		/**
+		 * The current position of the tile on the board
+		 */
+		private int x = 0;
+		private int y = 0;
+		/**
+		 * The position that the current animation starts from
+		 */
+		private int startX = 0;
+		private int startY = 0;
+		/**
+		 * The position that the current animation ends at
+		 */
+		private int endX = 0;
+		private int endY = 0;
+		/**
+		 * The value to change to when the current animation ends, or -1 to be removed
+		 */
 		private int bufferedValue = 0;
-		private int bufferCounter = 0;
 
 		/**
+		 * Creates a tile
 		 *
-		 * @param value
+		 * @param value the numeric value of the tile
 		 */
 		public TwoZeroFourEightTile(int value) {
 			this.value = value;
 		}
 
-		@Override
-		public void onTick() {
-			// If the tile has reached the target position, reset target to -1
-			if (this.targetX != -1 && this.targetX == this.getX()) {
-				this.targetX = -1;
-				this.rateOfMoveX = 0;
-			}
-			if (this.targetY != -1 && this.targetY == this.getY()) {
-				this.targetY = -1;
-				this.rateOfMoveY = 0;
-			}
-
-			// If rate of move is larger than distance, shorten rate of move
-			if (Math.abs(this.rateOfMoveX) > Math.abs(this.targetX - this.getX())) {
-				this.rateOfMoveX = this.targetX - this.getX();
-			}
-			if (Math.abs(this.rateOfMoveY) > Math.abs(this.targetY - this.getY())) {
-				this.rateOfMoveY = this.targetY - this.getY();
-			}
-
-			// If the rate of move is not zero, move to the target
-			int x = this.getX(), y = this.getY();
-			if (this.rateOfMoveX != 0) {
-				x += this.rateOfMoveX;
-			}
-			if (this.rateOfMoveY != 0) {
-				y += this.rateOfMoveY;
-			}
-			this.setPosition(x, y);
+		/**
+		 * Gets the numeric value shown on the tile
+		 *
+		 * @return the numeric value on the tile
+		 */
+		public int getValue() {
+			return this.value;
+		}
 
-			// If the target is set but there is no movement, set rate of movement
-			if (this.targetX != -1 && this.rateOfMoveX == 0) {
-				this.rateOfMoveX = (this.targetX - this.getX()) / TwoZeroFourEightBoard.MOVEMENT_FRAMES;
-			}
-			if (this.targetY != -1 && this.rateOfMoveY == 0) {
-				this.rateOfMoveY = (this.targetY - this.getY()) / TwoZeroFourEightBoard.MOVEMENT_FRAMES;
-			}
+		/**
+		 * Sets the numeric value shown on the tile
+		 *
+		 * @param value the new numeric value of the tile
+		 */
+		public void setValue(int value) {
+			this.value = value;
+		}
 
-			// Update buffered value
-			if (this.bufferCounter > 0) {
-				if (--this.bufferCounter == 0) {
-					this.applyBufferedValue();
-				}
-			}
+		/**
+		 * Gets the X-position of the tile on the board
+		 *
+		 * @return the X-position
+		 */
+		public int getX() {
+			return this.x;
 		}
 
 		/**
-		 * {@inheritDoc}
-		 * <p>
-		 * Here, the drawing routine is as follows:
-		 * <ol>
-		 * <li>Draw a rectangle border that is the size of the tile
-		 * <li>If the tile is covered:
-		 * <ol type="a">
-		 * <li>Fill the area with the cover color
-		 * <li>Add the flag icon if the tile is flagged. The flag icon is obtained from
-		 * the {@link Main} class.
-		 * </ol>
-		 * Otherwise:
-		 * <ol type="a">
-		 * <li>Fill the area with the background color
-		 * <li>Add an icon/character representing the tile, either a mine, a number, or
-		 * nothing if no mines surround the tile
-		 * </ol>
-		 * </ol>
+		 * Gets the Y-position of the tile on the board
 		 *
-		 * @see {@link MapColorPalette#getColor(int, int, int)} for getting a byte color
-		 *      from RGB
-		 * @see {@link MapWidget#view} for obtaining the canvas that is bound by the
-		 *      widget
-		 * @see {@link MapCanvas#drawRectangle(int, int, int, int, byte)} for drawing a
-		 *      bordered rectangle
-		 * @see {@link MapCanvas#fillRectangle(int, int, int, int, byte)} for drawing a
-		 *      filled rectangle
-		 * @see {@link MapCanvas#draw(MapCanvas, int, int)} for drawing a
-		 *      {@code MapCanvas} or {@link MapTexture}
-		 * @see {@link MapCanvas#draw(MapFont, int, int, byte, CharSequence)} for
-		 *      drawing text using a given {@link MapFont}
-		 * @see {@link MapWidget#display} for obtaining the display that this widget is
-		 *      attached to
-		 * @see {@link MapDisplay#getPlugin()} for obtaining the {@code JavaPlugin} of
-		 *      the display
+		 * @return the Y-position
 		 */
-		@Override
-		public void onDraw() {
-			byte[] backColors = new byte[] { MapColorPalette.getColor(236, 228, 219),
-					MapColorPalette.getColor(235, 227, 207), MapColorPalette.getColor(234, 180, 132),
-					MapColorPalette.getColor(233, 155, 115), MapColorPalette.getColor(231, 132, 111),
-					MapColorPalette.getColor(230, 107, 82), MapColorPalette.getColor(234, 214, 153),
-					MapColorPalette.getColor(233, 213, 142), MapColorPalette.getColor(240, 213, 113),
-					MapColorPalette.getColor(232, 207, 122), MapColorPalette.getColor(229, 198, 67),
-					MapColorPalette.getColor(244, 102, 116), MapColorPalette.getColor(241, 75, 97),
-					MapColorPalette.getColor(235, 66, 63), MapColorPalette.getColor(113, 179, 218),
-					MapColorPalette.getColor(94, 160, 230), MapColorPalette.getColor(2, 125, 192) };
+		public int getY() {
+			return this.y;
+		}
 
-			byte[] textColors = new byte[] { MapColorPalette.getColor(118, 111, 100),
-					MapColorPalette.getColor(251, 247, 241) };
+		/**
+		 * Places the tile on the board
+		 *
+		 * @param x the X-position
+		 * @param y the Y-position
+		 */
+		public void setPosition(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
 
-			// Background
-			int backColorIndex = (int) Math.round(Math.log(this.value) / Math.log(2)) - 1;
-			Main.fillRoundedRectangle(this.view, backColors[backColorIndex]);
+		/**
+		 * Places the tile on the board, where it stays during the next animation
+		 *
+		 * @param x the X-position
+		 * @param y the Y-position
+		 */
+		public void place(int x, int y) {
+			this.setPosition(x, y);
+			this.setTargetPosition(x, y);
+		}
 
-			// Text
-			MapFont<Character> font = MapFont.MINECRAFT;
-			Dimension dimensions = this.view.calcFontSize(font, String.valueOf(this.value));
-			if (dimensions.width > this.getWidth() - 4) {
-				font = MapFont.TINY;
-				dimensions = this.view.calcFontSize(font, String.valueOf(this.value));
-			}
+		/**
+		 * Gets the X-position that the current animation starts from
+		 *
+		 * @return the start X-position
+		 */
+		public int getStartX() {
+			return this.startX;
+		}
 
-			int textX = (this.getWidth() - dimensions.width) / 2 + 1;
-			int textY = (this.getHeight() - dimensions.height) / 2 + 1;
-			this.view.draw(font, textX, textY, textColors[this.value > 4 ? 1 : 0], String.valueOf(this.value));
+		/**
+		 * Gets the Y-position that the current animation starts from
+		 *
+		 * @return the start Y-position
+		 */
+		public int getStartY() {
+			return this.startY;
 		}
 
 		/**
-		 * Gets the numeric value shown on the tile
+		 * Gets the X-position that the current animation ends at
 		 *
-		 * @return the numeric value on the tile
+		 * @return the end X-position
 		 */
-		public int getValue() {
-			return this.value;
+		public int getEndX() {
+			return this.endX;
 		}
 
 		/**
-		 * Sets the numeric value shown on the tile
+		 * Gets the Y-position that the current animation ends at
 		 *
-		 * @param value the new numeric value of the tile
+		 * @return the end Y-position
 		 */
-		public void setValue(int value) {
-			this.value = value;
-			this.invalidate();
+		public int getEndY() {
+			return this.endY;
 		}
 
+		/**
+		 * Sets the position that the tile moves to in the next animation, starting
+		 * from where it is now
+		 *
+		 * @param targetX the X-position to move to
+		 * @param targetY the Y-position to move to
+		 */
 		public void setTargetPosition(int targetX, int targetY) {
-			if (targetX != this.getX()) {
-				this.targetX = targetX;
-			}
-			if (targetY != this.getY()) {
-				this.targetY = targetY;
-			}
+			this.startX = this.x;
+			this.startY = this.y;
+			this.endX = targetX;
+			this.endY = targetY;
+		}
+
+		/**
+		 * Moves the tile along the line from its start to its end position
+		 *
+		 * @param progress how far along the line the tile is, from 0 to 1
+		 */
+		public void animate(double progress) {
+			this.setPosition(this.startX + (int) Math.round((this.endX - this.startX) * progress),
+					this.startY + (int) Math.round((this.endY - this.startY) * progress));
 		}
 
+		/**
+		 * Checks whether the tile has a value that is applied when the current
+		 * animation ends
+		 *
+		 * @return whether a value is buffered, which includes being merged
+		 */
 		public boolean hasBufferedValue() {
 			return this.bufferedValue != 0;
 		}
 
+		/**
+		 * Sets the value that the tile changes to when the current animation ends
+		 *
+		 * @param value the new value, or -1 if the tile is merged into another tile
+		 *              and disappears
+		 */
 		public void bufferValue(int value) {
 			this.bufferedValue = value;
-			this.bufferCounter = TwoZeroFourEightBoard.MOVEMENT_FRAMES;
 		}
 
-		private void applyBufferedValue() {
+		/**
+		 * Checks whether the tile was merged into another tile, and disappears when
+		 * the current animation ends
+		 *
+		 * @return whether the tile was merged
+		 */
+		public boolean isMerged() {
+			return this.bufferedValue < 0;
+		}
+
+		/**
+		 * Changes to the buffered value. A tile that was merged into another tile
+		 * keeps its value, it is simply no longer drawn.
+		 */
+		public void applyBufferedValue() {
 			if (this.bufferedValue > 0) {
 				this.setValue(this.bufferedValue);
-				this.bufferedValue = 0;
-			} else if (this.bufferedValue < 0) {
-				this.removeWidget();
 			}
-		}
-
-		public boolean isMoving() {
-			return this.targetX != -1 || this.targetY != -1 || this.rateOfMoveX != 0 || this.rateOfMoveY != 0;
+			this.bufferedValue = 0;
 		}
 	}
 
@@ -1296,10 +2908,19 @@ public class Main extends JavaPlugin {
 	 * @author Cyrus Mian Xi Li (bbayu/bbayu123)
 	 */
 	private static class TwoZeroFourEightWinLoseDialog extends MapWidgetWindow {
+		/**
+		 * How far the dialog is raised above the center of the board
+		 */
+		private static final int RAISE = 12;
+
 		/**
 		 * Whether the game ended in a win or not
 		 */
 		private final boolean win;
+		/**
+		 * Whether the game ended because tiles could not merge any higher
+		 */
+		private final boolean capped;
 		/**
 		 * The score of the game
 		 */
@@ -1315,6 +2936,11 @@ public class Main extends JavaPlugin {
 		 */
 		private MapWidget button = null;
 
+		/**
+		 * The click regions of the buttons
+		 */
+		private MapRegionIndex<MapWidget> buttonRegions = null;
+
 		/**
 		 * Whether to keep going or not
 		 */
@@ -1323,17 +2949,18 @@ public class Main extends JavaPlugin {
 		/**
 		 * Creates the dialog
 		 *
-		 * @param win   whether the game ended in a win or not
-		 * @param time  the time from start to end
-		 * @param flags a pair of values representing the number of flags placed and the
-		 *              number of mines on the board
+		 * @param win    whether the game ended in a win or not
+		 * @param capped whether the game ended because tiles could not merge any
+		 *               higher
+		 * @param score  the score of the game
 		 */
-		public TwoZeroFourEightWinLoseDialog(boolean win, int score) {
+		public TwoZeroFourEightWinLoseDialog(boolean win, boolean capped, int score) {
 			this.win = win;
+			this.capped = capped;
 			this.score = score;
 
 			this.setBounds(15, 22, 95, 58);
-			this.setBackgroundColor(MapColorPalette.getColor(114, 121, 175));
+			this.setBackgroundColor(TwoZeroFourEightTheme.getCurrent().getDialog());
 			this.setDepthOffset(4);
 			this.setFocusable(true);
 		}
@@ -1350,7 +2977,8 @@ public class Main extends JavaPlugin {
 			this.activate();
 
 			// Label
-			this.addWidget(new MapWidgetText().setText(this.win ? "You Win!" : "Game Over").setBounds(5, 5, 80, 13));
+			this.addWidget(new MapWidgetText().setText(this.win ? "You Win!" : this.capped ? "Top Tile!" : "Game Over")
+					.setBounds(5, 5, 80, 13));
 
 			// Score
 			this.addWidget(
@@ -1382,6 +3010,14 @@ public class Main extends JavaPlugin {
 					}
 				}.setText("Back to title").setBounds(10, 40, 70, 13));
 			}
+
+			this.buttonRegions = new MapRegionIndex<MapWidget>(this.getWidth(), this.getHeight(), this.getWidth(),
+					this.getHeight());
+			for (MapWidget widget : new MapWidget[] { this.contButton, this.button }) {
+				if (widget != null) {
+					this.buttonRegions.add(widget.getX(), widget.getY(), widget.getWidth(), widget.getHeight(), widget);
+				}
+			}
 		}
 
 		/**
@@ -1406,48 +3042,25 @@ public class Main extends JavaPlugin {
 		}
 
 		/**
-		 * {@inheritDoc}
-		 * <p>
-		 * When the correct mouse-related status event is received, the current widget
-		 * is activated, and the mouse location is within bounds of the widget:
-		 * <p>
-		 * <ul>
-		 * <li>If it is a hover, focus the hovered child widget
-		 * <li>If it is a left-click, focus and activate the child widget
-		 * </ul>
+		 * Handles a click on the display
 		 * <p>
-		 * It is important that the status event is sent to the {@code MapWidget} parent
-		 * ({@code super}) if the event is not handled, otherwise it will not propagate.
+		 * When the dialog is activated, and the mouse location is on one of the
+		 * buttons, a left-click focuses and activates the button.
 		 *
-		 * @see {@link Main#isInBounds(MapWidget, int, int)} for more information on how
-		 *      the in-bounds check is done
+		 * @param type the type of input
+		 * @param x    the X-position on the display
+		 * @param y    the Y-position on the display
+		 * @see {@link MapRegionIndex#get(int, int)} for how the button is looked up
 		 */
-		@Override
-		public void onStatusChanged(MapStatusEvent event) {
-			if (!this.isActivated() || !Arrays.asList("LEFT_CLICK", "RIGHT_CLICK", "HOVER").contains(event.getName())) {
-				return;
-			}
-			Point clicked = event.getArgument(Point.class);
-			int clickedX = clicked.x, clickedY = clicked.y;
-
-			if (!Main.isInBounds(this, clickedX, clickedY)) {
+		public void handleInput(MapInputType type, int x, int y) {
+			if (!this.isActivated() || this.buttonRegions == null) {
 				return;
 			}
 
-			if (event.getName().equals("HOVER")) {
-				if (Main.isInBounds(this.contButton, clickedX, clickedY)) {
-					this.contButton.focus();
-				} else if (Main.isInBounds(this.button, clickedX, clickedY)) {
-					this.button.focus();
-				}
-			} else if (event.getName().equals("LEFT_CLICK")) {
-				if (Main.isInBounds(this.contButton, clickedX, clickedY)) {
-					this.contButton.focus();
-					this.contButton.activate();
-				} else if (Main.isInBounds(this.button, clickedX, clickedY)) {
-					this.button.focus();
-					this.button.activate();
-				}
+			MapWidget widget = this.buttonRegions.get(x - this.getAbsoluteX(), y - this.getAbsoluteY());
+			if (widget != null && type == MapInputType.LEFT_CLICK) {
+				widget.focus();
+				widget.activate();
 			}
 		}
 
@@ -1493,48 +3106,111 @@ public class Main extends JavaPlugin {
 	}
 }
 
-class MapWidgetClickKey extends MapWidget {
-	private final MapPlayerInput.Key moveDirection;
-
-	public MapWidgetClickKey(MapPlayerInput.Key moveDirection) {
-		this.moveDirection = moveDirection;
-	}
-
-	@Override
-	public void onStatusChanged(MapStatusEvent event) {
-		if (this.display != null && event.getName().equals("LEFT_CLICK")) {
-			Point clicked = event.getArgument(Point.class);
-			if (Main.isInBounds(this, clicked.x, clicked.y)) {
-				this.onClick(this.moveDirection);
-				return;
-			}
-		}
-
-		super.onStatusChanged(event);
-	}
-
-	public void onClick(MapPlayerInput.Key key) {
-	}
+/**
+ * This represents the type of a mouse input on a map
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+enum MapInputType {
+	/**
+	 * A left-click
+	 */
+	LEFT_CLICK,
+	/**
+	 * A right-click
+	 */
+	RIGHT_CLICK
 }
 
 /**
- * This represents a pair of the same object type
+ * This is a precomputed lookup from a position to the region that contains it
+ * <p>
+ * The area is split into a grid of cells, and each cell remembers which region
+ * covers its center. Looking up a position is then a single array access,
+ * instead of checking the bounds of every region.
  *
  * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * @param <T> the type of the value of each region
  */
-class Pair<T> {
-	private final T first, second;
+class MapRegionIndex<T> {
+	/**
+	 * The size of the area, in pixels
+	 */
+	private final int width, height;
+	/**
+	 * The size of the grid, in cells
+	 */
+	private final int columns, rows;
+	/**
+	 * The region that covers the center of each cell, as 1 plus its index in
+	 * {@link #values}, or 0 if no region covers it
+	 */
+	private final byte[] cells;
+	/**
+	 * The value of each region, in the order they were added
+	 */
+	private final List<T> values = new ArrayList<>();
 
-	public Pair(T first, T second) {
-		this.first = first;
-		this.second = second;
+	/**
+	 * Creates an empty region index
+	 *
+	 * @param width   the width of the area
+	 * @param height  the height of the area
+	 * @param columns the number of columns in the grid
+	 * @param rows    the number of rows in the grid
+	 */
+	public MapRegionIndex(int width, int height, int columns, int rows) {
+		this.width = width;
+		this.height = height;
+		this.columns = columns;
+		this.rows = rows;
+		this.cells = new byte[columns * rows];
 	}
 
-	public T first() {
-		return this.first;
+	/**
+	 * Adds a region
+	 * <p>
+	 * Cells that are already covered by an earlier region are not changed.
+	 *
+	 * @param x      the X-position of the region
+	 * @param y      the Y-position of the region
+	 * @param width  the width of the region
+	 * @param height the height of the region
+	 * @param value  the value to return for positions in the region
+	 * @return this region index
+	 */
+	public MapRegionIndex<T> add(int x, int y, int width, int height, T value) {
+		this.values.add(value);
+		byte id = (byte) this.values.size();
+		for (int row = 0; row < this.rows; row++) {
+			int centerY = (2 * row + 1) * this.height / (2 * this.rows);
+			if (centerY < y || centerY >= y + height) {
+				continue;
+			}
+			for (int col = 0; col < this.columns; col++) {
+				int centerX = (2 * col + 1) * this.width / (2 * this.columns);
+				if (centerX >= x && centerX < x + width && this.cells[row * this.columns + col] == 0) {
+					this.cells[row * this.columns + col] = id;
+				}
+			}
+		}
+		return this;
 	}
 
-	public T second() {
-		return this.second;
+	/**
+	 * Gets the region at a position
+	 *
+	 * @param x the X-position, relative to the area
+	 * @param y the Y-position, relative to the area
+	 * @return the value of the region, or {@code null} if no region covers the
+	 *         position
+	 */
+	public T get(int x, int y) {
+		if (x < 0 || x >= this.width || y < 0 || y >= this.height) {
+			return null;
+		}
+		int id = this.cells[y * this.rows / this.height * this.columns + x * this.columns / this.width];
+		return id == 0 ? null : this.values.get(id - 1);
 	}
 }
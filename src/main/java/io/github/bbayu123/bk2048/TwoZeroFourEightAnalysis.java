@@ -0,0 +1,218 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * This is an analysis of a finished game, which compares every move of the
+ * player with the move that the AI would have made
+ * <p>
+ * Each position of the game is searched with {@link TwoZeroFourEightSearch},
+ * and the difference between the value of the best move and the value of the
+ * move that was played is what the move lost. The player is told what share of
+ * their moves matched the AI, and which moves lost the most.
+ * <p>
+ * Analyses run one after another on a single thread at a low priority. Before
+ * each position, the thread waits until no hint that a player asked for is
+ * being searched, so that when many games end at once, players who are still
+ * playing do not notice. When too many games are waiting, new ones are not analysed at all.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightAnalysis implements Runnable {
+	/**
+	 * The most games that can wait to be analysed
+	 */
+	private static final int QUEUE = 256;
+	/**
+	 * The number of mistakes that are reported
+	 */
+	private static final int MISTAKES = 3;
+	/**
+	 * How much less than the best move a move may be worth, relative to the best
+	 * move, and still count as the same move
+	 */
+	private static final float TOLERANCE = 0.0001f;
+
+	/**
+	 * The thread that analyses games
+	 */
+	private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(TwoZeroFourEightAnalysis.QUEUE), runnable -> {
+				Thread thread = new Thread(runnable, "BK2048 Analysis");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			});
+
+	/**
+	 * The plugin, which sends the report
+	 */
+	private final Plugin plugin;
+	/**
+	 * The unique id of the player who is told the result
+	 */
+	private final UUID player;
+	/**
+	 * The rules of the game
+	 */
+	private final TwoZeroFourEightRules rules;
+	/**
+	 * The packed board before each move
+	 */
+	private final long[] boards;
+	/**
+	 * The direction of each move
+	 */
+	private final byte[] moves;
+	/**
+	 * How many moves ahead each position is searched
+	 */
+	private final int depth;
+
+	/**
+	 * Creates an analysis
+	 *
+	 * @param plugin the plugin, which sends the report
+	 * @param player the unique id of the player who is told the result
+	 * @param rules  the rules of the game
+	 * @param boards the packed board before each move
+	 * @param moves  the direction of each move
+	 * @param depth  how many moves ahead each position is searched
+	 */
+	private TwoZeroFourEightAnalysis(Plugin plugin, UUID player, TwoZeroFourEightRules rules, long[] boards,
+			byte[] moves, int depth) {
+		this.plugin = plugin;
+		this.player = player;
+		this.rules = rules;
+		this.boards = boards;
+		this.moves = moves;
+		this.depth = depth;
+	}
+
+	/**
+	 * Queues a finished game to be analysed, which can be done from any thread
+	 * <p>
+	 * The game is dropped when too many games are waiting already.
+	 *
+	 * @param plugin the plugin, which sends the report
+	 * @param player the unique id of the player who is told the result
+	 * @param rules  the rules of the game
+	 * @param boards the packed board before each move, which is not copied
+	 * @param moves  the direction of each move, which is not copied
+	 * @param depth  how many moves ahead each position is searched
+	 */
+	static void submit(Plugin plugin, UUID player, TwoZeroFourEightRules rules, long[] boards, byte[] moves,
+			int depth) {
+		try {
+			TwoZeroFourEightAnalysis.EXECUTOR
+					.execute(new TwoZeroFourEightAnalysis(plugin, player, rules, boards, moves, depth));
+		} catch (RejectedExecutionException e) {
+			// Too many games are waiting already, or the plugin is being disabled
+		}
+	}
+
+	/**
+	 * Stops analysing, dropping any games that are still waiting
+	 */
+	static void stop() {
+		TwoZeroFourEightAnalysis.EXECUTOR.shutdownNow();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Here we search every position of the game, keeping the moves that lost the
+	 * most, and send the report on the main thread.
+	 */
+	@Override
+	public void run() {
+		float[] values = new float[4];
+		int[] mistakes = new int[TwoZeroFourEightAnalysis.MISTAKES];
+		float[] losses = new float[TwoZeroFourEightAnalysis.MISTAKES];
+		byte[] better = new byte[TwoZeroFourEightAnalysis.MISTAKES];
+		int mistakeCount = 0, matched = 0;
+
+		for (int i = 0; i < this.boards.length; i++) {
+			try {
+				TwoZeroFourEightSearch.awaitInteractive();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			TwoZeroFourEightSearch.evaluateMoves(this.rules, this.boards[i], this.depth, values);
+			int best = 0;
+			for (int direction = 1; direction < 4; direction++) {
+				if (Float.isNaN(values[best]) || values[direction] > values[best]) {
+					best = direction;
+				}
+			}
+			float loss = values[best] - values[this.moves[i]];
+			if (!(loss > Math.abs(values[best]) * TwoZeroFourEightAnalysis.TOLERANCE)) {
+				matched++;
+				continue;
+			}
+
+			// Keep the largest losses in order, largest first
+			int slot = Math.min(mistakeCount, TwoZeroFourEightAnalysis.MISTAKES);
+			while (slot > 0 && losses[slot - 1] < loss) {
+				if (slot < TwoZeroFourEightAnalysis.MISTAKES) {
+					mistakes[slot] = mistakes[slot - 1];
+					losses[slot] = losses[slot - 1];
+					better[slot] = better[slot - 1];
+				}
+				slot--;
+			}
+			if (slot < TwoZeroFourEightAnalysis.MISTAKES) {
+				mistakes[slot] = i;
+				losses[slot] = loss;
+				better[slot] = (byte) best;
+			}
+			mistakeCount++;
+		}
+
+		StringBuilder report = new StringBuilder(ChatColor.GOLD + "2048 game analysis: ").append(ChatColor.WHITE)
+				.append(matched * 100 / this.boards.length).append("% of your ").append(this.boards.length)
+				.append(" moves matched the AI");
+		for (int slot = 0; slot < Math.min(mistakeCount, TwoZeroFourEightAnalysis.MISTAKES); slot++) {
+			int i = mistakes[slot];
+			report.append('\n').append(ChatColor.YELLOW).append("Move ").append(i + 1).append(ChatColor.WHITE)
+					.append(" - played ").append(Main.DIRECTION_NAMES[this.moves[i]]).append(", ")
+					.append(Main.DIRECTION_NAMES[better[slot]]).append(" was better by ")
+					.append(Math.round(losses[slot]));
+		}
+		String message = report.toString();
+
+		Bukkit.getScheduler().runTask(this.plugin, () -> {
+			Player online = Bukkit.getPlayer(this.player);
+			if (online != null) {
+				online.sendMessage(message);
+			}
+		});
+	}
+}
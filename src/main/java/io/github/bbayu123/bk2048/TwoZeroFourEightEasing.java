@@ -0,0 +1,91 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.Locale;
+
+/**
+ * This is how tiles speed up and slow down while they move
+ * <p>
+ * An easing maps the linear progress of an animation, from 0 to 1, to how far
+ * the tiles have moved, also from 0 to 1.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+enum TwoZeroFourEightEasing {
+	/**
+	 * Tiles move at a constant speed
+	 */
+	LINEAR {
+		@Override
+		public double apply(double t) {
+			return t;
+		}
+	},
+	/**
+	 * Tiles start slow and speed up
+	 */
+	EASE_IN {
+		@Override
+		public double apply(double t) {
+			return t * t;
+		}
+	},
+	/**
+	 * Tiles start fast and slow down
+	 */
+	EASE_OUT {
+		@Override
+		public double apply(double t) {
+			return t * (2 - t);
+		}
+	},
+	/**
+	 * Tiles start slow, speed up, and slow down again
+	 */
+	EASE_IN_OUT {
+		@Override
+		public double apply(double t) {
+			return t < 0.5 ? 2 * t * t : -1 + (4 - 2 * t) * t;
+		}
+	};
+
+	/**
+	 * Applies the easing
+	 *
+	 * @param t the linear progress, from 0 to 1
+	 * @return the eased progress, from 0 to 1
+	 */
+	public abstract double apply(double t);
+
+	/**
+	 * Gets an easing by its name in the configuration, such as {@code ease-out}
+	 *
+	 * @param name the name of the easing
+	 * @return the easing, or {@code null} if there is no easing with that name
+	 */
+	public static TwoZeroFourEightEasing fromName(String name) {
+		String key = name.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+		for (TwoZeroFourEightEasing easing : TwoZeroFourEightEasing.values()) {
+			if (easing.name().equals(key)) {
+				return easing;
+			}
+		}
+		return null;
+	}
+}
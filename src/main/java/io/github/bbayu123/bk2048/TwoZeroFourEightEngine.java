@@ -0,0 +1,236 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+/**
+ * This holds the operations on packed 2048 boards
+ * <p>
+ * A packed board is a {@code long} that holds all 16 cells of a 4x4 board, 4
+ * bits per cell. Each cell holds the rank of its tile, which is the power of two
+ * of the value, or 0 if the cell is empty. Cell {@code i} is in bits
+ * {@code 4*i} to {@code 4*i+3}, where {@code i = row * 4 + col}.
+ * <p>
+ * Since a cell only has 4 bits, tiles above 32768 cannot be packed.
+ * <p>
+ * Moves are looked up in tables that hold the result of moving every possible
+ * row to the left and to the right. Moving up and down transposes the board,
+ * so that columns become rows. The moves here follow the standard rules, the
+ * tables of those and of any other rules are built by
+ * {@link TwoZeroFourEightRules}.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightEngine {
+	/**
+	 * The number of cells on a board
+	 */
+	static final int CELLS = 16;
+
+	/**
+	 * The highest rank that fits in a cell
+	 */
+	static final int MAX_RANK = 15;
+
+	/**
+	 * The directions of a move
+	 */
+	static final int UP = 0, DOWN = 1, LEFT = 2, RIGHT = 3;
+
+	private TwoZeroFourEightEngine() {
+	}
+
+	/**
+	 * Moves all tiles on a board
+	 *
+	 * @param board     the packed board
+	 * @param direction the direction of the move
+	 * @return the packed board after the move, which is the same board if nothing
+	 *         moved
+	 */
+	static long move(long board, int direction) {
+		return TwoZeroFourEightRules.STANDARD.move(board, direction);
+	}
+
+	/**
+	 * Gets the score gained by a move
+	 *
+	 * @param board     the packed board
+	 * @param direction the direction of the move
+	 * @return the sum of the values of all merged tiles
+	 */
+	static int score(long board, int direction) {
+		return TwoZeroFourEightRules.STANDARD.score(board, direction);
+	}
+
+	/**
+	 * Counts the empty cells on a board
+	 *
+	 * @param board the packed board
+	 * @return the number of empty cells
+	 */
+	static int countEmpty(long board) {
+		int count = 0;
+		for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+			if ((board >>> (index << 2) & 0xF) == 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Plays random games on packed boards, so that the JIT compiles the move
+	 * paths before the first player needs them
+	 *
+	 * @param moves the number of moves to play
+	 * @return the total score of all moves, which only exists so that the work
+	 *         cannot be optimized away
+	 */
+	static long warmUp(int moves) {
+		long random = System.nanoTime();
+		long board = 0L, total = 0L;
+		for (int i = 0; i < moves; i++) {
+			random = random * 6364136223846793005L + 1442695040888963407L;
+			int empty = TwoZeroFourEightEngine.countEmpty(board);
+			if (empty == 0) {
+				board = 0L;
+				continue;
+			}
+
+			// Spawn a tile on a random empty cell
+			board = TwoZeroFourEightEngine.spawn(board, (int) ((random >>> 33) % empty), (random & 0xF) == 0 ? 2 : 1);
+
+			// Make a random move
+			int direction = (int) (random >>> 60) & 3;
+			total += TwoZeroFourEightEngine.score(board, direction);
+			board = TwoZeroFourEightEngine.move(board, direction);
+		}
+		return total;
+	}
+
+	/**
+	 * Swaps the rows and columns of a board
+	 *
+	 * @param board the packed board
+	 * @return the transposed board
+	 */
+	static long transpose(long board) {
+		long a1 = board & 0xF0F00F0FF0F00F0FL;
+		long a2 = board & 0x0000F0F00000F0F0L;
+		long a3 = board & 0x0F0F00000F0F0000L;
+		long a = a1 | a2 << 12 | a3 >>> 12;
+		long b1 = a & 0xFF00FF0000FF00FFL;
+		long b2 = a & 0x00FF00FF00000000L;
+		long b3 = a & 0x00000000FF00FF00L;
+		return b1 | b2 >>> 24 | b3 << 24;
+	}
+
+	/**
+	 * Mirrors a board from left to right
+	 *
+	 * @param board the packed board
+	 * @return the mirrored board
+	 */
+	static long mirror(long board) {
+		return (board & 0x000F000F000F000FL) << 12 | (board & 0x00F000F000F000F0L) << 4
+				| (board & 0x0F000F000F000F00L) >>> 4 | (board & 0xF000F000F000F000L) >>> 12;
+	}
+
+	/**
+	 * Flips a board from top to bottom
+	 *
+	 * @param board the packed board
+	 * @return the flipped board
+	 */
+	static long flip(long board) {
+		return (board & 0xFFFFL) << 48 | (board & 0xFFFF0000L) << 16 | (board & 0xFFFF00000000L) >>> 16
+				| board >>> 48;
+	}
+
+	/**
+	 * Spawns a tile on an empty cell of a board
+	 *
+	 * @param board the packed board
+	 * @param pick  which of the empty cells to use, from 0 to the number of empty
+	 *              cells minus 1
+	 * @param rank  the rank of the new tile
+	 * @return the packed board with the new tile
+	 */
+	static long spawn(long board, int pick, int rank) {
+		for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+			if ((board >>> (index << 2) & 0xF) == 0 && pick-- == 0) {
+				return TwoZeroFourEightEngine.setCell(board, index, rank);
+			}
+		}
+		return board;
+	}
+
+	/**
+	 * Checks whether any move is possible on a board
+	 *
+	 * @param board the packed board
+	 * @return whether at least one move changes the board
+	 */
+	static boolean canMove(long board) {
+		return TwoZeroFourEightRules.STANDARD.canMove(board);
+	}
+
+	/**
+	 * Gets the rank of a cell
+	 *
+	 * @param board the packed board
+	 * @param index the index of the cell
+	 * @return the rank of the cell, or 0 if it is empty
+	 */
+	static int getCell(long board, int index) {
+		return (int) (board >>> (index << 2)) & 0xF;
+	}
+
+	/**
+	 * Sets the rank of a cell
+	 *
+	 * @param board the packed board
+	 * @param index the index of the cell
+	 * @param rank  the new rank of the cell, or 0 to empty it
+	 * @return the changed packed board
+	 */
+	static long setCell(long board, int index, int rank) {
+		int shift = index << 2;
+		return board & ~(0xFL << shift) | (long) rank << shift;
+	}
+
+	/**
+	 * Gets the rank of a tile value
+	 *
+	 * @param value the value of the tile, or 0 for an empty cell
+	 * @return the rank
+	 */
+	static int toRank(int value) {
+		return value == 0 ? 0 : Integer.numberOfTrailingZeros(value);
+	}
+
+	/**
+	 * Gets the tile value of a rank
+	 *
+	 * @param rank the rank
+	 * @return the value of the tile, or 0 for an empty cell
+	 */
+	static int toValue(int rank) {
+		return rank == 0 ? 0 : 1 << rank;
+	}
+}
@@ -0,0 +1,37 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+/**
+ * This estimates how good a 2048 position is
+ * <p>
+ * The search in {@link TwoZeroFourEightSearch} uses an evaluator to score the
+ * positions at the bottom of its tree. Evaluators are shared between threads,
+ * so they must not keep any state between calls.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+interface TwoZeroFourEightEvaluator {
+	/**
+	 * Estimates how good a position is
+	 *
+	 * @param board the packed board, see {@link TwoZeroFourEightEngine}
+	 * @return the estimate, where higher is better
+	 */
+	float evaluate(long board);
+}
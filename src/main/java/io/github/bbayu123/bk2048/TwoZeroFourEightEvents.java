@@ -0,0 +1,129 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+/**
+ * This sends events about the game to the JDK Flight Recorder
+ * <p>
+ * Events are off by default. When they are off, every method in here returns
+ * right after checking a flag. When they are turned on, but the server runs on
+ * a Java version without the flight recorder, they stay off, because the event
+ * classes in {@link TwoZeroFourEightFlightRecorder} are only loaded once the
+ * flight recorder is known to be there. If the flight recorder refuses to
+ * register the events, they stay off as well.
+ * <p>
+ * A recording only contains the events when they are turned on in the
+ * configuration, and in the settings of the recording, which includes them by
+ * default.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightEvents {
+	/**
+	 * Whether events are sent
+	 */
+	private static volatile boolean enabled = false;
+
+	private TwoZeroFourEightEvents() {
+	}
+
+	/**
+	 * Turns events on or off
+	 *
+	 * @param enable whether to send events
+	 * @return whether events are now sent, which is not the case if the flight
+	 *         recorder is not available
+	 */
+	static boolean configure(boolean enable) {
+		boolean available = false;
+		if (enable) {
+			try {
+				Class.forName("jdk.jfr.FlightRecorder");
+				available = TwoZeroFourEightFlightRecorder.register();
+			} catch (ClassNotFoundException | LinkageError | InternalError e) {
+				// Either there is no flight recorder, or it refused the events
+				available = false;
+			}
+		}
+		TwoZeroFourEightEvents.enabled = available;
+		return available;
+	}
+
+	/**
+	 * Checks whether events are sent, so that callers can skip measuring when they
+	 * are not
+	 *
+	 * @return whether events are sent
+	 */
+	static boolean isEnabled() {
+		return TwoZeroFourEightEvents.enabled;
+	}
+
+	/**
+	 * Sends an event for a move
+	 *
+	 * @param direction the direction of the move
+	 * @param moved     the number of tiles that moved
+	 * @param merges    the number of merges
+	 * @param nanos     how long the move took, in nanoseconds
+	 */
+	static void move(String direction, int moved, int merges, long nanos) {
+		if (TwoZeroFourEightEvents.enabled) {
+			TwoZeroFourEightFlightRecorder.move(direction, moved, merges, nanos);
+		}
+	}
+
+	/**
+	 * Sends an event for a frame that was drawn onto the display
+	 *
+	 * @param width  the width of the drawn region
+	 * @param height the height of the drawn region
+	 * @param full   whether the whole board was redrawn
+	 * @param nanos  how long it took to compose and draw the frame, in nanoseconds
+	 */
+	static void draw(int width, int height, boolean full, long nanos) {
+		if (TwoZeroFourEightEvents.enabled) {
+			TwoZeroFourEightFlightRecorder.draw(width, height, full, nanos);
+		}
+	}
+
+	/**
+	 * Sends an event for a change of the game state
+	 *
+	 * @param from  the old state
+	 * @param to    the new state
+	 * @param nanos how long the board took to reload, in nanoseconds
+	 */
+	static void stateChange(String from, String to, long nanos) {
+		if (TwoZeroFourEightEvents.enabled) {
+			TwoZeroFourEightFlightRecorder.stateChange(from, to, nanos);
+		}
+	}
+
+	/**
+	 * Sends an event for a check for a win or a loss
+	 *
+	 * @param result the state that the check ended in
+	 * @param nanos  how long the check took, in nanoseconds
+	 */
+	static void winLoseCheck(String result, long nanos) {
+		if (TwoZeroFourEightEvents.enabled) {
+			TwoZeroFourEightFlightRecorder.winLoseCheck(result, nanos);
+		}
+	}
+}
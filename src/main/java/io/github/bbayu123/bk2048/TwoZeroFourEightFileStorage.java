@@ -0,0 +1,191 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * This is a {@link TwoZeroFourEightStorage} that keeps everything in flat files
+ * in the plugin folder
+ * <p>
+ * The statistics are kept in {@code stats.yml}, which is rewritten as a whole.
+ * Finished games are appended to {@code games.log}, one line per game, so
+ * writing a batch is a single append. Reading the games means reading the whole
+ * log, which is fine for a small server, but gets slow as the log grows.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightFileStorage implements TwoZeroFourEightStorage {
+	/**
+	 * The file that the statistics are kept in
+	 */
+	private final File statsFile;
+	/**
+	 * The file that the finished games are appended to
+	 */
+	private final File gamesFile;
+
+	/**
+	 * Creates a flat file storage
+	 *
+	 * @param folder the plugin folder
+	 */
+	TwoZeroFourEightFileStorage(File folder) {
+		this.statsFile = new File(folder, "stats.yml");
+		this.gamesFile = new File(folder, "games.log");
+	}
+
+	@Override
+	public void open() throws IOException {
+		File folder = this.statsFile.getParentFile();
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("Could not create " + folder);
+		}
+	}
+
+	@Override
+	public void close() {
+		// Nothing is kept open
+	}
+
+	@Override
+	public Map<UUID, long[]> readStats() {
+		Map<UUID, long[]> stats = new HashMap<>();
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(this.statsFile);
+		for (String key : yaml.getKeys(false)) {
+			ConfigurationSection section = yaml.getConfigurationSection(key);
+			if (section == null) {
+				continue;
+			}
+			long[] counters = new long[TwoZeroFourEightStats.COLUMNS.length];
+			for (int i = 0; i < counters.length; i++) {
+				counters[i] = section.getLong(TwoZeroFourEightStats.COLUMNS[i], 0L);
+			}
+			stats.put(UUID.fromString(key), counters);
+		}
+		return stats;
+	}
+
+	@Override
+	public void writeStats(Map<UUID, long[]> stats) throws IOException {
+		YamlConfiguration yaml = new YamlConfiguration();
+		for (Map.Entry<UUID, long[]> entry : stats.entrySet()) {
+			String key = entry.getKey().toString();
+			long[] counters = entry.getValue();
+			for (int i = 0; i < counters.length; i++) {
+				yaml.set(key + "." + TwoZeroFourEightStats.COLUMNS[i], counters[i]);
+			}
+		}
+		yaml.save(this.statsFile);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The whole batch is written with one append. A game that was written before
+	 * is not removed, the later line wins when the log is read.
+	 */
+	@Override
+	public void writeGames(List<Game> games) throws IOException {
+		StringBuilder lines = new StringBuilder();
+		for (Game game : games) {
+			lines.append(game.getPlayer()).append('\t').append(game.getName()).append('\t').append(game.getSeed())
+					.append('\t').append(game.getFinishedAt()).append('\t').append(game.getScore()).append('\t')
+					.append(game.getHighestTile()).append('\t').append(game.getMoves()).append('\t')
+					.append(game.isWon() ? 1 : 0).append('\t')
+					.append(game.getReplay() == null ? "-" : Base64.getEncoder().encodeToString(game.getReplay()))
+					.append('\n');
+		}
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(this.gamesFile, true),
+				StandardCharsets.UTF_8)) {
+			writer.write(lines.toString());
+		}
+	}
+
+	@Override
+	public List<Game> readTopGames(int limit) throws IOException {
+		List<Game> games = this.readGames();
+		games.sort(Comparator.comparingInt(Game::getScore).reversed());
+		return games.subList(0, Math.min(limit, games.size()));
+	}
+
+	@Override
+	public List<Game> readRecentGames(UUID player, int limit) throws IOException {
+		List<Game> games = new ArrayList<>();
+		for (Game game : this.readGames()) {
+			if (game.getPlayer().equals(player)) {
+				games.add(game);
+			}
+		}
+		games.sort(Comparator.comparingLong(Game::getFinishedAt).reversed());
+		return games.subList(0, Math.min(limit, games.size()));
+	}
+
+	/**
+	 * Reads all games in the log
+	 * <p>
+	 * Lines that cannot be read, such as a line that was cut off when the server
+	 * crashed, are skipped.
+	 *
+	 * @return the games, with only the last line of each game
+	 * @throws IOException if the log cannot be read
+	 */
+	List<Game> readGames() throws IOException {
+		Map<String, Game> games = new LinkedHashMap<>();
+		if (!this.gamesFile.isFile()) {
+			return new ArrayList<>();
+		}
+		try (BufferedReader reader = Files.newBufferedReader(this.gamesFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t");
+				if (parts.length != 9) {
+					continue;
+				}
+				try {
+					Game game = new Game(UUID.fromString(parts[0]), parts[1], Long.parseLong(parts[2]),
+							Long.parseLong(parts[3]), Integer.parseInt(parts[4]), Integer.parseInt(parts[5]),
+							Integer.parseInt(parts[6]), parts[7].equals("1"),
+							parts[8].equals("-") ? null : Base64.getDecoder().decode(parts[8]));
+					games.put(parts[0] + parts[2], game);
+				} catch (IllegalArgumentException e) {
+					// Skip the line
+				}
+			}
+		}
+		return new ArrayList<>(games.values());
+	}
+}
@@ -0,0 +1,159 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * These are the JDK Flight Recorder events of the game
+ * <p>
+ * This class must only be used through {@link TwoZeroFourEightEvents}, which
+ * makes sure that the flight recorder is available before this class is
+ * loaded.
+ * <p>
+ * Every event already has a duration of its own, which is left unused. The time
+ * that was measured by the board is kept in a separate field, since the start
+ * of an event cannot be set after it has been created.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightFlightRecorder {
+	private TwoZeroFourEightFlightRecorder() {
+	}
+
+	/**
+	 * Registers the events, so that they show up in the recording settings
+	 *
+	 * @return whether the flight recorder is available
+	 */
+	static boolean register() {
+		if (!FlightRecorder.isAvailable()) {
+			return false;
+		}
+		FlightRecorder.register(MoveEvent.class);
+		FlightRecorder.register(DrawEvent.class);
+		FlightRecorder.register(StateChangeEvent.class);
+		FlightRecorder.register(WinLoseCheckEvent.class);
+		return true;
+	}
+
+	static void move(String direction, int moved, int merges, long nanos) {
+		MoveEvent event = new MoveEvent();
+		if (event.shouldCommit()) {
+			event.direction = direction;
+			event.moved = moved;
+			event.merges = merges;
+			event.moveNanos = nanos;
+			event.commit();
+		}
+	}
+
+	static void draw(int width, int height, boolean full, long nanos) {
+		DrawEvent event = new DrawEvent();
+		if (event.shouldCommit()) {
+			event.width = width;
+			event.height = height;
+			event.full = full;
+			event.drawNanos = nanos;
+			event.commit();
+		}
+	}
+
+	static void stateChange(String from, String to, long nanos) {
+		StateChangeEvent event = new StateChangeEvent();
+		if (event.shouldCommit()) {
+			event.from = from;
+			event.to = to;
+			event.reloadNanos = nanos;
+			event.commit();
+		}
+	}
+
+	static void winLoseCheck(String result, long nanos) {
+		WinLoseCheckEvent event = new WinLoseCheckEvent();
+		if (event.shouldCommit()) {
+			event.result = result;
+			event.checkNanos = nanos;
+			event.commit();
+		}
+	}
+
+	@Name("bk2048.Move")
+	@Label("Move")
+	@Category({ "BK2048" })
+	@Description("A move on a 2048 board")
+	static class MoveEvent extends Event {
+		@Label("Direction")
+		String direction;
+		@Label("Tiles Moved")
+		int moved;
+		@Label("Merges")
+		int merges;
+		@Label("Move Duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long moveNanos;
+	}
+
+	@Name("bk2048.Draw")
+	@Label("Draw")
+	@Category({ "BK2048" })
+	@Description("A frame of a 2048 board that was drawn onto the display")
+	static class DrawEvent extends Event {
+		@Label("Width")
+		int width;
+		@Label("Height")
+		int height;
+		@Label("Full Redraw")
+		boolean full;
+		@Label("Draw Duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long drawNanos;
+	}
+
+	@Name("bk2048.StateChange")
+	@Label("State Change")
+	@Category({ "BK2048" })
+	@Description("A 2048 board that changed its game state and reloaded")
+	static class StateChangeEvent extends Event {
+		@Label("From")
+		String from;
+		@Label("To")
+		String to;
+		@Label("Reload Duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long reloadNanos;
+	}
+
+	@Name("bk2048.WinLoseCheck")
+	@Label("Win/Lose Check")
+	@Category({ "BK2048" })
+	@Description("A check whether a 2048 game was won or lost")
+	static class WinLoseCheckEvent extends Event {
+		@Label("Result")
+		String result;
+		@Label("Check Duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long checkNanos;
+	}
+}
@@ -0,0 +1,216 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.bergerkiller.bukkit.common.map.MapCanvas;
+import com.bergerkiller.bukkit.common.map.MapTexture;
+
+/**
+ * This is the prepared animation of a single move
+ * <p>
+ * When a move is made, the board describes every tile it draws by its sprite
+ * and the line it slides along. The frames in between the start and the end of
+ * the move are then drawn in the background, and each one is compared with the
+ * one before it. Only the rectangle that changed is kept, so a prepared move
+ * takes little memory, and showing a frame on the main thread is a single copy.
+ * <p>
+ * The first and the last frame of a move are not part of the sequence, those
+ * are drawn by the board itself.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightFrameSequence implements Runnable {
+	/**
+	 * The empty board that the tiles are drawn on, which is never changed after
+	 * it has been created
+	 */
+	private final MapTexture background;
+
+	/**
+	 * The number of ticks that the move takes
+	 */
+	private final int frames;
+	/**
+	 * How tiles speed up and slow down while they move
+	 */
+	private final TwoZeroFourEightEasing easing;
+
+	/**
+	 * The pixels that were shown when the move was made
+	 */
+	private final byte[] shown;
+
+	/**
+	 * The sprites of the tiles, in the order that they are drawn
+	 */
+	private final List<MapTexture> sprites = new ArrayList<>();
+	/**
+	 * The lines that the tiles slide along, as start X, start Y, end X and end Y
+	 * for each tile
+	 */
+	private int[] lines = new int[64];
+
+	/**
+	 * The changed rectangle of each frame, or {@code null} for a frame that looks
+	 * the same as the one before it
+	 */
+	private final MapTexture[] regions;
+	/**
+	 * The positions of the changed rectangles, as X and Y for each frame
+	 */
+	private final int[] positions;
+
+	/**
+	 * Whether all frames have been prepared
+	 */
+	private volatile boolean ready = false;
+
+	/**
+	 * Creates a sequence, which has to be given its tiles before it is prepared
+	 *
+	 * @param background the empty board
+	 * @param frames     the number of ticks that the move takes
+	 * @param easing     how tiles speed up and slow down while they move
+	 * @param shown      the pixels that are currently shown, which are copied
+	 */
+	public TwoZeroFourEightFrameSequence(MapTexture background, int frames, TwoZeroFourEightEasing easing,
+			byte[] shown) {
+		this.background = background;
+		this.frames = frames;
+		this.easing = easing;
+		this.shown = shown.clone();
+		this.regions = new MapTexture[Math.max(0, frames - 1)];
+		this.positions = new int[this.regions.length * 2];
+	}
+
+	/**
+	 * Adds a tile, which is drawn on top of all tiles that were added before it
+	 *
+	 * @param sprite the sprite of the tile
+	 * @param startX the X-position at the start of the move
+	 * @param startY the Y-position at the start of the move
+	 * @param endX   the X-position at the end of the move
+	 * @param endY   the Y-position at the end of the move
+	 */
+	public void addTile(MapTexture sprite, int startX, int startY, int endX, int endY) {
+		int offset = this.sprites.size() * 4;
+		if (offset + 4 > this.lines.length) {
+			this.lines = Arrays.copyOf(this.lines, this.lines.length * 2);
+		}
+		this.lines[offset] = startX;
+		this.lines[offset + 1] = startY;
+		this.lines[offset + 2] = endX;
+		this.lines[offset + 3] = endY;
+		this.sprites.add(sprite);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Here we draw every frame in between the start and the end of the move, and
+	 * keep the rectangle of pixels that changed since the frame before it.
+	 */
+	@Override
+	public void run() {
+		int width = this.background.getWidth(), height = this.background.getHeight();
+		MapTexture canvas = MapTexture.createEmpty(width, height);
+		byte[] next = canvas.getBuffer();
+
+		for (int frame = 1; frame < this.frames; frame++) {
+			double progress = this.easing.apply((double) frame / this.frames);
+			canvas.draw(this.background, 0, 0);
+			for (int i = 0; i < this.sprites.size(); i++) {
+				int offset = i * 4;
+				int startX = this.lines[offset], startY = this.lines[offset + 1];
+				canvas.draw(this.sprites.get(i),
+						startX + (int) Math.round((this.lines[offset + 2] - startX) * progress),
+						startY + (int) Math.round((this.lines[offset + 3] - startY) * progress));
+			}
+
+			int minX = width, maxX = -1, minY = -1, maxY = -1;
+			for (int y = 0; y < height; y++) {
+				int row = y * width, left = 0;
+				while (left < width && next[row + left] == this.shown[row + left]) {
+					left++;
+				}
+				if (left == width) {
+					continue;
+				}
+				int right = width - 1;
+				while (next[row + right] == this.shown[row + right]) {
+					right--;
+				}
+				minX = Math.min(minX, left);
+				maxX = Math.max(maxX, right);
+				if (minY == -1) {
+					minY = y;
+				}
+				maxY = y;
+			}
+			if (minY == -1) {
+				continue;
+			}
+
+			int regionWidth = maxX - minX + 1, regionHeight = maxY - minY + 1;
+			MapTexture region = MapTexture.createEmpty(regionWidth, regionHeight);
+			byte[] pixels = region.getBuffer();
+			for (int y = 0; y < regionHeight; y++) {
+				int row = (minY + y) * width + minX;
+				System.arraycopy(next, row, pixels, y * regionWidth, regionWidth);
+				System.arraycopy(next, row, this.shown, row, regionWidth);
+			}
+			this.regions[frame - 1] = region;
+			this.positions[(frame - 1) * 2] = minX;
+			this.positions[(frame - 1) * 2 + 1] = minY;
+		}
+		this.ready = true;
+	}
+
+	/**
+	 * Shows a prepared frame
+	 *
+	 * @param frame the number of ticks since the move was made, from 1 up to but
+	 *              not including the number of ticks that the move takes
+	 * @param view  the canvas of the board
+	 * @param shown the pixels that are currently shown, which are updated
+	 * @return whether the frame was shown, which is not the case if it has not
+	 *         been prepared yet
+	 */
+	public boolean present(int frame, MapCanvas view, byte[] shown) {
+		if (!this.ready || frame < 1 || frame > this.regions.length) {
+			return false;
+		}
+		MapTexture region = this.regions[frame - 1];
+		if (region == null) {
+			return true;
+		}
+
+		int x = this.positions[(frame - 1) * 2], y = this.positions[(frame - 1) * 2 + 1];
+		int width = this.background.getWidth(), regionWidth = region.getWidth();
+		byte[] pixels = region.getBuffer();
+		for (int row = 0; row < region.getHeight(); row++) {
+			System.arraycopy(pixels, row * regionWidth, shown, (y + row) * width + x, regionWidth);
+		}
+		view.draw(region, x, y);
+		return true;
+	}
+}
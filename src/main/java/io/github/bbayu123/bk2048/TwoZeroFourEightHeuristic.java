@@ -0,0 +1,132 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+/**
+ * This is the hand-tuned evaluator that is used when no trained network is
+ * available
+ * <p>
+ * It rewards empty cells and possible merges, and punishes rows and columns
+ * that are not sorted. Like the moves of {@link TwoZeroFourEightEngine}, the
+ * score of every possible row is computed once, so evaluating a board only
+ * takes eight table lookups.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightHeuristic implements TwoZeroFourEightEvaluator {
+	/**
+	 * The only instance, since the evaluator has no state
+	 */
+	static final TwoZeroFourEightHeuristic INSTANCE = new TwoZeroFourEightHeuristic();
+
+	/**
+	 * The score that every row starts with, so that any board that can still be
+	 * played scores higher than a lost board, which the search values at 0
+	 */
+	private static final float LOST_PENALTY = 200000f;
+	/**
+	 * The power that ranks are raised to when comparing neighbouring cells, so
+	 * that unsorted high tiles are punished more than unsorted low tiles
+	 */
+	private static final float MONOTONICITY_POWER = 4f;
+	/**
+	 * How much a row that is not sorted in either direction is punished
+	 */
+	private static final float MONOTONICITY_WEIGHT = 47f;
+	/**
+	 * The power that ranks are raised to when adding up the tiles of a row
+	 */
+	private static final float SUM_POWER = 3.5f;
+	/**
+	 * How much the tiles of a row are punished, which favours rows that have
+	 * merged their tiles
+	 */
+	private static final float SUM_WEIGHT = 11f;
+	/**
+	 * How much each tile that can merge with a neighbour is rewarded
+	 */
+	private static final float MERGES_WEIGHT = 700f;
+	/**
+	 * How much each empty cell is rewarded
+	 */
+	private static final float EMPTY_WEIGHT = 270f;
+
+	/**
+	 * The score of each row
+	 */
+	private static final float[] ROW_SCORE = new float[1 << 16];
+
+	static {
+		int[] cells = new int[4];
+		for (int row = 0; row < 1 << 16; row++) {
+			for (int col = 0; col < 4; col++) {
+				cells[col] = row >>> (col << 2) & 0xF;
+			}
+
+			float sum = 0f;
+			int empty = 0, merges = 0, previous = 0, counter = 0;
+			for (int rank : cells) {
+				sum += Math.pow(rank, TwoZeroFourEightHeuristic.SUM_POWER);
+				if (rank == 0) {
+					empty++;
+					continue;
+				}
+				if (previous == rank) {
+					counter++;
+				} else if (counter > 0) {
+					merges += 1 + counter;
+					counter = 0;
+				}
+				previous = rank;
+			}
+			if (counter > 0) {
+				merges += 1 + counter;
+			}
+
+			float left = 0f, right = 0f;
+			for (int col = 1; col < 4; col++) {
+				float before = (float) Math.pow(cells[col - 1], TwoZeroFourEightHeuristic.MONOTONICITY_POWER);
+				float after = (float) Math.pow(cells[col], TwoZeroFourEightHeuristic.MONOTONICITY_POWER);
+				if (cells[col - 1] > cells[col]) {
+					left += before - after;
+				} else {
+					right += after - before;
+				}
+			}
+
+			TwoZeroFourEightHeuristic.ROW_SCORE[row] = TwoZeroFourEightHeuristic.LOST_PENALTY
+					+ TwoZeroFourEightHeuristic.EMPTY_WEIGHT * empty + TwoZeroFourEightHeuristic.MERGES_WEIGHT * merges
+					- TwoZeroFourEightHeuristic.MONOTONICITY_WEIGHT * Math.min(left, right)
+					- TwoZeroFourEightHeuristic.SUM_WEIGHT * sum;
+		}
+	}
+
+	private TwoZeroFourEightHeuristic() {
+	}
+
+	@Override
+	public float evaluate(long board) {
+		long columns = TwoZeroFourEightEngine.transpose(board);
+		float score = 0f;
+		for (int shift = 0; shift < 64; shift += 16) {
+			score += TwoZeroFourEightHeuristic.ROW_SCORE[(int) (board >>> shift) & 0xFFFF]
+					+ TwoZeroFourEightHeuristic.ROW_SCORE[(int) (columns >>> shift) & 0xFFFF];
+		}
+		return score;
+	}
+}
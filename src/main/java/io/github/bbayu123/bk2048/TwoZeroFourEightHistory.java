@@ -0,0 +1,155 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+/**
+ * This is the undo history of a 2048 board
+ * <p>
+ * The history is a ring buffer of primitive arrays that are allocated once, so
+ * recording a move never allocates. When the buffer is full, the oldest state
+ * is overwritten.
+ * <p>
+ * Each state holds the board before a move, and where each tile went during
+ * the move, both as packed {@code long}s (see {@link TwoZeroFourEightEngine}),
+ * along with the score and the spawn index before the move.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightHistory {
+	/**
+	 * The packed boards before each move
+	 */
+	private final long[] boards;
+	/**
+	 * The destination of each cell during each move, packed like a board
+	 */
+	private final long[] destinations;
+	/**
+	 * The scores before each move
+	 */
+	private final int[] scores;
+	/**
+	 * The spawn indices before each move
+	 */
+	private final int[] spawnIndices;
+
+	/**
+	 * The slot that the next state is written to
+	 */
+	private int head = 0;
+	/**
+	 * The number of states in the history
+	 */
+	private int size = 0;
+
+	/**
+	 * Creates an empty history
+	 *
+	 * @param capacity the number of states to keep
+	 */
+	public TwoZeroFourEightHistory(int capacity) {
+		this.boards = new long[capacity];
+		this.destinations = new long[capacity];
+		this.scores = new int[capacity];
+		this.spawnIndices = new int[capacity];
+	}
+
+	/**
+	 * Records the state before a move
+	 *
+	 * @param board        the packed board before the move
+	 * @param destinations the destination of each cell during the move
+	 * @param score        the score before the move
+	 * @param spawnIndex   the spawn index before the move
+	 */
+	public void push(long board, long destinations, int score, int spawnIndex) {
+		if (this.boards.length == 0) {
+			return;
+		}
+		this.boards[this.head] = board;
+		this.destinations[this.head] = destinations;
+		this.scores[this.head] = score;
+		this.spawnIndices[this.head] = spawnIndex;
+		this.head = (this.head + 1) % this.boards.length;
+		this.size = Math.min(this.size + 1, this.boards.length);
+	}
+
+	/**
+	 * Removes the latest state from the history
+	 * <p>
+	 * The values of the removed state can be read with the getters, using the
+	 * returned slot, until the next {@link #push(long, long, int, int)}.
+	 *
+	 * @return the slot of the removed state, or -1 if the history is empty
+	 */
+	public int pop() {
+		if (this.size == 0) {
+			return -1;
+		}
+		this.head = (this.head - 1 + this.boards.length) % this.boards.length;
+		this.size--;
+		return this.head;
+	}
+
+	/**
+	 * Removes all states from the history
+	 */
+	public void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 * Gets the packed board of a state
+	 *
+	 * @param slot the slot of the state
+	 * @return the packed board
+	 */
+	public long getBoard(int slot) {
+		return this.boards[slot];
+	}
+
+	/**
+	 * Gets the destination of each cell of a state
+	 *
+	 * @param slot the slot of the state
+	 * @return the destinations, packed like a board
+	 */
+	public long getDestinations(int slot) {
+		return this.destinations[slot];
+	}
+
+	/**
+	 * Gets the score of a state
+	 *
+	 * @param slot the slot of the state
+	 * @return the score
+	 */
+	public int getScore(int slot) {
+		return this.scores[slot];
+	}
+
+	/**
+	 * Gets the spawn index of a state
+	 *
+	 * @param slot the slot of the state
+	 * @return the spawn index
+	 */
+	public int getSpawnIndex(int slot) {
+		return this.spawnIndices[slot];
+	}
+}
@@ -0,0 +1,120 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import io.github.bbayu123.bk2048.Main.TwoZeroFourEightBoard;
+
+/**
+ * This is the offline counterpart of {@link TwoZeroFourEightLoadTest}
+ * <p>
+ * It runs boards that are not attached to any display, making random moves at
+ * the requested rate and ticking them, which is the same game code that runs on
+ * the server. Drawing is not included, since that is done by BKCommonLib for
+ * attached displays only. It needs BKCommonLib and the Spigot API on the
+ * classpath, but no server:
+ *
+ * <pre>
+ * java -cp bk2048-poc.jar:BKCommonLib.jar:spigot-api.jar io.github.bbayu123.bk2048.TwoZeroFourEightLoadHarness &lt;games&gt; &lt;moves/sec&gt; [seconds]
+ * </pre>
+ * <p>
+ * That moves do not allocate is checked by a unit test instead.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+public final class TwoZeroFourEightLoadHarness {
+	/**
+	 * The bean that measures the allocations of threads, which is looked up once
+	 * so that measuring does not allocate itself
+	 */
+	private static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private TwoZeroFourEightLoadHarness() {
+	}
+
+	/**
+	 * Runs the simulated games, and prints how long the ticks took
+	 *
+	 * @param args the number of games, the moves per second of each game, and
+	 *             optionally the number of seconds to run
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: TwoZeroFourEightLoadHarness <games> <moves/sec> [seconds]");
+			System.exit(1);
+		}
+		int games = Integer.parseInt(args[0]);
+		double movesPerTick = Double.parseDouble(args[1]) / 20.0;
+		int ticks = (args.length > 2 ? Integer.parseInt(args[2]) : 60) * 20;
+
+		Random random = new Random();
+		TwoZeroFourEightBoard[] boards = new TwoZeroFourEightBoard[games];
+		for (int i = 0; i < games; i++) {
+			boards[i] = new TwoZeroFourEightBoard();
+			boards[i].startGame();
+		}
+
+		long startHeap = TwoZeroFourEightLoadTest.usedHeap();
+		long startAllocated = TwoZeroFourEightLoadHarness.allocatedBytes();
+		long total = 0L, worst = 0L, totalMoves = 0L;
+		double credit = 0;
+		for (int tick = 0; tick < ticks; tick++) {
+			credit += movesPerTick;
+			int moves = (int) credit;
+			credit -= moves;
+
+			long start = System.nanoTime();
+			for (TwoZeroFourEightBoard board : boards) {
+				for (int i = 0; i < moves; i++) {
+					board.playRandomMove(random);
+				}
+				board.onTick();
+			}
+			long elapsed = System.nanoTime() - start;
+			total += elapsed;
+			worst = Math.max(worst, elapsed);
+			totalMoves += (long) moves * games;
+		}
+		long allocated = TwoZeroFourEightLoadHarness.allocatedBytes() - startAllocated;
+
+		double average = (double) total / ticks;
+		System.out.printf("%d games, %d ticks: average %.3f ms/tick, worst %.3f ms/tick, heap %+d MB%n", games,
+				ticks, average / 1e6, worst / 1e6, (TwoZeroFourEightLoadTest.usedHeap() - startHeap) / (1024 * 1024));
+		System.out.printf("About %d games fit in a tick without drawing%n",
+				(long) (games * TwoZeroFourEightTickMonitor.TARGET_TICK_NANOS / Math.max(1.0, average)));
+		if (startAllocated >= 0L) {
+			System.out.printf("%.1f bytes allocated per move, including ticks and new games%n",
+					(double) allocated / Math.max(1L, totalMoves));
+		}
+	}
+
+	/**
+	 * Gets the number of bytes that the current thread has allocated so far
+	 *
+	 * @return the number of bytes, or -1 if the Java version cannot measure it
+	 */
+	static long allocatedBytes() {
+		if (TwoZeroFourEightLoadHarness.THREADS instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) TwoZeroFourEightLoadHarness.THREADS)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1L;
+	}
+}
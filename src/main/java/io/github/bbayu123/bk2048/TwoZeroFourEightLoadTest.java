@@ -0,0 +1,209 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.bergerkiller.bukkit.common.map.MapDisplay;
+import com.bergerkiller.bukkit.common.utils.ItemUtil;
+
+import io.github.bbayu123.bk2048.Main.TwoZeroFourEight;
+
+/**
+ * This is a load test that runs many simulated 2048 games at once
+ * <p>
+ * Every simulated game is a real {@link TwoZeroFourEight} display without any
+ * viewers, which ticks and draws like any other display. Once per tick, each
+ * game makes random moves at the requested rate. While the test runs, the tick
+ * length, the time spent in games and the heap growth are reported from the
+ * {@link TwoZeroFourEightTickMonitor}.
+ * <p>
+ * Only one load test runs at a time.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightLoadTest implements Runnable {
+	/**
+	 * How often progress is reported, in ticks
+	 */
+	private static final int REPORT_TICKS = 100;
+
+	/**
+	 * The load test that is currently running
+	 */
+	private static TwoZeroFourEightLoadTest current = null;
+
+	/**
+	 * Who started the test, and receives the reports
+	 */
+	private final CommandSender sender;
+	/**
+	 * The number of simulated games
+	 */
+	private final int games;
+	/**
+	 * The number of moves that each game makes per tick
+	 */
+	private final double movesPerTick;
+
+	/**
+	 * The simulated games
+	 */
+	private final List<TwoZeroFourEight> displays = new ArrayList<>();
+	/**
+	 * The random generator for moves
+	 */
+	private final Random random = new Random();
+
+	/**
+	 * The moves that are owed to each game, carried over between ticks
+	 */
+	private double credit = 0;
+	/**
+	 * The number of ticks since the test started
+	 */
+	private int tick = 0;
+	/**
+	 * The used heap when the test started, in bytes
+	 */
+	private long startHeap = 0L;
+	/**
+	 * The task that drives the test
+	 */
+	private BukkitTask task = null;
+
+	/**
+	 * Creates a load test
+	 *
+	 * @param sender         who receives the reports
+	 * @param games          the number of simulated games
+	 * @param movesPerSecond the number of moves that each game makes per second
+	 */
+	public TwoZeroFourEightLoadTest(CommandSender sender, int games, double movesPerSecond) {
+		this.sender = sender;
+		this.games = games;
+		this.movesPerTick = movesPerSecond / 20.0;
+	}
+
+	/**
+	 * Stops the load test that is currently running
+	 *
+	 * @return whether a load test was running
+	 */
+	public static boolean stopCurrent() {
+		if (TwoZeroFourEightLoadTest.current == null) {
+			return false;
+		}
+		TwoZeroFourEightLoadTest.current.stop();
+		return true;
+	}
+
+	/**
+	 * Starts the load test, attaching all simulated games
+	 *
+	 * @param plugin the plugin that runs the test
+	 */
+	public void start(JavaPlugin plugin) {
+		TwoZeroFourEightLoadTest.current = this;
+		this.startHeap = TwoZeroFourEightLoadTest.usedHeap();
+
+		for (int i = 0; i < this.games; i++) {
+			ItemStack item = MapDisplay.createMapItem(TwoZeroFourEight.class);
+			ItemUtil.getMetaTag(item).putValue("headless", true);
+			TwoZeroFourEight display = new TwoZeroFourEight();
+			display.initialize(plugin, item);
+			this.displays.add(display);
+		}
+
+		this.task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1L, 1L);
+		this.sender.sendMessage(ChatColor.GREEN + "Started a load test with " + this.games + " games at "
+				+ this.movesPerTick * 20.0 + " moves per second each");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Here we make the moves that are due in this tick, and report progress every
+	 * few seconds.
+	 */
+	@Override
+	public void run() {
+		this.credit += this.movesPerTick;
+		int moves = (int) this.credit;
+		this.credit -= moves;
+		for (TwoZeroFourEight display : this.displays) {
+			for (int i = 0; i < moves; i++) {
+				display.playRandomMove(this.random);
+			}
+		}
+
+		if (++this.tick % TwoZeroFourEightLoadTest.REPORT_TICKS == 0) {
+			this.report();
+		}
+	}
+
+	/**
+	 * Stops the load test, closing all simulated games
+	 */
+	public void stop() {
+		if (this.task != null) {
+			this.task.cancel();
+		}
+		this.report();
+		for (TwoZeroFourEight display : this.displays) {
+			display.close();
+		}
+		this.displays.clear();
+		if (TwoZeroFourEightLoadTest.current == this) {
+			TwoZeroFourEightLoadTest.current = null;
+		}
+		this.sender.sendMessage(ChatColor.GREEN + "The load test has stopped");
+	}
+
+	/**
+	 * Reports the current tick length, time spent in games and heap growth
+	 */
+	private void report() {
+		double tickMs = TwoZeroFourEightTickMonitor.getAverageTickNanos() / 1e6;
+		double gameMs = TwoZeroFourEightTickMonitor.getAverageGameNanos() / 1e6;
+		long heapMb = (TwoZeroFourEightLoadTest.usedHeap() - this.startHeap) / (1024 * 1024);
+		this.sender.sendMessage(String.format(
+				"%s[2048 load test] %d games: %.1f TPS, tick %.2f ms, games %.2f ms/tick (%.3f ms each), heap %+d MB",
+				ChatColor.YELLOW, this.games, TwoZeroFourEightTickMonitor.getTps(), tickMs, gameMs,
+				gameMs / this.games, heapMb));
+	}
+
+	/**
+	 * Gets the heap that is currently in use
+	 *
+	 * @return the used heap in bytes
+	 */
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,322 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Item;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.entity.EntityDamageEvent.DamageCause;
+import org.bukkit.event.entity.EntityPickupItemEvent;
+import org.bukkit.event.entity.ItemDespawnEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+
+import com.bergerkiller.bukkit.common.map.MapDisplay;
+import com.bergerkiller.bukkit.common.nbt.CommonTagCompound;
+import com.bergerkiller.bukkit.common.utils.ItemUtil;
+
+import io.github.bbayu123.bk2048.Main.TwoZeroFourEight;
+
+/**
+ * This is the pool of 2048 map items whose maps can be given out again
+ * <p>
+ * Creating a map item allocates a new map for good. To keep the number of maps
+ * from growing forever, every 2048 map item gets a game id, and the pool keeps
+ * a copy of each item by its game id. When an item is destroyed or returned
+ * with {@code /2048 return}, its game id is released. The next
+ * {@code /2048 get} then hands out a copy of that item under a new game id,
+ * which shows the same map, instead of creating a new one.
+ * <p>
+ * A map is only released when its item is known to be gone. An item that is
+ * not viewed for a long time may still be in a chest, and giving its map to
+ * someone else would make both items show the same game.
+ * <p>
+ * Copies of a map that are given to spectators are marked, so that destroying
+ * one does not release the map of the owner.
+ * <p>
+ * The pool is only used on the main thread, and is saved to
+ * {@code mappool.yml}.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightMapPool implements Listener {
+	/**
+	 * The plugin that the pool belongs to
+	 */
+	private static Plugin plugin = null;
+
+	/**
+	 * The kinds of damage that can destroy an item
+	 */
+	private static final Set<DamageCause> DESTROYING = EnumSet.of(DamageCause.FIRE, DamageCause.FIRE_TICK,
+			DamageCause.LAVA, DamageCause.CONTACT, DamageCause.BLOCK_EXPLOSION, DamageCause.ENTITY_EXPLOSION,
+			DamageCause.VOID);
+
+	/**
+	 * A copy of each item that is in use, by game id
+	 */
+	private static final Map<UUID, ItemStack> ITEMS = new HashMap<>();
+	/**
+	 * A copy of each item that has been released, by game id, oldest first
+	 */
+	private static final Map<UUID, ItemStack> FREE = new LinkedHashMap<>();
+	/**
+	 * The game ids that currently have an attached display
+	 */
+	private static final Set<UUID> ATTACHED = new HashSet<>();
+	/**
+	 * The unique ids of the damaged item entities that are checked on the next
+	 * tick, which are removed when the item is picked up in the meantime
+	 */
+	private static final Set<UUID> DAMAGED = new HashSet<>();
+
+	/**
+	 * Whether the pool has changed since it was last saved
+	 */
+	private static boolean dirty = false;
+
+	private TwoZeroFourEightMapPool() {
+	}
+
+	/**
+	 * Loads the pool, and starts listening for destroyed items
+	 *
+	 * @param owner the plugin
+	 */
+	static void load(Plugin owner) {
+		TwoZeroFourEightMapPool.plugin = owner;
+		TwoZeroFourEightMapPool.ITEMS.clear();
+		TwoZeroFourEightMapPool.FREE.clear();
+
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(TwoZeroFourEightMapPool.getFile());
+		ConfigurationSection items = yaml.getConfigurationSection("items");
+		if (items != null) {
+			for (String key : items.getKeys(false)) {
+				ItemStack item = items.getItemStack(key + ".item");
+				if (item == null) {
+					continue;
+				}
+				TwoZeroFourEightMapPool.ITEMS.put(UUID.fromString(key), item);
+			}
+		}
+		for (String key : yaml.getStringList("free")) {
+			TwoZeroFourEightMapPool.release(UUID.fromString(key));
+		}
+
+		Bukkit.getPluginManager().registerEvents(new TwoZeroFourEightMapPool(), owner);
+	}
+
+	/**
+	 * Saves the pool if it has changed
+	 */
+	static void save() {
+		if (!TwoZeroFourEightMapPool.dirty || TwoZeroFourEightMapPool.plugin == null) {
+			return;
+		}
+		YamlConfiguration yaml = new YamlConfiguration();
+		for (Map.Entry<UUID, ItemStack> entry : TwoZeroFourEightMapPool.ITEMS.entrySet()) {
+			yaml.set("items." + entry.getKey() + ".item", entry.getValue());
+		}
+		List<String> free = new ArrayList<>();
+		for (Map.Entry<UUID, ItemStack> entry : TwoZeroFourEightMapPool.FREE.entrySet()) {
+			yaml.set("items." + entry.getKey() + ".item", entry.getValue());
+			free.add(entry.getKey().toString());
+		}
+		yaml.set("free", free);
+
+		try {
+			yaml.save(TwoZeroFourEightMapPool.getFile());
+			TwoZeroFourEightMapPool.dirty = false;
+		} catch (IOException e) {
+			TwoZeroFourEightMapPool.plugin.getLogger().warning("Could not save the map pool: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Gets a 2048 map item for a player, reusing a released map if there is one
+	 *
+	 * @param owner the unique id of the player that owns the game
+	 * @return the map item
+	 */
+	static ItemStack take(UUID owner) {
+		ItemStack item = null;
+		Iterator<Map.Entry<UUID, ItemStack>> released = TwoZeroFourEightMapPool.FREE.entrySet().iterator();
+		while (released.hasNext()) {
+			Map.Entry<UUID, ItemStack> entry = released.next();
+			// A returned map can still be attached until its last viewer is gone
+			if (!TwoZeroFourEightMapPool.ATTACHED.contains(entry.getKey())) {
+				item = ItemUtil.cloneItem(entry.getValue());
+				released.remove();
+				break;
+			}
+		}
+		if (item == null) {
+			item = MapDisplay.createMapItem(TwoZeroFourEight.class);
+		}
+		UUID gameId = UUID.randomUUID();
+
+		// Start the reused map over with the new owner
+		CommonTagCompound tag = ItemUtil.getMetaTag(item);
+		tag.putValue("gameId", gameId);
+		tag.putValue("owner", owner);
+		tag.putValue("hibernated", false);
+		tag.remove("race");
+		tag.remove("spectator");
+		ItemUtil.setDisplayName(item, "2048");
+
+		TwoZeroFourEightMapPool.ITEMS.put(gameId, item.clone());
+		TwoZeroFourEightMapPool.dirty = true;
+		return item;
+	}
+
+	/**
+	 * Records that the display of a map item has been attached
+	 * <p>
+	 * Items that were made before the pool existed get a game id here. An item that
+	 * was released but turns out to still be in use is taken back out of the pool.
+	 *
+	 * @param game the display
+	 */
+	static void attached(TwoZeroFourEight game) {
+		UUID gameId = game.properties.get("gameId", UUID.class);
+		if (gameId == null) {
+			gameId = UUID.randomUUID();
+			game.properties.set("gameId", gameId);
+		}
+		TwoZeroFourEightMapPool.ATTACHED.add(gameId);
+		if (!TwoZeroFourEightMapPool.ITEMS.containsKey(gameId)) {
+			ItemStack item = TwoZeroFourEightMapPool.FREE.remove(gameId);
+			TwoZeroFourEightMapPool.ITEMS.put(gameId, item != null ? item : game.properties.getMapItem().clone());
+			TwoZeroFourEightMapPool.dirty = true;
+		}
+	}
+
+	/**
+	 * Records that the display of a map item has been detached
+	 *
+	 * @param game the display
+	 */
+	static void detached(TwoZeroFourEight game) {
+		UUID gameId = game.properties.get("gameId", UUID.class);
+		if (gameId != null) {
+			TwoZeroFourEightMapPool.ATTACHED.remove(gameId);
+		}
+	}
+
+	/**
+	 * Releases the map of an item, so that it can be given out again
+	 *
+	 * @param gameId the game id of the item
+	 */
+	static void release(UUID gameId) {
+		ItemStack item = gameId == null ? null : TwoZeroFourEightMapPool.ITEMS.remove(gameId);
+		if (item != null) {
+			TwoZeroFourEightMapPool.FREE.put(gameId, item);
+			TwoZeroFourEightMapPool.dirty = true;
+		}
+	}
+
+	/**
+	 * Gets the game id of a 2048 map item
+	 *
+	 * @param item the item
+	 * @return the game id, or {@code null} if the item is not a 2048 map, or is a
+	 *         copy given to a spectator
+	 */
+	static UUID getGameId(ItemStack item) {
+		CommonTagCompound tag = item == null ? null : ItemUtil.getMetaTag(item, false);
+		if (tag == null || tag.getValue("spectator", false)) {
+			return null;
+		}
+		return tag.getValue("gameId", UUID.class);
+	}
+
+	/**
+	 * Releases the map of an item that despawns
+	 *
+	 * @param event the despawn event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onItemDespawn(ItemDespawnEvent event) {
+		TwoZeroFourEightMapPool.release(TwoZeroFourEightMapPool.getGameId(event.getEntity().getItemStack()));
+	}
+
+	/**
+	 * Releases the map of an item that is destroyed by fire, lava, cactus, an
+	 * explosion or the void
+	 * <p>
+	 * Not all damage destroys an item, so this checks one tick later whether the
+	 * item is gone, unless it has been picked up in the meantime. Other kinds of
+	 * damage are ignored.
+	 *
+	 * @param event the damage event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onItemDamage(EntityDamageEvent event) {
+		if (!(event.getEntity() instanceof Item)
+				|| !TwoZeroFourEightMapPool.DESTROYING.contains(event.getCause())) {
+			return;
+		}
+		Item entity = (Item) event.getEntity();
+		UUID gameId = TwoZeroFourEightMapPool.getGameId(entity.getItemStack());
+		if (gameId != null && TwoZeroFourEightMapPool.DAMAGED.add(entity.getUniqueId())) {
+			Bukkit.getScheduler().runTask(TwoZeroFourEightMapPool.plugin, () -> {
+				if (TwoZeroFourEightMapPool.DAMAGED.remove(entity.getUniqueId()) && entity.isDead()) {
+					TwoZeroFourEightMapPool.release(gameId);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Keeps the map of a damaged item that is picked up before it is checked
+	 *
+	 * @param event the pickup event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onItemPickup(EntityPickupItemEvent event) {
+		TwoZeroFourEightMapPool.DAMAGED.remove(event.getItem().getUniqueId());
+	}
+
+	/**
+	 * Gets the file that the pool is saved to
+	 *
+	 * @return the file
+	 */
+	private static File getFile() {
+		return new File(TwoZeroFourEightMapPool.plugin.getDataFolder(), "mappool.yml");
+	}
+}
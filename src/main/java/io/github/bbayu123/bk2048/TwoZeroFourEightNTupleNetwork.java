@@ -0,0 +1,242 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This is an evaluator that uses a trained n-tuple network
+ * <p>
+ * The network is a set of shapes, each a few cells of the board. For every
+ * shape, there is a weight for every combination of ranks in its cells. A board
+ * is scored by adding up the weights of all shapes, in all 8 rotations and
+ * reflections of the board.
+ * <p>
+ * The weights are trained by {@link TwoZeroFourEightTrainer}, and can take up
+ * over a hundred megabytes. Rather than loading them onto the heap, the weight
+ * file is mapped into memory with {@link FileChannel#map}, so the operating
+ * system pages in only what is used, and the plugin starts just as fast.
+ * <p>
+ * The weight file is little-endian. It starts with {@link #MAGIC}, the number of
+ * shapes, and for each shape its length and cells. The weights of each shape
+ * follow, as {@code 16^length} floats each.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightNTupleNetwork implements TwoZeroFourEightEvaluator {
+	/**
+	 * The first 4 bytes of a weight file
+	 */
+	static final int MAGIC = 0x4E545550;
+
+	/**
+	 * The shapes that are trained by default: the outer and inner rows, and two
+	 * rectangles of 2x3 cells
+	 */
+	static final int[][] DEFAULT_SHAPES = new int[][] { { 0, 1, 2, 3 }, { 4, 5, 6, 7 }, { 0, 1, 2, 4, 5, 6 },
+			{ 4, 5, 6, 8, 9, 10 } };
+
+	/**
+	 * The number of rotations and reflections of a board
+	 */
+	static final int SYMMETRIES = 8;
+
+	/**
+	 * The largest number of cells in a shape, which keeps the weights of a shape
+	 * within a mapping
+	 */
+	static final int MAX_SHAPE_LENGTH = 7;
+
+	/**
+	 * The shapes of the network
+	 */
+	private final int[][] shapes;
+	/**
+	 * The position of the weights of each shape in the mapped file, in bytes
+	 */
+	private final int[] offsets;
+	/**
+	 * The mapped weight file
+	 */
+	private final ByteBuffer weights;
+
+	/**
+	 * Creates a network from a mapped weight file
+	 *
+	 * @param shapes  the shapes of the network
+	 * @param offsets the position of the weights of each shape, in bytes
+	 * @param weights the mapped weight file
+	 */
+	private TwoZeroFourEightNTupleNetwork(int[][] shapes, int[] offsets, ByteBuffer weights) {
+		this.shapes = shapes;
+		this.offsets = offsets;
+		this.weights = weights;
+	}
+
+	/**
+	 * Maps a weight file into memory
+	 *
+	 * @param file the weight file
+	 * @return the network
+	 * @throws IOException if the file cannot be read, or is not a valid weight
+	 *                     file
+	 */
+	static TwoZeroFourEightNTupleNetwork map(File file) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Weight file is too large: " + file.getName());
+			}
+			// The mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		if (buffer.capacity() < 8 || buffer.getInt(0) != TwoZeroFourEightNTupleNetwork.MAGIC) {
+			throw new IOException("Not a weight file: " + file.getName());
+		}
+		int position = 4, count = buffer.getInt(position);
+		position += 4;
+		// Every shape takes at least 8 bytes, its length and one cell
+		if (count < 0 || count > (buffer.capacity() - position) / 8) {
+			throw new IOException("Weight file has a bad header: " + file.getName());
+		}
+		int[][] shapes = new int[count][];
+		for (int i = 0; i < shapes.length; i++) {
+			int length = position + 4 <= buffer.capacity() ? buffer.getInt(position) : -1;
+			position += 4;
+			if (length < 1 || length > TwoZeroFourEightNTupleNetwork.MAX_SHAPE_LENGTH
+					|| position + 4 * length > buffer.capacity()) {
+				throw new IOException("Weight file has a bad shape: " + file.getName());
+			}
+			shapes[i] = new int[length];
+			for (int j = 0; j < length; j++) {
+				shapes[i][j] = buffer.getInt(position);
+				position += 4;
+				if (shapes[i][j] < 0 || shapes[i][j] >= TwoZeroFourEightEngine.CELLS) {
+					throw new IOException("Weight file has a bad shape: " + file.getName());
+				}
+			}
+		}
+
+		int[] offsets = new int[shapes.length];
+		long end = position;
+		for (int i = 0; i < shapes.length; i++) {
+			if (end > buffer.capacity()) {
+				break;
+			}
+			offsets[i] = (int) end;
+			end += 4L << 4 * shapes[i].length;
+		}
+		if (end != buffer.capacity()) {
+			throw new IOException("Weight file has the wrong size: " + file.getName());
+		}
+		return new TwoZeroFourEightNTupleNetwork(shapes, offsets, buffer);
+	}
+
+	/**
+	 * Writes a weight file
+	 *
+	 * @param file    the weight file
+	 * @param shapes  the shapes of the network
+	 * @param weights the weights of each shape
+	 * @throws IOException if the file cannot be written
+	 */
+	static void write(File file, int[][] shapes, float[][] weights) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(TwoZeroFourEightNTupleNetwork.MAGIC).putInt(shapes.length);
+			for (int[] shape : shapes) {
+				buffer.putInt(shape.length);
+				for (int cell : shape) {
+					buffer.putInt(cell);
+				}
+			}
+			for (float[] shapeWeights : weights) {
+				for (float weight : shapeWeights) {
+					if (!buffer.hasRemaining()) {
+						TwoZeroFourEightNTupleNetwork.drain(channel, buffer);
+					}
+					buffer.putFloat(weight);
+				}
+			}
+			TwoZeroFourEightNTupleNetwork.drain(channel, buffer);
+		}
+	}
+
+	@Override
+	public float evaluate(long board) {
+		float score = 0f;
+		for (int symmetry = 0; symmetry < TwoZeroFourEightNTupleNetwork.SYMMETRIES; symmetry++) {
+			long view = TwoZeroFourEightNTupleNetwork.symmetry(board, symmetry);
+			for (int i = 0; i < this.shapes.length; i++) {
+				int index = TwoZeroFourEightNTupleNetwork.index(view, this.shapes[i]);
+				score += this.weights.getFloat(this.offsets[i] + (index << 2));
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Gets one of the rotations and reflections of a board
+	 *
+	 * @param board    the packed board
+	 * @param symmetry which rotation or reflection, from 0 to 7
+	 * @return the rotated or reflected board
+	 */
+	static long symmetry(long board, int symmetry) {
+		long view = (symmetry & 4) != 0 ? TwoZeroFourEightEngine.transpose(board) : board;
+		view = (symmetry & 2) != 0 ? TwoZeroFourEightEngine.flip(view) : view;
+		return (symmetry & 1) != 0 ? TwoZeroFourEightEngine.mirror(view) : view;
+	}
+
+	/**
+	 * Gets the index of the weight of a shape on a board
+	 *
+	 * @param board the packed board
+	 * @param shape the cells of the shape
+	 * @return the ranks of the cells, packed 4 bits each
+	 */
+	static int index(long board, int[] shape) {
+		int index = 0;
+		for (int i = 0; i < shape.length; i++) {
+			index |= TwoZeroFourEightEngine.getCell(board, shape[i]) << (i << 2);
+		}
+		return index;
+	}
+
+	/**
+	 * Writes out a buffer completely, and clears it
+	 *
+	 * @param channel the channel to write to
+	 * @param buffer  the buffer to write
+	 * @throws IOException if writing fails
+	 */
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,185 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+/**
+ * This is how much effort goes into animating a move
+ * <p>
+ * The quality of the server is lowered when the ticks per second measured by
+ * the {@link TwoZeroFourEightTickMonitor} drop below a threshold, and raised
+ * again once they have recovered a little above it, so that the quality does
+ * not flip back and forth. A board can lower its own quality further when
+ * nobody is close enough to see it.
+ * <p>
+ * Boards read the quality once at the start of every move.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+enum TwoZeroFourEightQuality {
+	/**
+	 * Moves use all configured frames
+	 */
+	FULL(1, false),
+	/**
+	 * Moves use half of the configured frames, and merged tiles disappear right
+	 * away instead of sliding under the tile they merged into
+	 */
+	REDUCED(2, true),
+	/**
+	 * Tiles move instantly, so nothing is drawn in between
+	 */
+	MINIMAL(0, true);
+
+	/**
+	 * How many ticks per second the server has to recover above a threshold before
+	 * the quality is raised again
+	 */
+	private static final double RECOVERY_TPS = 1.0;
+
+	/**
+	 * Whether the quality changes at all
+	 */
+	private static volatile boolean adaptive = true;
+	/**
+	 * The ticks per second below which the quality is reduced
+	 */
+	private static volatile double reduceBelowTps = 18.0;
+	/**
+	 * The ticks per second below which the quality is minimal
+	 */
+	private static volatile double minimalBelowTps = 15.0;
+	/**
+	 * How close a player has to be to a board to see its animations, or 0 to not
+	 * take viewers into account
+	 */
+	private static volatile double viewDistance = 0.0;
+
+	/**
+	 * The quality of the server
+	 */
+	private static volatile TwoZeroFourEightQuality current = TwoZeroFourEightQuality.FULL;
+
+	/**
+	 * What the configured number of frames is divided by, or 0 for no frames
+	 */
+	private final int frameDivisor;
+	/**
+	 * Whether merged tiles disappear right away
+	 */
+	private final boolean instantMerges;
+
+	/**
+	 * Creates a quality
+	 *
+	 * @param frameDivisor  what the configured number of frames is divided by, or 0
+	 *                      for no frames
+	 * @param instantMerges whether merged tiles disappear right away
+	 */
+	private TwoZeroFourEightQuality(int frameDivisor, boolean instantMerges) {
+		this.frameDivisor = frameDivisor;
+		this.instantMerges = instantMerges;
+	}
+
+	/**
+	 * Sets when the quality changes
+	 *
+	 * @param adaptive     whether the quality changes at all
+	 * @param reduceBelow  the ticks per second below which the quality is reduced
+	 * @param minimalBelow the ticks per second below which the quality is minimal
+	 * @param distance     how close a player has to be to a board to see its
+	 *                     animations, or 0 to not take viewers into account
+	 */
+	static void configure(boolean adaptive, double reduceBelow, double minimalBelow, double distance) {
+		TwoZeroFourEightQuality.adaptive = adaptive;
+		TwoZeroFourEightQuality.reduceBelowTps = reduceBelow;
+		TwoZeroFourEightQuality.minimalBelowTps = Math.min(minimalBelow, reduceBelow);
+		TwoZeroFourEightQuality.viewDistance = Math.max(0.0, distance);
+		if (!adaptive) {
+			TwoZeroFourEightQuality.current = TwoZeroFourEightQuality.FULL;
+		}
+	}
+
+	/**
+	 * Gets how close a player has to be to a board to see its animations
+	 *
+	 * @return the distance in blocks, or 0 if viewers are not taken into account
+	 */
+	static double getViewDistance() {
+		return TwoZeroFourEightQuality.adaptive ? TwoZeroFourEightQuality.viewDistance : 0.0;
+	}
+
+	/**
+	 * Gets the quality of the server
+	 *
+	 * @return the current quality
+	 */
+	static TwoZeroFourEightQuality getCurrent() {
+		return TwoZeroFourEightQuality.current;
+	}
+
+	/**
+	 * Updates the quality of the server from the measured ticks per second
+	 *
+	 * @param tps the average ticks per second
+	 */
+	static void update(double tps) {
+		if (!TwoZeroFourEightQuality.adaptive) {
+			return;
+		}
+
+		TwoZeroFourEightQuality quality = TwoZeroFourEightQuality.current;
+		double reduce = TwoZeroFourEightQuality.reduceBelowTps, minimal = TwoZeroFourEightQuality.minimalBelowTps;
+		if (tps < minimal) {
+			quality = TwoZeroFourEightQuality.MINIMAL;
+		} else if (tps < reduce) {
+			if (quality == TwoZeroFourEightQuality.FULL
+					|| tps >= minimal + TwoZeroFourEightQuality.RECOVERY_TPS) {
+				quality = TwoZeroFourEightQuality.REDUCED;
+			}
+		} else if (tps >= reduce + TwoZeroFourEightQuality.RECOVERY_TPS) {
+			quality = TwoZeroFourEightQuality.FULL;
+		} else if (quality == TwoZeroFourEightQuality.MINIMAL) {
+			quality = TwoZeroFourEightQuality.REDUCED;
+		}
+		TwoZeroFourEightQuality.current = quality;
+	}
+
+	/**
+	 * Gets the number of ticks that a move takes at this quality
+	 *
+	 * @param frames the configured number of ticks
+	 * @return the number of ticks, which is at least 1 unless it is 0 for this
+	 *         quality or in the configuration
+	 */
+	public int getFrames(int frames) {
+		if (this.frameDivisor == 0 || frames <= 0) {
+			return 0;
+		}
+		return Math.max(1, frames / this.frameDivisor);
+	}
+
+	/**
+	 * Checks whether merged tiles disappear right away, instead of sliding under
+	 * the tile they merged into
+	 *
+	 * @return whether merges are instant
+	 */
+	public boolean hasInstantMerges() {
+		return this.instantMerges;
+	}
+}
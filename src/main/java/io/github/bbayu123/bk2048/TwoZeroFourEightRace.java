@@ -0,0 +1,389 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.scoreboard.DisplaySlot;
+import org.bukkit.scoreboard.Objective;
+import org.bukkit.scoreboard.Scoreboard;
+
+/**
+ * This is a race between several players playing 2048
+ * <p>
+ * Every participant gets a board that uses the same
+ * {@link TwoZeroFourEightSpawnSequence}, so that they all get the same tiles for
+ * the same moves. The sequence is generated once when the race is created, and
+ * shared by all boards.
+ * <p>
+ * Boards report their progress at the end of each move into atomic arrays,
+ * which are read back once per tick to update the sidebar. Nothing in here
+ * takes a lock.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightRace implements Runnable {
+	/**
+	 * All races that are currently running, by their unique id
+	 */
+	private static final Map<UUID, TwoZeroFourEightRace> RACES = new ConcurrentHashMap<>();
+
+	/**
+	 * The unique id of the race
+	 */
+	private final UUID id = UUID.randomUUID();
+
+	/**
+	 * What the participants are racing for
+	 */
+	private final Goal goal;
+
+	/**
+	 * How many ticks the race lasts at most
+	 */
+	private final long durationTicks;
+
+	/**
+	 * The unique ids of the participants
+	 */
+	private final UUID[] players;
+	/**
+	 * The names of the participants, as shown on the sidebar
+	 */
+	private final String[] names;
+
+	/**
+	 * The rules of all participating boards, which are the rules of new games when
+	 * the race was created. The winning tile is the tile that has to be reached.
+	 */
+	private final TwoZeroFourEightRules rules;
+
+	/**
+	 * The spawn sequence shared by all participating boards
+	 */
+	private final TwoZeroFourEightSpawnSequence spawns;
+
+	/**
+	 * The best score of each participant
+	 */
+	private final AtomicIntegerArray scores;
+	/**
+	 * The tick at which each participant reached the target tile, or 0 if they have
+	 * not reached it yet
+	 */
+	private final AtomicLongArray finishTicks;
+	/**
+	 * The number of participants that have reached the target tile
+	 */
+	private final AtomicInteger finishers = new AtomicInteger();
+
+	/**
+	 * The scores that are currently shown on the sidebar
+	 */
+	private final int[] published;
+
+	/**
+	 * The number of ticks since the race started
+	 */
+	private volatile long tick = 0;
+
+	/**
+	 * The scoreboard that shows the standings
+	 */
+	private Scoreboard scoreboard = null;
+	/**
+	 * The sidebar objective of the scoreboard
+	 */
+	private Objective objective = null;
+	/**
+	 * The task that updates the standings every tick
+	 */
+	private BukkitTask task = null;
+
+	/**
+	 * Creates a race
+	 *
+	 * @param goal          what the participants are racing for
+	 * @param durationTicks how many ticks the race lasts at most
+	 * @param participants  the participants
+	 */
+	public TwoZeroFourEightRace(Goal goal, long durationTicks, List<Player> participants) {
+		this.goal = goal;
+		this.durationTicks = durationTicks;
+		this.players = new UUID[participants.size()];
+		this.names = new String[participants.size()];
+		for (int i = 0; i < this.players.length; i++) {
+			this.players[i] = participants.get(i).getUniqueId();
+			this.names[i] = participants.get(i).getName();
+		}
+
+		TwoZeroFourEightSettings settings = TwoZeroFourEightSettings.get();
+		this.rules = settings.getRules();
+		this.spawns = TwoZeroFourEightSpawnSequence.generate(new Random().nextLong(),
+				TwoZeroFourEightSpawnSequence.DEFAULT_LENGTH, settings.getFourProbability());
+		this.scores = new AtomicIntegerArray(this.players.length);
+		this.finishTicks = new AtomicLongArray(this.players.length);
+		this.published = new int[this.players.length];
+		Arrays.fill(this.published, -1);
+	}
+
+	/**
+	 * Gets a running race
+	 *
+	 * @param id the unique id of the race
+	 * @return the race, or {@code null} if the id is {@code null} or the race has
+	 *         ended
+	 */
+	public static TwoZeroFourEightRace get(UUID id) {
+		return id == null ? null : TwoZeroFourEightRace.RACES.get(id);
+	}
+
+	/**
+	 * Ends all running races, which happens when the plugin is disabled
+	 *
+	 * @see #end()
+	 */
+	public static void endAll() {
+		for (TwoZeroFourEightRace race : TwoZeroFourEightRace.RACES.values()) {
+			race.end();
+		}
+	}
+
+	/**
+	 * Starts the race, showing the sidebar to all participants
+	 *
+	 * @param plugin the plugin that runs the race
+	 */
+	public void start(Plugin plugin) {
+		TwoZeroFourEightRace.RACES.put(this.id, this);
+
+		this.scoreboard = Bukkit.getScoreboardManager().getNewScoreboard();
+		this.objective = this.scoreboard.registerNewObjective("bk2048race", "dummy",
+				ChatColor.GOLD + "2048 Race - " + (this.goal == Goal.SCORE ? "Score" : "Reach " + this.rules.getWinTile()));
+		this.objective.setDisplaySlot(DisplaySlot.SIDEBAR);
+
+		for (UUID uuid : this.players) {
+			Player player = Bukkit.getPlayer(uuid);
+			if (player != null) {
+				player.setScoreboard(this.scoreboard);
+			}
+		}
+		this.task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1L, 1L);
+	}
+
+	/**
+	 * Gets the unique id of the race
+	 *
+	 * @return the unique id
+	 */
+	public UUID getId() {
+		return this.id;
+	}
+
+	/**
+	 * Gets the spawn sequence that all participating boards use
+	 *
+	 * @return the spawn sequence
+	 */
+	public TwoZeroFourEightSpawnSequence getSpawns() {
+		return this.spawns;
+	}
+
+	/**
+	 * Gets the rules that all participating boards use, including the tile that
+	 * has to be reached
+	 *
+	 * @return the rules
+	 */
+	public TwoZeroFourEightRules getRules() {
+		return this.rules;
+	}
+
+	/**
+	 * Gets the slot of a participant, which is used to report progress
+	 *
+	 * @param player the unique id of the player
+	 * @return the slot, or -1 if the player is not participating
+	 */
+	public int getSlot(UUID player) {
+		for (int i = 0; i < this.players.length; i++) {
+			if (this.players[i].equals(player)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reports the score of a participant at the end of a move
+	 * <p>
+	 * Only the best score is kept, so starting a new game does not lose progress.
+	 *
+	 * @param slot  the slot of the participant
+	 * @param score the current score
+	 */
+	public void reportScore(int slot, int score) {
+		int best;
+		do {
+			best = this.scores.get(slot);
+		} while (score > best && !this.scores.compareAndSet(slot, best, score));
+	}
+
+	/**
+	 * Reports that a participant has reached the target tile
+	 * <p>
+	 * Only the first time counts.
+	 *
+	 * @param slot the slot of the participant
+	 */
+	public void reportFinish(int slot) {
+		long now = Math.max(1L, this.tick);
+		if (!this.finishTicks.compareAndSet(slot, 0L, now)) {
+			return;
+		}
+		int place = this.finishers.incrementAndGet();
+		this.broadcast(ChatColor.GREEN + this.names[slot] + " reached " + this.rules.getWinTile() + " in "
+				+ TwoZeroFourEightRace.formatTicks(now) + " (#" + place + ")");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Here we update the sidebar with any scores that have changed since the last
+	 * tick, and end the race when the time is up or everyone has finished.
+	 */
+	@Override
+	public void run() {
+		long now = ++this.tick;
+
+		for (int i = 0; i < this.players.length; i++) {
+			int score = this.scores.get(i);
+			if (score != this.published[i]) {
+				this.published[i] = score;
+				this.objective.getScore(this.names[i]).setScore(score);
+			}
+		}
+
+		if (now >= this.durationTicks
+				|| this.goal == Goal.TIME && this.finishers.get() == this.players.length) {
+			this.end();
+		}
+	}
+
+	/**
+	 * Ends the race, announcing the final standings and restoring the scoreboards
+	 * of the participants
+	 */
+	public void end() {
+		if (TwoZeroFourEightRace.RACES.remove(this.id) == null) {
+			return;
+		}
+		if (this.task != null) {
+			this.task.cancel();
+		}
+
+		Integer[] order = new Integer[this.players.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Comparator<Integer> byScore = Comparator.comparingInt(i -> -this.scores.get(i));
+		if (this.goal == Goal.TIME) {
+			// Finishers first, fastest first, then everyone else by score
+			Arrays.sort(order, Comparator.<Integer>comparingLong(i -> {
+				long finish = this.finishTicks.get(i);
+				return finish == 0L ? Long.MAX_VALUE : finish;
+			}).thenComparing(byScore));
+		} else {
+			Arrays.sort(order, byScore);
+		}
+
+		StringBuilder standings = new StringBuilder(ChatColor.GOLD + "2048 Race results:");
+		for (int place = 0; place < order.length; place++) {
+			int i = order[place];
+			standings.append('\n').append(ChatColor.YELLOW).append('#').append(place + 1).append(' ')
+					.append(this.names[i]).append(ChatColor.WHITE).append(" - ").append(this.scores.get(i));
+			long finish = this.finishTicks.get(i);
+			if (finish != 0L) {
+				standings.append(" (").append(TwoZeroFourEightRace.formatTicks(finish)).append(')');
+			}
+		}
+		this.broadcast(standings.toString());
+
+		for (UUID uuid : this.players) {
+			Player player = Bukkit.getPlayer(uuid);
+			if (player != null && player.getScoreboard() == this.scoreboard) {
+				player.setScoreboard(Bukkit.getScoreboardManager().getMainScoreboard());
+			}
+		}
+	}
+
+	/**
+	 * Sends a message to all participants that are online
+	 *
+	 * @param message the message
+	 */
+	private void broadcast(String message) {
+		for (UUID uuid : this.players) {
+			Player player = Bukkit.getPlayer(uuid);
+			if (player != null) {
+				player.sendMessage(message);
+			}
+		}
+	}
+
+	/**
+	 * Formats a number of ticks as minutes and seconds
+	 *
+	 * @param ticks the number of ticks
+	 * @return the formatted time
+	 */
+	private static String formatTicks(long ticks) {
+		long seconds = ticks / 20;
+		return String.format("%d:%02d", seconds / 60, seconds % 60);
+	}
+
+	/**
+	 * This represents what the participants of a race are racing for
+	 *
+	 * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+	 */
+	enum Goal {
+		/**
+		 * The highest score when the time is up wins
+		 */
+		SCORE,
+		/**
+		 * The first to reach the target tile wins
+		 */
+		TIME
+	}
+}
@@ -0,0 +1,638 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * These are the rules of a 2048 game, compiled into move tables
+ * <p>
+ * The rules decide which tiles merge, what a merged tile is worth, which tile
+ * wins the game, how large the board is, and how many obstacles are on the
+ * board. Obstacles are cells that never move and never merge, and split the
+ * rows and columns they are in into parts that move separately. A board that
+ * is smaller than 4x4 is played in the top left corner, and the cells around
+ * it are obstacles.
+ * <p>
+ * When the rules are compiled, the result of moving every possible row is
+ * worked out once, in the same way as {@link TwoZeroFourEightEngine} does for
+ * the standard rules. A move is then four table lookups, however unusual the
+ * rules are. Besides the moved row and the score, the tables hold where each
+ * tile of a row ends up, which is what the board needs to animate a move.
+ * <p>
+ * Ranks work as in {@link TwoZeroFourEightEngine}, except that what a rank is
+ * worth depends on the rules. With obstacles, {@link #OBSTACLE_RANK} is used for
+ * obstacles instead of for a tile. Compiled rules are never changed, so they
+ * can be shared between any number of boards and threads.
+ * <p>
+ * Since a rank has 4 bits, tiles cannot merge beyond rank 15, which is the
+ * 32768 tile of the standard rules, or beyond rank 14 when the board can hold
+ * obstacles. Tiles that could only merge beyond that do not merge, and
+ * {@link #isCapped(long)} tells the board to end the game instead.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightRules {
+	/**
+	 * The rank of an obstacle, when the rules have obstacles
+	 */
+	static final int OBSTACLE_RANK = TwoZeroFourEightEngine.MAX_RANK;
+	/**
+	 * The value of an obstacle tile on the board
+	 */
+	static final int OBSTACLE = -1;
+
+	/**
+	 * The number of rules that have been compiled, which gives each its id
+	 */
+	private static final AtomicInteger COMPILED = new AtomicInteger();
+
+	/**
+	 * The standard rules of 2048
+	 */
+	static final TwoZeroFourEightRules STANDARD = new TwoZeroFourEightRules(Merge.STANDARD, 2048, 0, 4, 4);
+
+	/**
+	 * The rules that were compiled last, which are reused if the same rules are
+	 * asked for again
+	 */
+	private static volatile TwoZeroFourEightRules last = TwoZeroFourEightRules.STANDARD;
+
+	/**
+	 * The id of the rules, which is different for each time rules are compiled
+	 */
+	private final int id = TwoZeroFourEightRules.COMPILED.getAndIncrement();
+	/**
+	 * How tiles merge
+	 */
+	private final Merge merge;
+	/**
+	 * The tile that wins the game
+	 */
+	private final int winTile;
+	/**
+	 * The number of obstacles on a new board
+	 */
+	private final int obstacles;
+	/**
+	 * The number of rows of the board
+	 */
+	private final int rows;
+	/**
+	 * The number of columns of the board
+	 */
+	private final int cols;
+	/**
+	 * Whether the board can hold obstacles, either placed on a new board or around
+	 * a small board
+	 */
+	private final boolean blocked;
+	/**
+	 * The highest rank that a tile can have
+	 */
+	private final int maxRank;
+	/**
+	 * The value of each rank
+	 */
+	private final int[] values = new int[TwoZeroFourEightEngine.MAX_RANK + 1];
+
+	/**
+	 * The result of moving each row to the left
+	 */
+	private final char[] rowLeft = new char[1 << 16];
+	/**
+	 * The result of moving each row to the right
+	 */
+	private final char[] rowRight = new char[1 << 16];
+	/**
+	 * The score gained by moving each row, which is the same in both directions
+	 */
+	private final int[] rowScore = new int[1 << 16];
+	/**
+	 * Where each cell of each row ends up when it is moved to the left, 2 bits per
+	 * cell
+	 */
+	private final char[] targetsLeft = new char[1 << 16];
+	/**
+	 * Where each cell of each row ends up when it is moved to the right, 2 bits per
+	 * cell
+	 */
+	private final char[] targetsRight = new char[1 << 16];
+	/**
+	 * Whether each row has tiles that could only merge beyond the highest rank,
+	 * when it is moved in either direction
+	 */
+	private final boolean[] capped = new boolean[1 << 16];
+
+	/**
+	 * Compiles rules
+	 *
+	 * @param merge     how tiles merge
+	 * @param winTile   the tile that wins the game
+	 * @param obstacles the number of obstacles on a new board
+	 * @param rows      the number of rows of the board, from 2 to 4
+	 * @param cols      the number of columns of the board, from 2 to 4
+	 */
+	private TwoZeroFourEightRules(Merge merge, int winTile, int obstacles, int rows, int cols) {
+		this.merge = merge;
+		this.winTile = winTile;
+		this.obstacles = obstacles;
+		this.rows = rows;
+		this.cols = cols;
+		this.blocked = obstacles > 0 || rows < 4 || cols < 4;
+		this.maxRank = this.blocked ? TwoZeroFourEightRules.OBSTACLE_RANK - 1 : TwoZeroFourEightEngine.MAX_RANK;
+		for (int rank = 1; rank <= this.maxRank; rank++) {
+			this.values[rank] = merge.getValue(rank);
+		}
+		if (this.blocked) {
+			this.values[TwoZeroFourEightRules.OBSTACLE_RANK] = TwoZeroFourEightRules.OBSTACLE;
+		}
+
+		int[] cells = new int[4], moved = new int[4], targets = new int[4], sources = new int[4];
+		boolean[] refused = new boolean[1];
+		for (int row = 0; row < 1 << 16; row++) {
+			for (int col = 0; col < 4; col++) {
+				cells[col] = row >>> (col << 2) & 0xF;
+				moved[col] = 0;
+				targets[col] = col;
+			}
+			refused[0] = false;
+			int score = this.slide(cells, moved, targets, sources, refused);
+
+			int left = 0, targetBits = 0, reversedTargetBits = 0;
+			for (int col = 0; col < 4; col++) {
+				left |= moved[col] << (col << 2);
+				targetBits |= targets[col] << (col << 1);
+				reversedTargetBits |= 3 - targets[col] << (3 - col << 1);
+			}
+			int reversed = TwoZeroFourEightRules.reverseRow(row);
+			this.rowLeft[row] = (char) left;
+			this.rowRight[reversed] = (char) TwoZeroFourEightRules.reverseRow(left);
+			this.rowScore[row] = score;
+			this.targetsLeft[row] = (char) targetBits;
+			this.targetsRight[reversed] = (char) reversedTargetBits;
+			if (refused[0]) {
+				this.capped[row] = true;
+				this.capped[reversed] = true;
+			}
+		}
+	}
+
+	/**
+	 * Gets compiled rules, compiling them only if they differ from the ones that
+	 * were asked for last
+	 *
+	 * @param merge     how tiles merge
+	 * @param winTile   the tile that wins the game
+	 * @param obstacles the number of obstacles on a new board
+	 * @param rows      the number of rows of the board, from 2 to 4
+	 * @param cols      the number of columns of the board, from 2 to 4
+	 * @return the compiled rules
+	 */
+	static TwoZeroFourEightRules compile(Merge merge, int winTile, int obstacles, int rows, int cols) {
+		for (TwoZeroFourEightRules rules : new TwoZeroFourEightRules[] { TwoZeroFourEightRules.STANDARD,
+				TwoZeroFourEightRules.last }) {
+			if (rules.merge == merge && rules.winTile == winTile && rules.obstacles == obstacles
+					&& rules.rows == rows && rules.cols == cols) {
+				return rules;
+			}
+		}
+		TwoZeroFourEightRules rules = new TwoZeroFourEightRules(merge, winTile, obstacles, rows, cols);
+		TwoZeroFourEightRules.last = rules;
+		return rules;
+	}
+
+	/**
+	 * Slides a row towards column 0, merging tiles as the rules allow
+	 * <p>
+	 * Obstacles stay where they are, and the tiles after an obstacle slide
+	 * towards it instead of towards column 0. A tile merges at most once per
+	 * move.
+	 *
+	 * @param cells   the ranks of the row
+	 * @param moved   filled with the ranks after the move
+	 * @param targets filled with the column that each cell ends up in
+	 * @param sources scratch space for the column that each result came from
+	 * @param refused set to true if tiles could only merge beyond the highest rank
+	 * @return the score gained by the move
+	 */
+	private int slide(int[] cells, int[] moved, int[] targets, int[] sources, boolean[] refused) {
+		int group = this.merge.getGroupSize();
+		int score = 0, target = 0, run = 0;
+		for (int col = 0; col < 4; col++) {
+			int rank = cells[col];
+			if (rank == 0) {
+				continue;
+			}
+			if (this.blocked && rank == TwoZeroFourEightRules.OBSTACLE_RANK) {
+				moved[col] = rank;
+				target = col + 1;
+				run = 0;
+				continue;
+			}
+
+			// The last tiles that have not merged yet join this one if they can
+			if (run == group - 1) {
+				int first = target - run, merged = this.merge.combine(moved[target - 1], rank);
+				for (int i = first; i < target - 1 && merged != 0; i++) {
+					if (moved[i] != rank) {
+						merged = 0;
+					}
+				}
+				if (merged > this.maxRank) {
+					refused[0] = true;
+				} else if (merged != 0) {
+					for (int i = first + 1; i < target; i++) {
+						targets[sources[i]] = first;
+						moved[i] = 0;
+					}
+					moved[first] = merged;
+					targets[col] = first;
+					score += this.values[merged];
+					target = first + 1;
+					run = 0;
+					continue;
+				}
+			}
+
+			// Count the tiles at the end that have not merged and can still join up
+			run = run > 0 && moved[target - 1] == rank ? Math.min(run + 1, group - 1) : 1;
+			moved[target] = rank;
+			sources[target] = col;
+			targets[col] = target++;
+		}
+		return score;
+	}
+
+	/**
+	 * Moves all tiles on a board
+	 *
+	 * @param board     the packed board
+	 * @param direction the direction of the move
+	 * @return the packed board after the move, which is the same board if nothing
+	 *         moved
+	 * @see TwoZeroFourEightEngine#move(long, int)
+	 */
+	long move(long board, int direction) {
+		boolean vertical = direction == TwoZeroFourEightEngine.UP || direction == TwoZeroFourEightEngine.DOWN;
+		char[] table = direction == TwoZeroFourEightEngine.UP || direction == TwoZeroFourEightEngine.LEFT
+				? this.rowLeft
+				: this.rowRight;
+		long rows = vertical ? TwoZeroFourEightEngine.transpose(board) : board;
+		long result = 0L;
+		for (int shift = 0; shift < 64; shift += 16) {
+			result |= (long) table[(int) (rows >>> shift) & 0xFFFF] << shift;
+		}
+		return vertical ? TwoZeroFourEightEngine.transpose(result) : result;
+	}
+
+	/**
+	 * Gets the score gained by a move
+	 *
+	 * @param board     the packed board
+	 * @param direction the direction of the move
+	 * @return the sum of the values of all merged tiles
+	 */
+	int score(long board, int direction) {
+		long rows = direction == TwoZeroFourEightEngine.UP || direction == TwoZeroFourEightEngine.DOWN
+				? TwoZeroFourEightEngine.transpose(board)
+				: board;
+		int score = 0;
+		for (int shift = 0; shift < 64; shift += 16) {
+			score += this.rowScore[(int) (rows >>> shift) & 0xFFFF];
+		}
+		return score;
+	}
+
+	/**
+	 * Gets where each cell of a board ends up after a move
+	 * <p>
+	 * Tiles that merge end up in the same cell. Empty cells and obstacles end up
+	 * where they are.
+	 *
+	 * @param board     the packed board
+	 * @param direction the direction of the move
+	 * @return the index of the cell that each cell ends up in, packed like a board
+	 */
+	long getDestinations(long board, int direction) {
+		boolean vertical = direction == TwoZeroFourEightEngine.UP || direction == TwoZeroFourEightEngine.DOWN;
+		char[] table = direction == TwoZeroFourEightEngine.UP || direction == TwoZeroFourEightEngine.LEFT
+				? this.targetsLeft
+				: this.targetsRight;
+		long rows = vertical ? TwoZeroFourEightEngine.transpose(board) : board;
+		long destinations = 0L;
+		for (int line = 0; line < 4; line++) {
+			int targets = table[(int) (rows >>> (line << 4)) & 0xFFFF];
+			for (int cell = 0; cell < 4; cell++) {
+				int target = targets >>> (cell << 1) & 3;
+				// Along a column, the line is the column and the cell is the row
+				int index = vertical ? cell * 4 + line : line * 4 + cell;
+				destinations |= (long) (vertical ? target * 4 + line : line * 4 + target) << (index << 2);
+			}
+		}
+		return destinations;
+	}
+
+	/**
+	 * Checks whether any move is possible on a board
+	 *
+	 * @param board the packed board
+	 * @return whether at least one move changes the board
+	 */
+	boolean canMove(long board) {
+		for (int direction = 0; direction < 4; direction++) {
+			if (this.move(board, direction) != board) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether any tiles on a board could only merge beyond the highest rank
+	 * that a packed board can hold, which ends the game
+	 *
+	 * @param board the packed board
+	 * @return whether a row or column has such tiles
+	 */
+	boolean isCapped(long board) {
+		long columns = TwoZeroFourEightEngine.transpose(board);
+		for (int shift = 0; shift < 64; shift += 16) {
+			if (this.capped[(int) (board >>> shift) & 0xFFFF] || this.capped[(int) (columns >>> shift) & 0xFFFF]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the tile value of a rank
+	 *
+	 * @param rank the rank
+	 * @return the value of the tile, {@link #OBSTACLE} for an obstacle, or 0 for an
+	 *         empty cell
+	 */
+	int toValue(int rank) {
+		return this.values[rank];
+	}
+
+	/**
+	 * Gets the rank of a tile value
+	 *
+	 * @param value the value of the tile, {@link #OBSTACLE} for an obstacle, or 0
+	 *              for an empty cell
+	 * @return the rank, or -1 if no tile has that value under these rules
+	 */
+	int toRank(int value) {
+		for (int rank = 0; rank < this.values.length; rank++) {
+			if (this.values[rank] == value) {
+				return rank;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the id of the rules, which tells apart rules that were compiled
+	 * separately
+	 *
+	 * @return the id
+	 */
+	int getId() {
+		return this.id;
+	}
+
+	/**
+	 * Gets how tiles merge
+	 *
+	 * @return the merge rule
+	 */
+	Merge getMerge() {
+		return this.merge;
+	}
+
+	/**
+	 * Gets the tile that wins the game
+	 *
+	 * @return the value of the tile
+	 */
+	int getWinTile() {
+		return this.winTile;
+	}
+
+	/**
+	 * Gets the number of obstacles on a new board
+	 *
+	 * @return the number of obstacles
+	 */
+	int getObstacles() {
+		return this.obstacles;
+	}
+
+	/**
+	 * Gets the number of rows of the board
+	 *
+	 * @return the number of rows
+	 */
+	int getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * Gets the number of columns of the board
+	 *
+	 * @return the number of columns
+	 */
+	int getCols() {
+		return this.cols;
+	}
+
+	/**
+	 * Checks whether a cell is part of the board, or one of the obstacles around a
+	 * small board
+	 *
+	 * @param index the index of the cell
+	 * @return whether tiles can be on the cell
+	 */
+	boolean isPlayable(int index) {
+		return index / 4 < this.rows && index % 4 < this.cols;
+	}
+
+	/**
+	 * Gets the empty board, which only has the obstacles around a small board
+	 *
+	 * @return the packed board
+	 */
+	long getLayout() {
+		long board = 0L;
+		for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+			if (!this.isPlayable(index)) {
+				board = TwoZeroFourEightEngine.setCell(board, index, TwoZeroFourEightRules.OBSTACLE_RANK);
+			}
+		}
+		return board;
+	}
+
+	/**
+	 * Reverses the order of the cells in a row
+	 *
+	 * @param row the packed row
+	 * @return the reversed row
+	 */
+	private static int reverseRow(int row) {
+		return (row & 0xF) << 12 | (row & 0xF0) << 4 | row >>> 4 & 0xF0 | row >>> 12 & 0xF;
+	}
+
+	/**
+	 * This is how tiles merge
+	 *
+	 * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+	 */
+	enum Merge {
+		/**
+		 * Two equal tiles merge into their sum, and tiles are powers of two
+		 */
+		STANDARD(2, 2048) {
+			@Override
+			int getValue(int rank) {
+				return 1 << rank;
+			}
+
+			@Override
+			int combine(int first, int second) {
+				return first == second ? first + 1 : 0;
+			}
+		},
+		/**
+		 * Three equal tiles in a line merge into their sum, and tiles are powers of
+		 * three
+		 */
+		THREES(3, 2187) {
+			@Override
+			int getValue(int rank) {
+				int value = 1;
+				for (int i = 0; i < rank; i++) {
+					value *= 3;
+				}
+				return value;
+			}
+
+			@Override
+			int combine(int first, int second) {
+				return first == second ? first + 1 : 0;
+			}
+		},
+		/**
+		 * Two neighbouring Fibonacci numbers, or two ones, merge into their sum, and
+		 * tiles are Fibonacci numbers
+		 */
+		FIBONACCI(2, 610) {
+			@Override
+			int getValue(int rank) {
+				int previous = 1, value = 1;
+				for (int i = 0; i < rank; i++) {
+					int next = previous + value;
+					previous = value;
+					value = next;
+				}
+				return previous;
+			}
+
+			@Override
+			int combine(int first, int second) {
+				return first == 1 && second == 1 || Math.abs(first - second) == 1 ? Math.max(first, second) + 1
+						: 0;
+			}
+		};
+
+		/**
+		 * The number of tiles that merge at once
+		 */
+		private final int groupSize;
+		/**
+		 * The tile that wins the game unless another one is configured
+		 */
+		private final int defaultWinTile;
+
+		/**
+		 * Creates a merge rule
+		 *
+		 * @param groupSize      the number of tiles that merge at once
+		 * @param defaultWinTile the tile that wins the game by default
+		 */
+		Merge(int groupSize, int defaultWinTile) {
+			this.groupSize = groupSize;
+			this.defaultWinTile = defaultWinTile;
+		}
+
+		/**
+		 * Gets the value of a rank
+		 *
+		 * @param rank the rank, at least 1
+		 * @return the value of the tile
+		 */
+		abstract int getValue(int rank);
+
+		/**
+		 * Gets the rank of the tile that two tiles merge into, if they are next to
+		 * each other. When three tiles merge at once, this is also true for the
+		 * first two.
+		 *
+		 * @param first  the rank of the tile closer to the wall
+		 * @param second the rank of the other tile
+		 * @return the rank of the merged tile, or 0 if they do not merge
+		 */
+		abstract int combine(int first, int second);
+
+		/**
+		 * Gets the number of tiles that merge at once
+		 *
+		 * @return 2 or 3
+		 */
+		int getGroupSize() {
+			return this.groupSize;
+		}
+
+		/**
+		 * Gets the tile that wins the game unless another one is configured
+		 *
+		 * @return the value of the tile
+		 */
+		int getDefaultWinTile() {
+			return this.defaultWinTile;
+		}
+
+		/**
+		 * Gets a merge rule by its name in the configuration, such as
+		 * {@code fibonacci}
+		 *
+		 * @param name the name of the merge rule
+		 * @return the merge rule, or {@code null} if there is none with that name
+		 */
+		static Merge fromName(String name) {
+			String key = name.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+			for (Merge merge : Merge.values()) {
+				if (merge.name().equals(key)) {
+					return merge;
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,416 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This is the AI that gives hints and plays games on its own
+ * <p>
+ * It looks a few moves ahead with an expectimax search on packed boards. At
+ * each move, it picks the direction with the best expected outcome, averaging
+ * over every tile that could spawn afterwards. The positions at the bottom of
+ * the search are scored by a {@link TwoZeroFourEightEvaluator}, which is the
+ * built-in heuristic unless a trained network has been configured.
+ * <p>
+ * On a small board that a {@link TwoZeroFourEightTablebase} covers, the best
+ * move is looked up instead, and there is no search at all.
+ * <p>
+ * Moves follow the {@link TwoZeroFourEightRules} of the game that is searched.
+ * The evaluators only look at ranks, so they work under any rules, although
+ * they play best under the standard rules that they were made for.
+ * <p>
+ * The expected values of positions that have been searched are kept in a
+ * {@link TwoZeroFourEightTranspositionCache} that all requests share, so when
+ * many players ask about the same positions, most of the work is done only
+ * once. The value that is cached for a position can differ slightly from a
+ * fresh search, because very unlikely spawns below it are cut off depending on
+ * how it was reached.
+ * <p>
+ * After every move, the position that the player will be in is prefetched on a
+ * background thread, so that by the time a hint is asked for or the AI player
+ * makes its next move, the answer is usually in the cache already.
+ * <p>
+ * Hints that players ask for are counted while they are being searched, so
+ * that background work such as a {@link TwoZeroFourEightAnalysis} can wait for
+ * them to finish first.
+ * <p>
+ * The search has no state of its own apart from the cache, so it can run on any
+ * thread.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightSearch {
+	/**
+	 * Spawns that are less likely than this are not searched any deeper
+	 */
+	private static final float MIN_PROBABILITY = 0.0001f;
+	/**
+	 * The most positions that can wait to be prefetched, after which the oldest
+	 * are dropped
+	 */
+	private static final int PREFETCH_QUEUE = 64;
+
+	/**
+	 * The thread that prefetches positions, which runs at a low priority so that
+	 * it only uses time that nothing else needs
+	 */
+	private static final ThreadPoolExecutor PREFETCHER = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(TwoZeroFourEightSearch.PREFETCH_QUEUE), runnable -> {
+				Thread thread = new Thread(runnable, "BK2048 Prefetch");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}, new ThreadPoolExecutor.DiscardOldestPolicy());
+
+	/**
+	 * The evaluator that scores positions
+	 */
+	private static volatile TwoZeroFourEightEvaluator evaluator = TwoZeroFourEightHeuristic.INSTANCE;
+	/**
+	 * How many moves ahead the search looks
+	 */
+	private static volatile int depth = 2;
+	/**
+	 * The tablebases that are looked up instead of searching
+	 */
+	private static volatile TwoZeroFourEightTablebase[] tablebases = new TwoZeroFourEightTablebase[0];
+	/**
+	 * The cache that all searches with the configured evaluator share, or
+	 * {@code null} if there is none
+	 */
+	private static volatile TwoZeroFourEightTranspositionCache cache = null;
+	/**
+	 * The number of hints that are being searched right now
+	 */
+	private static final AtomicInteger INTERACTIVE = new AtomicInteger();
+
+	private TwoZeroFourEightSearch() {
+	}
+
+	/**
+	 * Sets the evaluator that scores positions
+	 *
+	 * @param evaluator the evaluator
+	 */
+	static void setEvaluator(TwoZeroFourEightEvaluator evaluator) {
+		TwoZeroFourEightSearch.evaluator = evaluator;
+	}
+
+	/**
+	 * Sets how many moves ahead the search looks
+	 *
+	 * @param depth the number of moves, at least 1
+	 */
+	static void setDepth(int depth) {
+		TwoZeroFourEightSearch.depth = Math.max(1, depth);
+	}
+
+	/**
+	 * Sets how much memory the shared cache may use, and empties it
+	 * <p>
+	 * The cache is only replaced when its size changes. Either way, it starts out
+	 * empty, since a new evaluator or spawn chance changes the values it would
+	 * hold.
+	 *
+	 * @param megabytes the most memory that the cache may use, or 0 to not cache
+	 *                  at all
+	 */
+	static void configureCache(int megabytes) {
+		TwoZeroFourEightTranspositionCache current = TwoZeroFourEightSearch.cache;
+		if (megabytes <= 0) {
+			TwoZeroFourEightSearch.cache = null;
+		} else if (current == null
+				|| current.getCapacity() != TwoZeroFourEightTranspositionCache.getCapacity(megabytes)) {
+			TwoZeroFourEightSearch.cache = new TwoZeroFourEightTranspositionCache(megabytes);
+		} else {
+			current.clear();
+		}
+	}
+
+	/**
+	 * Gets the cache that all searches share
+	 *
+	 * @return the cache, or {@code null} if there is none
+	 */
+	static TwoZeroFourEightTranspositionCache getCache() {
+		return TwoZeroFourEightSearch.cache;
+	}
+
+	/**
+	 * Sets the tablebases that are looked up instead of searching
+	 *
+	 * @param tablebases the tablebases
+	 */
+	static void setTablebases(List<TwoZeroFourEightTablebase> tablebases) {
+		TwoZeroFourEightSearch.tablebases = tablebases.toArray(new TwoZeroFourEightTablebase[0]);
+	}
+
+	/**
+	 * Finds the best move with the configured depth and evaluator, or in a
+	 * tablebase if one covers the board
+	 *
+	 * @param rules the rules of the game
+	 * @param board the packed board
+	 * @return the direction of the best move, or -1 if no move is possible
+	 * @see TwoZeroFourEightEngine
+	 */
+	static int bestMove(TwoZeroFourEightRules rules, long board) {
+		long position = TwoZeroFourEightSearch.lookup(rules, board);
+		if (position != -1L) {
+			return TwoZeroFourEightTablebase.getMove(position);
+		}
+		return TwoZeroFourEightSearch.bestMove(rules, board, TwoZeroFourEightSearch.depth,
+				TwoZeroFourEightSearch.evaluator, TwoZeroFourEightSearch.cache);
+	}
+
+	/**
+	 * Finds the best move for a hint that a player asked for
+	 * <p>
+	 * This is the same as {@link #bestMove(TwoZeroFourEightRules, long)}, except
+	 * that background work waits while the hint is being searched.
+	 *
+	 * @param rules the rules of the game
+	 * @param board the packed board
+	 * @return the direction of the best move, or -1 if no move is possible
+	 * @see TwoZeroFourEightEngine
+	 */
+	static int hint(TwoZeroFourEightRules rules, long board) {
+		TwoZeroFourEightSearch.INTERACTIVE.incrementAndGet();
+		try {
+			return TwoZeroFourEightSearch.bestMove(rules, board);
+		} finally {
+			TwoZeroFourEightSearch.INTERACTIVE.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Waits until no hint is being searched, so that background work does not
+	 * hold it up
+	 *
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	static void awaitInteractive() throws InterruptedException {
+		while (TwoZeroFourEightSearch.INTERACTIVE.get() > 0) {
+			Thread.sleep(1L);
+		}
+	}
+
+	/**
+	 * Gets the value of every move in a position with the configured evaluator
+	 * <p>
+	 * The values are worked out the same way as when the best move is searched,
+	 * so the move with the highest value is the move that the AI would make.
+	 *
+	 * @param rules  the rules of the game
+	 * @param board  the packed board
+	 * @param depth  how many moves ahead to look
+	 * @param values receives the value of each direction, or {@link Float#NaN} for
+	 *               a move that is not possible
+	 * @see TwoZeroFourEightEngine
+	 */
+	static void evaluateMoves(TwoZeroFourEightRules rules, long board, int depth, float[] values) {
+		TwoZeroFourEightEvaluator evaluator = TwoZeroFourEightSearch.evaluator;
+		TwoZeroFourEightTranspositionCache cache = TwoZeroFourEightSearch.cache;
+		for (int direction = 0; direction < 4; direction++) {
+			long moved = rules.move(board, direction);
+			values[direction] = moved == board ? Float.NaN
+					: rules.score(board, direction)
+							+ TwoZeroFourEightSearch.chance(rules, moved, depth - 1, 1f, evaluator, cache);
+		}
+	}
+
+	/**
+	 * Searches a position in the background, so that the best move for it is
+	 * found in the cache later
+	 * <p>
+	 * This does nothing without a cache, or when the search only looks one move
+	 * ahead, since then there is nothing to keep. When positions come in faster
+	 * than they can be searched, the oldest ones are dropped, because those
+	 * players have most likely moved on already.
+	 *
+	 * @param rules the rules of the game
+	 * @param board the packed board
+	 */
+	static void prefetch(TwoZeroFourEightRules rules, long board) {
+		TwoZeroFourEightTranspositionCache cache = TwoZeroFourEightSearch.cache;
+		int depth = TwoZeroFourEightSearch.depth;
+		if (cache == null || depth < 2) {
+			return;
+		}
+		TwoZeroFourEightEvaluator evaluator = TwoZeroFourEightSearch.evaluator;
+		TwoZeroFourEightSearch.PREFETCHER.execute(() -> {
+			if (TwoZeroFourEightSearch.lookup(rules, board) == -1L) {
+				TwoZeroFourEightSearch.bestMove(rules, board, depth, evaluator, cache);
+			}
+		});
+	}
+
+	/**
+	 * Stops prefetching, dropping any positions that are still waiting
+	 */
+	static void stopPrefetching() {
+		TwoZeroFourEightSearch.PREFETCHER.shutdownNow();
+	}
+
+	/**
+	 * Gets the expected score of the rest of a game with perfect play, which is
+	 * only known for boards that a tablebase covers
+	 *
+	 * @param rules the rules of the game
+	 * @param board the packed board
+	 * @return the expected score, or {@link Float#NaN} if it is not known
+	 */
+	static float getExpectedScore(TwoZeroFourEightRules rules, long board) {
+		long position = TwoZeroFourEightSearch.lookup(rules, board);
+		return position == -1L ? Float.NaN : TwoZeroFourEightTablebase.getExpectedScore(position);
+	}
+
+	/**
+	 * Looks up a position in the tablebase that covers the rules of the game and
+	 * the current chance for a rank 2 tile
+	 *
+	 * @param rules the rules of the game
+	 * @param board the packed board
+	 * @return the stored position, or -1 if no tablebase has it
+	 */
+	private static long lookup(TwoZeroFourEightRules rules, long board) {
+		double four = TwoZeroFourEightSettings.get().getFourProbability();
+		for (TwoZeroFourEightTablebase tablebase : TwoZeroFourEightSearch.tablebases) {
+			if (tablebase.covers(rules, four)) {
+				return tablebase.find(board);
+			}
+		}
+		return -1L;
+	}
+
+	/**
+	 * Finds the best move
+	 *
+	 * @param rules     the rules of the game
+	 * @param board     the packed board
+	 * @param depth     how many moves ahead to look
+	 * @param evaluator the evaluator that scores positions
+	 * @return the direction of the best move, or -1 if no move is possible
+	 */
+	static int bestMove(TwoZeroFourEightRules rules, long board, int depth, TwoZeroFourEightEvaluator evaluator) {
+		return TwoZeroFourEightSearch.bestMove(rules, board, depth, evaluator, null);
+	}
+
+	/**
+	 * Finds the best move
+	 *
+	 * @param rules     the rules of the game
+	 * @param board     the packed board
+	 * @param depth     how many moves ahead to look
+	 * @param evaluator the evaluator that scores positions
+	 * @param cache     the cache of values that were worked out with the same
+	 *                  evaluator, or {@code null}
+	 * @return the direction of the best move, or -1 if no move is possible
+	 */
+	private static int bestMove(TwoZeroFourEightRules rules, long board, int depth,
+			TwoZeroFourEightEvaluator evaluator, TwoZeroFourEightTranspositionCache cache) {
+		int best = -1;
+		float bestValue = Float.NEGATIVE_INFINITY;
+		for (int direction = 0; direction < 4; direction++) {
+			long moved = rules.move(board, direction);
+			if (moved == board) {
+				continue;
+			}
+			float value = rules.score(board, direction)
+					+ TwoZeroFourEightSearch.chance(rules, moved, depth - 1, 1f, evaluator, cache);
+			if (value > bestValue) {
+				bestValue = value;
+				best = direction;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Gets the expected value of a position before a tile spawns
+	 *
+	 * @param rules       the rules of the game
+	 * @param board       the packed board
+	 * @param depth       how many more moves to look ahead
+	 * @param probability how likely it is to reach this position
+	 * @param evaluator   the evaluator that scores positions
+	 * @param cache       the cache of values that were worked out with the same
+	 *                    evaluator, or {@code null}
+	 * @return the expected value
+	 */
+	private static float chance(TwoZeroFourEightRules rules, long board, int depth, float probability,
+			TwoZeroFourEightEvaluator evaluator, TwoZeroFourEightTranspositionCache cache) {
+		int empty = TwoZeroFourEightEngine.countEmpty(board);
+		if (depth <= 0 || empty == 0 || probability < TwoZeroFourEightSearch.MIN_PROBABILITY) {
+			return evaluator.evaluate(board);
+		}
+		if (cache != null) {
+			float cached = cache.get(board, depth, rules);
+			if (!Float.isNaN(cached)) {
+				return cached;
+			}
+		}
+
+		float four = (float) TwoZeroFourEightSettings.get().getFourProbability(), two = 1f - four;
+		float sum = 0f;
+		for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+			if (TwoZeroFourEightEngine.getCell(board, index) != 0) {
+				continue;
+			}
+			sum += two * TwoZeroFourEightSearch.max(rules, TwoZeroFourEightEngine.setCell(board, index, 1), depth,
+					probability * two / empty, evaluator, cache);
+			sum += four * TwoZeroFourEightSearch.max(rules, TwoZeroFourEightEngine.setCell(board, index, 2), depth,
+					probability * four / empty, evaluator, cache);
+		}
+		float value = sum / empty;
+		if (cache != null) {
+			cache.put(board, depth, rules, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Gets the value of the best move in a position
+	 *
+	 * @param rules       the rules of the game
+	 * @param board       the packed board
+	 * @param depth       how many more moves to look ahead
+	 * @param probability how likely it is to reach this position
+	 * @param evaluator   the evaluator that scores positions
+	 * @param cache       the cache of values that were worked out with the same
+	 *                    evaluator, or {@code null}
+	 * @return the value of the best move, or 0 if the game is over
+	 */
+	private static float max(TwoZeroFourEightRules rules, long board, int depth, float probability,
+			TwoZeroFourEightEvaluator evaluator, TwoZeroFourEightTranspositionCache cache) {
+		float best = 0f;
+		for (int direction = 0; direction < 4; direction++) {
+			long moved = rules.move(board, direction);
+			if (moved != board) {
+				best = Math.max(best, rules.score(board, direction)
+						+ TwoZeroFourEightSearch.chance(rules, moved, depth - 1, probability, evaluator, cache));
+			}
+		}
+		return best;
+	}
+}
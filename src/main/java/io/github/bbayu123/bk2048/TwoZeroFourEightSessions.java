@@ -0,0 +1,168 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+
+import io.github.bbayu123.bk2048.Main.TwoZeroFourEight;
+
+/**
+ * This is the registry of all 2048 displays that are currently attached
+ * <p>
+ * Every display registers itself when it is attached, and is grouped by its
+ * owner. When a player goes over their limit of running games, or the server
+ * goes over the global limit, the least recently played game is hibernated. A
+ * hibernated game saves itself into its map item and closes its display, so it
+ * no longer ticks. It is restored when the map is viewed again.
+ * <p>
+ * Displays are registered and evicted on the main thread, but the registry can
+ * be read from any thread.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightSessions {
+	/**
+	 * All attached displays
+	 */
+	private static final Set<TwoZeroFourEight> ALL = ConcurrentHashMap.newKeySet();
+	/**
+	 * The attached displays of each owner
+	 */
+	private static final Map<UUID, Set<TwoZeroFourEight>> BY_OWNER = new ConcurrentHashMap<>();
+
+	/**
+	 * The number of running games that a player can have
+	 */
+	private static volatile int maxPerPlayer = 3;
+	/**
+	 * The number of running games that the server can have
+	 */
+	private static volatile int maxTotal = 200;
+
+	private TwoZeroFourEightSessions() {
+	}
+
+	/**
+	 * Sets the limits on running games
+	 *
+	 * @param perPlayer the number of running games that a player can have
+	 * @param total     the number of running games that the server can have
+	 */
+	static void setLimits(int perPlayer, int total) {
+		TwoZeroFourEightSessions.maxPerPlayer = Math.max(1, perPlayer);
+		TwoZeroFourEightSessions.maxTotal = Math.max(1, total);
+	}
+
+	/**
+	 * Registers a display that has just been attached, hibernating other games if
+	 * this goes over a limit
+	 *
+	 * @param game the display
+	 */
+	static void register(TwoZeroFourEight game) {
+		TwoZeroFourEightSessions.ALL.add(game);
+		UUID owner = game.getOwner();
+		if (owner != null) {
+			Set<TwoZeroFourEight> owned = TwoZeroFourEightSessions.BY_OWNER.computeIfAbsent(owner,
+					o -> ConcurrentHashMap.newKeySet());
+			owned.add(game);
+			while (owned.size() > TwoZeroFourEightSessions.maxPerPlayer
+					&& TwoZeroFourEightSessions.evict(owned, game)) {
+				// Keep evicting until the player is within the limit
+			}
+		}
+		while (TwoZeroFourEightSessions.ALL.size() > TwoZeroFourEightSessions.maxTotal
+				&& TwoZeroFourEightSessions.evict(TwoZeroFourEightSessions.ALL, game)) {
+			// Keep evicting until the server is within the limit
+		}
+	}
+
+	/**
+	 * Removes a display that has been detached
+	 *
+	 * @param game the display
+	 */
+	static void unregister(TwoZeroFourEight game) {
+		TwoZeroFourEightSessions.ALL.remove(game);
+		UUID owner = game.getOwner();
+		if (owner != null) {
+			TwoZeroFourEightSessions.BY_OWNER.computeIfPresent(owner, (o, owned) -> {
+				owned.remove(game);
+				return owned.isEmpty() ? null : owned;
+			});
+		}
+	}
+
+	/**
+	 * Gets the attached displays of a player
+	 *
+	 * @param owner the unique id of the player
+	 * @return a view of the displays, which is empty if the player has none
+	 */
+	static Set<TwoZeroFourEight> getGames(UUID owner) {
+		Set<TwoZeroFourEight> owned = TwoZeroFourEightSessions.BY_OWNER.get(owner);
+		return owned == null ? Collections.emptySet() : Collections.unmodifiableSet(owned);
+	}
+
+	/**
+	 * Gets the number of attached displays on the server
+	 *
+	 * @return the number of displays
+	 */
+	static int count() {
+		return TwoZeroFourEightSessions.ALL.size();
+	}
+
+	/**
+	 * Hibernates the least recently played display in a group
+	 *
+	 * @param games the group of displays
+	 * @param keep  the display that must not be hibernated, since it has just been
+	 *              attached
+	 * @return whether a display was hibernated
+	 */
+	private static boolean evict(Set<TwoZeroFourEight> games, TwoZeroFourEight keep) {
+		TwoZeroFourEight oldest = null;
+		for (TwoZeroFourEight game : games) {
+			if (game != keep && (oldest == null || game.getLastPlayed() < oldest.getLastPlayed())) {
+				oldest = game;
+			}
+		}
+		if (oldest == null) {
+			return false;
+		}
+
+		TwoZeroFourEightSessions.unregister(oldest);
+		oldest.hibernate();
+
+		Player player = oldest.getOwner() == null ? null : Bukkit.getPlayer(oldest.getOwner());
+		if (player != null) {
+			player.sendMessage(ChatColor.YELLOW
+					+ "Your least recently played 2048 game was put to sleep. Look at it again to continue.");
+		}
+		return true;
+	}
+}
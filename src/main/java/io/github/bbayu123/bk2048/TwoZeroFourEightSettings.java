@@ -0,0 +1,529 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * This is a snapshot of the settings in {@code config.yml}
+ * <p>
+ * A snapshot is never changed after it has been loaded. Reloading the
+ * configuration loads a new snapshot and swaps it in at once, so that a board
+ * never sees half of the old and half of the new settings. Boards take the
+ * current snapshot at the start of every move, and keep using it until the
+ * next move.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightSettings {
+	/**
+	 * The settings that are used when a setting is missing or not valid, and
+	 * before the configuration has been loaded
+	 */
+	static final TwoZeroFourEightSettings DEFAULT = new TwoZeroFourEightSettings();
+
+	/**
+	 * The highest number of obstacles on a 4x4 board, which leaves enough room to
+	 * play. Smaller boards allow fewer obstacles.
+	 */
+	static final int MAX_OBSTACLES = 6;
+	/**
+	 * The deepest that the AI may search, since every extra move multiplies the
+	 * time that a search takes
+	 */
+	static final int MAX_AI_DEPTH = 4;
+
+	/**
+	 * The settings that are currently in use
+	 */
+	private static volatile TwoZeroFourEightSettings current = TwoZeroFourEightSettings.DEFAULT;
+
+	/**
+	 * The chance for a new tile to be a 4 instead of a 2
+	 */
+	private double fourProbability = TwoZeroFourEightSpawnSequence.FOUR_PROBABILITY;
+	/**
+	 * The rules of new games, including the tile that wins the game
+	 */
+	private TwoZeroFourEightRules rules = TwoZeroFourEightRules.STANDARD;
+	/**
+	 * How many ticks there are between two checks for a win or a loss
+	 */
+	private int winLoseCheckTicks = 10;
+	/**
+	 * The volume of the sounds of a game, from 0 to 1
+	 */
+	private float volume = 0.3f;
+
+	/**
+	 * The number of ticks that a move takes
+	 */
+	private int animationFrames = 4;
+	/**
+	 * How tiles speed up and slow down while they move
+	 */
+	private TwoZeroFourEightEasing animationEasing = TwoZeroFourEightEasing.LINEAR;
+	/**
+	 * Whether the frames of a move are prepared in the background
+	 */
+	private boolean prepareAnimations = false;
+	/**
+	 * Whether the quality of animations adapts to the load of the server
+	 */
+	private boolean adaptive = true;
+	/**
+	 * The ticks per second below which the quality of animations is reduced
+	 */
+	private double reduceBelowTps = 18.0;
+	/**
+	 * The ticks per second below which the quality of animations is minimal
+	 */
+	private double minimalBelowTps = 15.0;
+	/**
+	 * How close a player has to be to a board to see its animations
+	 */
+	private double viewDistance = 0.0;
+
+	/**
+	 * The number of running games that a player can have
+	 */
+	private int maxGamesPerPlayer = 3;
+	/**
+	 * The number of running games that the server can have
+	 */
+	private int maxGamesTotal = 200;
+
+	/**
+	 * How many moves ahead the AI looks
+	 */
+	private int aiDepth = 2;
+	/**
+	 * The most memory that the cache of the AI may use, in megabytes, or 0 for no
+	 * cache
+	 */
+	private int aiCacheMegabytes = 64;
+	/**
+	 * Whether the AI searches the position after each move in the background
+	 */
+	private boolean aiPrefetch = true;
+	/**
+	 * Whether finished games are analysed by the AI
+	 */
+	private boolean aiAnalysis = false;
+	/**
+	 * How many moves ahead the AI looks when it analyses a finished game
+	 */
+	private int aiAnalysisDepth = 2;
+	/**
+	 * The weight file of the AI, or an empty string for the built-in heuristic
+	 */
+	private String aiWeights = "";
+	/**
+	 * The tablebase files of the AI, which are used instead of searching on the
+	 * boards that they cover
+	 */
+	private List<String> aiTablebases = Collections.emptyList();
+
+	/**
+	 * How often the statistics are saved, in seconds
+	 */
+	private int statsFlushSeconds = 60;
+
+	/**
+	 * Where statistics and finished games are kept, either {@code sqlite} or
+	 * {@code file}
+	 */
+	private String storageType = "sqlite";
+	/**
+	 * The number of finished games that are written in one transaction at most
+	 */
+	private int storageBatchSize = 100;
+
+	/**
+	 * Whether events are sent to the JDK Flight Recorder
+	 */
+	private boolean flightRecorder = false;
+
+	/**
+	 * The problems that were found while loading
+	 */
+	private List<String> warnings = Collections.emptyList();
+
+	private TwoZeroFourEightSettings() {
+	}
+
+	/**
+	 * Gets the settings that are currently in use
+	 *
+	 * @return the current snapshot
+	 */
+	static TwoZeroFourEightSettings get() {
+		return TwoZeroFourEightSettings.current;
+	}
+
+	/**
+	 * Makes a snapshot the one that is currently in use
+	 *
+	 * @param settings the new snapshot
+	 */
+	static void swap(TwoZeroFourEightSettings settings) {
+		TwoZeroFourEightSettings.current = settings;
+	}
+
+	/**
+	 * Loads a snapshot from a configuration
+	 * <p>
+	 * Settings that are missing are taken from {@link #DEFAULT}, and so are
+	 * settings that are not valid, which are also added to the warnings.
+	 *
+	 * @param config the configuration
+	 * @return the loaded snapshot
+	 */
+	static TwoZeroFourEightSettings load(ConfigurationSection config) {
+		TwoZeroFourEightSettings def = TwoZeroFourEightSettings.DEFAULT;
+		TwoZeroFourEightSettings settings = new TwoZeroFourEightSettings();
+		List<String> warnings = new ArrayList<>();
+
+		settings.fourProbability = config.getDouble("game.four-probability", def.fourProbability);
+		if (settings.fourProbability < 0.0 || settings.fourProbability > 1.0) {
+			warnings.add("game.four-probability must be between 0 and 1");
+			settings.fourProbability = def.fourProbability;
+		}
+		String mergeName = config.getString("game.rules", "standard");
+		TwoZeroFourEightRules.Merge merge = TwoZeroFourEightRules.Merge.fromName(mergeName);
+		if (merge == null) {
+			warnings.add("Unknown game rules: " + mergeName);
+			merge = def.rules.getMerge();
+		}
+		String size = config.getString("game.size", "4x4");
+		int rows = def.rules.getRows(), cols = def.rules.getCols();
+		if (size.matches("[2-4]x[2-4]")) {
+			rows = size.charAt(0) - '0';
+			cols = size.charAt(2) - '0';
+		} else {
+			warnings.add("game.size must be between 2x2 and 4x4");
+		}
+		int maxObstacles = TwoZeroFourEightSettings.MAX_OBSTACLES * rows * cols / TwoZeroFourEightEngine.CELLS;
+		int obstacles = config.getInt("game.obstacles", def.rules.getObstacles());
+		if (obstacles < 0 || obstacles > maxObstacles) {
+			warnings.add("game.obstacles must be between 0 and " + maxObstacles + " on a " + rows + "x" + cols
+					+ " board");
+			obstacles = def.rules.getObstacles();
+		}
+		int winTile = config.getInt("game.win-tile", merge.getDefaultWinTile());
+		boolean validWinTile = false;
+		for (int rank = 2; rank < TwoZeroFourEightRules.OBSTACLE_RANK; rank++) {
+			validWinTile |= merge.getValue(rank) == winTile;
+		}
+		if (!validWinTile) {
+			warnings.add("game.win-tile must be a tile of the " + merge.name().toLowerCase(Locale.ENGLISH)
+					+ " rules, such as " + merge.getDefaultWinTile());
+			winTile = merge.getDefaultWinTile();
+		}
+		settings.rules = TwoZeroFourEightRules.compile(merge, winTile, obstacles, rows, cols);
+		settings.winLoseCheckTicks = Math.max(1, config.getInt("game.win-lose-check-ticks", def.winLoseCheckTicks));
+		settings.volume = (float) Math.max(0.0, Math.min(1.0, config.getDouble("game.volume", def.volume)));
+
+		settings.animationFrames = Math.max(0, config.getInt("animation.frames", def.animationFrames));
+		String easingName = config.getString("animation.easing", "linear");
+		settings.animationEasing = TwoZeroFourEightEasing.fromName(easingName);
+		if (settings.animationEasing == null) {
+			warnings.add("Unknown animation easing: " + easingName);
+			settings.animationEasing = def.animationEasing;
+		}
+		settings.prepareAnimations = config.getBoolean("animation.prepare", def.prepareAnimations);
+		settings.adaptive = config.getBoolean("animation.adaptive.enabled", def.adaptive);
+		settings.reduceBelowTps = config.getDouble("animation.adaptive.reduce-below-tps", def.reduceBelowTps);
+		settings.minimalBelowTps = config.getDouble("animation.adaptive.minimal-below-tps", def.minimalBelowTps);
+		settings.viewDistance = Math.max(0.0, config.getDouble("animation.adaptive.view-distance", def.viewDistance));
+
+		settings.maxGamesPerPlayer = Math.max(1, config.getInt("sessions.max-per-player", def.maxGamesPerPlayer));
+		settings.maxGamesTotal = Math.max(1, config.getInt("sessions.max-total", def.maxGamesTotal));
+		settings.aiDepth = TwoZeroFourEightSettings.getAiDepth(config, "ai.depth", def.aiDepth, warnings);
+		settings.aiCacheMegabytes = Math.max(0, config.getInt("ai.cache-megabytes", def.aiCacheMegabytes));
+		settings.aiPrefetch = config.getBoolean("ai.prefetch", def.aiPrefetch);
+		settings.aiAnalysis = config.getBoolean("ai.analysis", def.aiAnalysis);
+		settings.aiAnalysisDepth = TwoZeroFourEightSettings.getAiDepth(config, "ai.analysis-depth",
+				def.aiAnalysisDepth, warnings);
+		settings.aiWeights = config.getString("ai.weights", def.aiWeights);
+		settings.aiTablebases = Collections.unmodifiableList(new ArrayList<>(config.getStringList("ai.tablebases")));
+		settings.statsFlushSeconds = Math.max(1, config.getInt("stats.flush-seconds", def.statsFlushSeconds));
+		settings.storageType = config.getString("storage.type", def.storageType).toLowerCase(Locale.ENGLISH);
+		if (!settings.storageType.equals("sqlite") && !settings.storageType.equals("file")) {
+			warnings.add("storage.type must be sqlite or file");
+			settings.storageType = def.storageType;
+		}
+		settings.storageBatchSize = Math.max(1, config.getInt("storage.batch-size", def.storageBatchSize));
+		settings.flightRecorder = config.getBoolean("debug.flight-recorder", def.flightRecorder);
+
+		settings.warnings = Collections.unmodifiableList(warnings);
+		return settings;
+	}
+
+	/**
+	 * Reads a search depth of the AI from a configuration
+	 *
+	 * @param config   the configuration
+	 * @param path     the path of the depth
+	 * @param def      the depth to use if the path is not set or not valid
+	 * @param warnings receives a warning if the depth is not valid
+	 * @return the depth, from 1 to {@link #MAX_AI_DEPTH}
+	 */
+	private static int getAiDepth(ConfigurationSection config, String path, int def, List<String> warnings) {
+		int depth = config.getInt(path, def);
+		if (depth < 1 || depth > TwoZeroFourEightSettings.MAX_AI_DEPTH) {
+			warnings.add(path + " must be between 1 and " + TwoZeroFourEightSettings.MAX_AI_DEPTH);
+			return def;
+		}
+		return depth;
+	}
+
+	/**
+	 * Gets the chance for a new tile to be a 4 instead of a 2
+	 *
+	 * @return the chance, from 0 to 1
+	 */
+	public double getFourProbability() {
+		return this.fourProbability;
+	}
+
+	/**
+	 * Gets the rules of new games
+	 *
+	 * @return the compiled rules
+	 */
+	public TwoZeroFourEightRules getRules() {
+		return this.rules;
+	}
+
+	/**
+	 * Gets how many ticks there are between two checks for a win or a loss
+	 *
+	 * @return the number of ticks, at least 1
+	 */
+	public int getWinLoseCheckTicks() {
+		return this.winLoseCheckTicks;
+	}
+
+	/**
+	 * Gets the volume of the sounds of a game
+	 *
+	 * @return the volume, from 0 to 1
+	 */
+	public float getVolume() {
+		return this.volume;
+	}
+
+	/**
+	 * Gets the number of ticks that a move takes
+	 *
+	 * @return the number of ticks, or 0 to move tiles instantly
+	 */
+	public int getAnimationFrames() {
+		return this.animationFrames;
+	}
+
+	/**
+	 * Gets how tiles speed up and slow down while they move
+	 *
+	 * @return the easing
+	 */
+	public TwoZeroFourEightEasing getAnimationEasing() {
+		return this.animationEasing;
+	}
+
+	/**
+	 * Checks whether the frames of a move are prepared in the background
+	 *
+	 * @return whether frames are prepared
+	 */
+	public boolean isPrepareAnimations() {
+		return this.prepareAnimations;
+	}
+
+	/**
+	 * Checks whether the quality of animations adapts to the load of the server
+	 *
+	 * @return whether the quality is adaptive
+	 */
+	public boolean isAdaptive() {
+		return this.adaptive;
+	}
+
+	/**
+	 * Gets the ticks per second below which the quality of animations is reduced
+	 *
+	 * @return the ticks per second
+	 */
+	public double getReduceBelowTps() {
+		return this.reduceBelowTps;
+	}
+
+	/**
+	 * Gets the ticks per second below which the quality of animations is minimal
+	 *
+	 * @return the ticks per second
+	 */
+	public double getMinimalBelowTps() {
+		return this.minimalBelowTps;
+	}
+
+	/**
+	 * Gets how close a player has to be to a board to see its animations
+	 *
+	 * @return the distance in blocks, or 0 to not take viewers into account
+	 */
+	public double getViewDistance() {
+		return this.viewDistance;
+	}
+
+	/**
+	 * Gets the number of running games that a player can have
+	 *
+	 * @return the number of games
+	 */
+	public int getMaxGamesPerPlayer() {
+		return this.maxGamesPerPlayer;
+	}
+
+	/**
+	 * Gets the number of running games that the server can have
+	 *
+	 * @return the number of games
+	 */
+	public int getMaxGamesTotal() {
+		return this.maxGamesTotal;
+	}
+
+	/**
+	 * Gets how many moves ahead the AI looks
+	 *
+	 * @return the depth
+	 */
+	public int getAiDepth() {
+		return this.aiDepth;
+	}
+
+	/**
+	 * Gets the most memory that the cache of the AI may use
+	 *
+	 * @return the limit in megabytes, or 0 for no cache
+	 */
+	public int getAiCacheMegabytes() {
+		return this.aiCacheMegabytes;
+	}
+
+	/**
+	 * Gets whether the AI searches the position after each move in the background,
+	 * so that hints are ready before they are asked for
+	 *
+	 * @return whether positions are prefetched
+	 */
+	public boolean isAiPrefetch() {
+		return this.aiPrefetch;
+	}
+
+	/**
+	 * Gets whether finished games are analysed by the AI, which tells the player
+	 * how their moves compare
+	 *
+	 * @return whether games are analysed
+	 */
+	public boolean isAiAnalysis() {
+		return this.aiAnalysis;
+	}
+
+	/**
+	 * Gets how many moves ahead the AI looks when it analyses a finished game
+	 *
+	 * @return the depth
+	 */
+	public int getAiAnalysisDepth() {
+		return this.aiAnalysisDepth;
+	}
+
+	/**
+	 * Gets the weight file of the AI
+	 *
+	 * @return the path in the plugin folder, or an empty string for the built-in
+	 *         heuristic
+	 */
+	public String getAiWeights() {
+		return this.aiWeights;
+	}
+
+	/**
+	 * Gets the tablebase files of the AI
+	 *
+	 * @return the paths in the plugin folder
+	 */
+	public List<String> getAiTablebases() {
+		return this.aiTablebases;
+	}
+
+	/**
+	 * Gets how often the statistics are saved
+	 *
+	 * @return the interval in seconds
+	 */
+	public int getStatsFlushSeconds() {
+		return this.statsFlushSeconds;
+	}
+
+	/**
+	 * Gets where statistics and finished games are kept
+	 *
+	 * @return {@code sqlite} or {@code file}
+	 */
+	public String getStorageType() {
+		return this.storageType;
+	}
+
+	/**
+	 * Gets the number of finished games that are written in one transaction at
+	 * most
+	 *
+	 * @return the batch size, at least 1
+	 */
+	public int getStorageBatchSize() {
+		return this.storageBatchSize;
+	}
+
+	/**
+	 * Checks whether events are sent to the JDK Flight Recorder
+	 *
+	 * @return whether events are sent
+	 */
+	public boolean isFlightRecorder() {
+		return this.flightRecorder;
+	}
+
+	/**
+	 * Gets the problems that were found while loading
+	 *
+	 * @return the warnings, which are empty for the defaults
+	 */
+	public List<String> getWarnings() {
+		return this.warnings;
+	}
+}
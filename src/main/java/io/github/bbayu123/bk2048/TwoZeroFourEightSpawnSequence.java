@@ -0,0 +1,109 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.Random;
+
+/**
+ * This is a precomputed sequence of tile spawns
+ * <p>
+ * Each spawn consists of a random pick, which chooses one of the empty cells on
+ * the board, and the rank of the new tile, which is 1 or 2 under any
+ * {@link TwoZeroFourEightRules}. Two boards that are given the same
+ * sequence and make the same moves will see the exact same tiles appear.
+ * <p>
+ * The sequence is never modified after it has been generated, so it can be
+ * shared between any number of boards.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightSpawnSequence {
+	/**
+	 * The default chance for a new tile to be a 4 instead of a 2
+	 */
+	static final double FOUR_PROBABILITY = 0.1;
+
+	/**
+	 * The default number of spawns in a sequence, which is far more than a game
+	 * will ever need
+	 */
+	static final int DEFAULT_LENGTH = 1 << 16;
+
+	/**
+	 * The random picks, which are always positive
+	 */
+	private final int[] picks;
+	/**
+	 * The ranks of the new tiles
+	 */
+	private final byte[] ranks;
+
+	/**
+	 * Creates a spawn sequence
+	 *
+	 * @param picks the random picks
+	 * @param ranks the ranks of the new tiles
+	 */
+	private TwoZeroFourEightSpawnSequence(int[] picks, byte[] ranks) {
+		this.picks = picks;
+		this.ranks = ranks;
+	}
+
+	/**
+	 * Generates a spawn sequence from a seed
+	 *
+	 * @param seed            the seed of the sequence
+	 * @param length          the number of spawns in the sequence
+	 * @param fourProbability the chance for a new tile to have rank 2 instead of 1,
+	 *                        which is a 4 instead of a 2 under the standard rules
+	 * @return the generated sequence
+	 */
+	public static TwoZeroFourEightSpawnSequence generate(long seed, int length, double fourProbability) {
+		Random random = new Random(seed);
+		int[] picks = new int[length];
+		byte[] ranks = new byte[length];
+		for (int i = 0; i < length; i++) {
+			picks[i] = random.nextInt(Integer.MAX_VALUE);
+			ranks[i] = (byte) (random.nextDouble() < fourProbability ? 2 : 1);
+		}
+		return new TwoZeroFourEightSpawnSequence(picks, ranks);
+	}
+
+	/**
+	 * Gets which of the empty cells is chosen by a spawn
+	 * <p>
+	 * The sequence wraps around if a game uses more spawns than it holds.
+	 *
+	 * @param index      the index of the spawn
+	 * @param emptyCount the number of empty cells on the board
+	 * @return the position of the chosen cell among the empty cells
+	 */
+	public int getPick(int index, int emptyCount) {
+		return this.picks[index % this.picks.length] % emptyCount;
+	}
+
+	/**
+	 * Gets the rank of the tile created by a spawn
+	 *
+	 * @param index the index of the spawn
+	 * @return the rank of the new tile
+	 */
+	public int getRank(int index) {
+		return this.ranks[index % this.ranks.length];
+	}
+}
@@ -0,0 +1,358 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.awt.Dimension;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.bergerkiller.bukkit.common.map.MapCanvas;
+import com.bergerkiller.bukkit.common.map.MapColorPalette;
+import com.bergerkiller.bukkit.common.map.MapFont;
+import com.bergerkiller.bukkit.common.map.MapTexture;
+
+/**
+ * This is the sprite cache for the 2048 game
+ * <p>
+ * Every sprite is drawn once at the base (single map) size using the regular
+ * {@link MapCanvas} primitives, and then scaled up by a whole number factor for
+ * displays that span multiple maps. The board then only has to copy the cached
+ * textures when it draws a frame.
+ * <p>
+ * There is one cache for each scale, obtained using {@link #forScale(int)}. The
+ * colors come from a {@link TwoZeroFourEightTheme}, and when the theme changes,
+ * all caches are replaced at once.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightSprites {
+	/**
+	 * The tile size at a scale of 1
+	 */
+	static final int BASE_TILE_SIZE = 25;
+	/**
+	 * The board size at a scale of 1
+	 */
+	static final int BASE_BOARD_SIZE = 126;
+	/**
+	 * The largest power of two that a tile can reach on a 4x4 board
+	 */
+	static final int MAX_POWER = 17;
+
+	/**
+	 * All caches that have been created so far, by scale. This is only accessed on
+	 * the main thread.
+	 */
+	private static Map<Integer, TwoZeroFourEightSprites> caches = new HashMap<>();
+
+	/**
+	 * The scale of this cache
+	 */
+	private final int scale;
+
+	/**
+	 * The theme of this cache
+	 */
+	private final TwoZeroFourEightTheme theme;
+
+	/**
+	 * The tile sprites, indexed by the power of two of the value
+	 */
+	private final MapTexture[] tiles = new MapTexture[32];
+	/**
+	 * The values of the tiles that are not powers of two, which only appear under
+	 * some {@link TwoZeroFourEightRules}
+	 */
+	private int[] otherValues = new int[0];
+	/**
+	 * The sprites of the tiles that are not powers of two, in the same order as
+	 * their values
+	 */
+	private MapTexture[] otherTiles = new MapTexture[0];
+
+	/**
+	 * The obstacle sprite
+	 */
+	private MapTexture obstacle = null;
+
+	/**
+	 * The empty cell sprite
+	 */
+	private MapTexture emptyCell = null;
+
+	/**
+	 * The title screen sprite
+	 */
+	private MapTexture title = null;
+
+	/**
+	 * Creates a sprite cache
+	 *
+	 * @param scale the scale of the sprites
+	 * @param theme the theme of the sprites
+	 */
+	private TwoZeroFourEightSprites(int scale, TwoZeroFourEightTheme theme) {
+		this.scale = scale;
+		this.theme = theme;
+	}
+
+	/**
+	 * Gets the sprite cache for a given scale in the current theme, creating it if
+	 * it does not exist yet
+	 *
+	 * @param scale the scale of the sprites
+	 * @return the sprite cache
+	 */
+	public static TwoZeroFourEightSprites forScale(int scale) {
+		return TwoZeroFourEightSprites.caches.computeIfAbsent(Math.max(1, scale),
+				s -> new TwoZeroFourEightSprites(s, TwoZeroFourEightTheme.getCurrent()));
+	}
+
+	/**
+	 * Gets the scales that currently have a sprite cache
+	 *
+	 * @return a copy of the scales
+	 */
+	static Set<Integer> getScales() {
+		return new HashSet<>(TwoZeroFourEightSprites.caches.keySet());
+	}
+
+	/**
+	 * Creates and fully draws sprite caches for a theme
+	 * <p>
+	 * This only works with new textures, so it is safe to call from another
+	 * thread.
+	 *
+	 * @param theme  the theme of the sprites
+	 * @param scales the scales to draw the sprites for
+	 * @return the new sprite caches, by scale
+	 */
+	static Map<Integer, TwoZeroFourEightSprites> prerender(TwoZeroFourEightTheme theme, Set<Integer> scales) {
+		Map<Integer, TwoZeroFourEightSprites> prerendered = new HashMap<>();
+		for (int scale : scales) {
+			TwoZeroFourEightSprites sprites = new TwoZeroFourEightSprites(scale, theme);
+			sprites.getEmptyCell();
+			sprites.getObstacle();
+			sprites.getTitle();
+			for (int power = 1; power <= TwoZeroFourEightSprites.MAX_POWER; power++) {
+				sprites.getTile(1 << power);
+			}
+			prerendered.put(scale, sprites);
+		}
+		return prerendered;
+	}
+
+	/**
+	 * Replaces all sprite caches, which must be done on the main thread
+	 *
+	 * @param replacement the new sprite caches, by scale
+	 */
+	static void swap(Map<Integer, TwoZeroFourEightSprites> replacement) {
+		TwoZeroFourEightSprites.caches = new HashMap<>(replacement);
+	}
+
+	/**
+	 * Gets the scale of this cache
+	 *
+	 * @return the scale
+	 */
+	public int getScale() {
+		return this.scale;
+	}
+
+	/**
+	 * Gets the theme of this cache
+	 *
+	 * @return the theme
+	 */
+	public TwoZeroFourEightTheme getTheme() {
+		return this.theme;
+	}
+
+	/**
+	 * Gets the sprite of a tile with the given value
+	 *
+	 * @param value the value shown on the tile
+	 * @return the tile sprite
+	 */
+	public MapTexture getTile(int value) {
+		if (Integer.bitCount(value) != 1) {
+			return this.getOtherTile(value);
+		}
+		int power = 31 - Integer.numberOfLeadingZeros(value);
+		MapTexture sprite = this.tiles[power];
+		if (sprite == null) {
+			sprite = this.scale(this.drawTile(value));
+			this.tiles[power] = sprite;
+		}
+		return sprite;
+	}
+
+	/**
+	 * Gets the sprite of a tile whose value is not a power of two
+	 * <p>
+	 * There are only a few of these under any rules, so they are simply looked
+	 * up one by one.
+	 *
+	 * @param value the value shown on the tile
+	 * @return the tile sprite
+	 */
+	private MapTexture getOtherTile(int value) {
+		for (int i = 0; i < this.otherValues.length; i++) {
+			if (this.otherValues[i] == value) {
+				return this.otherTiles[i];
+			}
+		}
+		MapTexture sprite = this.scale(this.drawTile(value));
+		int count = this.otherValues.length;
+		this.otherValues = Arrays.copyOf(this.otherValues, count + 1);
+		this.otherTiles = Arrays.copyOf(this.otherTiles, count + 1);
+		this.otherValues[count] = value;
+		this.otherTiles[count] = sprite;
+		return sprite;
+	}
+
+	/**
+	 * Gets the sprite of an obstacle, which is a darker empty cell
+	 *
+	 * @return the obstacle sprite
+	 */
+	public MapTexture getObstacle() {
+		if (this.obstacle == null) {
+			MapTexture base = MapTexture.createEmpty(TwoZeroFourEightSprites.BASE_TILE_SIZE,
+					TwoZeroFourEightSprites.BASE_TILE_SIZE);
+			Main.fillRoundedRectangle(base, MapColorPalette.getSpecular(this.theme.getBoard(), 0.6f));
+			this.obstacle = this.scale(base);
+		}
+		return this.obstacle;
+	}
+
+	/**
+	 * Gets the sprite of an empty cell on the board
+	 *
+	 * @return the empty cell sprite
+	 */
+	public MapTexture getEmptyCell() {
+		if (this.emptyCell == null) {
+			MapTexture base = MapTexture.createEmpty(TwoZeroFourEightSprites.BASE_TILE_SIZE,
+					TwoZeroFourEightSprites.BASE_TILE_SIZE);
+			Main.fillRoundedRectangle(base, this.theme.getEmptyCell());
+			this.emptyCell = this.scale(base);
+		}
+		return this.emptyCell;
+	}
+
+	/**
+	 * Gets the sprite of the title screen, which is the size of the board with a
+	 * transparent background
+	 *
+	 * @return the title sprite
+	 */
+	public MapTexture getTitle() {
+		if (this.title == null) {
+			this.title = this.scale(this.drawTitle());
+		}
+		return this.title;
+	}
+
+	/**
+	 * Draws a tile at the base size
+	 *
+	 * @param value the value shown on the tile
+	 * @return the drawn tile
+	 */
+	private MapTexture drawTile(int value) {
+		MapTexture view = MapTexture.createEmpty(TwoZeroFourEightSprites.BASE_TILE_SIZE,
+				TwoZeroFourEightSprites.BASE_TILE_SIZE);
+
+		// Background
+		Main.fillRoundedRectangle(view, this.theme.getTile(value));
+
+		// Text
+		String text = String.valueOf(value);
+		MapFont<Character> font = MapFont.MINECRAFT;
+		Dimension dimensions = view.calcFontSize(font, text);
+		if (dimensions.width > view.getWidth() - 4) {
+			font = MapFont.TINY;
+			dimensions = view.calcFontSize(font, text);
+		}
+
+		int textX = (view.getWidth() - dimensions.width) / 2 + 1;
+		int textY = (view.getHeight() - dimensions.height) / 2 + 1;
+		view.draw(font, textX, textY, this.theme.getText(value), text);
+		return view;
+	}
+
+	/**
+	 * Draws the title screen at the base size
+	 *
+	 * @return the drawn title screen
+	 */
+	private MapTexture drawTitle() {
+		MapTexture view = MapTexture.createEmpty(TwoZeroFourEightSprites.BASE_BOARD_SIZE,
+				TwoZeroFourEightSprites.BASE_BOARD_SIZE);
+
+		MapFont<Character> titleFont = MapFont.MINECRAFT, subtitleFont = MapFont.TINY;
+		String titleText = "2048", subtitleText = "TAP TO START";
+		byte textColor = this.theme.getTitle();
+		byte subColor = MapColorPalette.getSpecular(textColor, 0.7f);
+
+		Dimension titleDimensions = view.calcFontSize(titleFont, titleText);
+		Dimension subtitleDimensions = view.calcFontSize(subtitleFont, subtitleText);
+
+		int titleX = (view.getWidth() - titleDimensions.width) / 2;
+		int titleY = view.getHeight() / 2 - 4 - titleDimensions.height;
+		int subtitleX = (view.getWidth() - subtitleDimensions.width) / 2;
+		int subtitleY = view.getHeight() / 2 + 4;
+
+		view.draw(titleFont, titleX + 1, titleY + 1, subColor, titleText);
+		view.draw(subtitleFont, subtitleX + 1, subtitleY + 1, subColor, subtitleText);
+		view.draw(titleFont, titleX, titleY, textColor, titleText);
+		view.draw(subtitleFont, subtitleX, subtitleY, textColor, subtitleText);
+		return view;
+	}
+
+	/**
+	 * Scales a base size texture up to the scale of this cache, using nearest
+	 * neighbor sampling so that the pixel art stays crisp
+	 *
+	 * @param base the texture at the base size
+	 * @return the scaled texture, or the base texture itself if the scale is 1
+	 */
+	private MapTexture scale(MapTexture base) {
+		if (this.scale == 1) {
+			return base;
+		}
+
+		int baseWidth = base.getWidth(), baseHeight = base.getHeight();
+		int width = baseWidth * this.scale, height = baseHeight * this.scale;
+		MapTexture scaled = MapTexture.createEmpty(width, height);
+
+		byte[] src = base.getBuffer(), dst = scaled.getBuffer();
+		for (int y = 0; y < height; y++) {
+			int srcRow = y / this.scale * baseWidth, dstRow = y * width;
+			for (int x = 0; x < width; x++) {
+				dst[dstRow + x] = src[srcRow + x / this.scale];
+			}
+		}
+		return scaled;
+	}
+}
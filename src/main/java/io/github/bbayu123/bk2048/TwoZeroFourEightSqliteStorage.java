@@ -0,0 +1,320 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This is a {@link TwoZeroFourEightStorage} that keeps everything in an SQLite
+ * database in the plugin folder
+ * <p>
+ * The SQLite driver ships with the server, so nothing has to be installed.
+ * The connection and all statements are prepared once when the storage is
+ * opened. Every write is one transaction, however many rows it has, and the
+ * database runs in write-ahead mode, so a transaction only costs one sync.
+ * <p>
+ * The games are indexed by score and by player, which keeps the leaderboard
+ * and the history of a player fast no matter how many games there are. When
+ * the database is created, the flat files of {@link TwoZeroFourEightFileStorage}
+ * are imported, so switching over does not lose anything. If the import fails,
+ * the new database is deleted again, and the import is tried on the next start.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightSqliteStorage implements TwoZeroFourEightStorage {
+	/**
+	 * The class of the SQLite driver
+	 */
+	private static final String DRIVER = "org.sqlite.JDBC";
+	/**
+	 * The columns of a game, in the order of the statements
+	 */
+	private static final String GAME_COLUMNS = "player, seed, name, finished_at, score, highest_tile, moves, won, replay";
+
+	/**
+	 * The plugin folder
+	 */
+	private final File folder;
+	/**
+	 * The database file
+	 */
+	private final File file;
+
+	/**
+	 * The connection to the database
+	 */
+	private Connection connection = null;
+	/**
+	 * Reads the statistics of all players
+	 */
+	private PreparedStatement selectStats = null;
+	/**
+	 * Writes the statistics of a player
+	 */
+	private PreparedStatement upsertStats = null;
+	/**
+	 * Writes a game
+	 */
+	private PreparedStatement upsertGame = null;
+	/**
+	 * Reads the games with the highest scores
+	 */
+	private PreparedStatement selectTopGames = null;
+	/**
+	 * Reads the most recent games of a player
+	 */
+	private PreparedStatement selectRecentGames = null;
+
+	/**
+	 * Creates an SQLite storage
+	 *
+	 * @param folder the plugin folder
+	 */
+	TwoZeroFourEightSqliteStorage(File folder) {
+		this.folder = folder;
+		this.file = new File(folder, "bk2048.db");
+	}
+
+	@Override
+	public void open() throws IOException {
+		try {
+			Class.forName(TwoZeroFourEightSqliteStorage.DRIVER);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("The SQLite driver is not available");
+		}
+		if (!this.folder.isDirectory() && !this.folder.mkdirs()) {
+			throw new IOException("Could not create " + this.folder);
+		}
+		boolean created = !this.file.exists();
+
+		StringBuilder statsColumns = new StringBuilder(), statsDefinitions = new StringBuilder(),
+				statsParameters = new StringBuilder("?");
+		for (String column : TwoZeroFourEightStats.COLUMNS) {
+			statsColumns.append(", ").append(column.replace('-', '_'));
+			statsDefinitions.append(", ").append(column.replace('-', '_')).append(" INTEGER NOT NULL");
+			statsParameters.append(", ?");
+		}
+
+		try {
+			this.connection = DriverManager.getConnection("jdbc:sqlite:" + this.file.getAbsolutePath());
+			try (Statement statement = this.connection.createStatement()) {
+				statement.execute("PRAGMA journal_mode = WAL");
+				statement.execute("PRAGMA synchronous = NORMAL");
+				statement.execute("CREATE TABLE IF NOT EXISTS stats (player TEXT PRIMARY KEY" + statsDefinitions + ")");
+				statement.execute("CREATE TABLE IF NOT EXISTS games (player TEXT NOT NULL, seed INTEGER NOT NULL,"
+						+ " name TEXT NOT NULL, finished_at INTEGER NOT NULL, score INTEGER NOT NULL,"
+						+ " highest_tile INTEGER NOT NULL, moves INTEGER NOT NULL, won INTEGER NOT NULL,"
+						+ " replay BLOB, PRIMARY KEY (player, seed))");
+				statement.execute("CREATE INDEX IF NOT EXISTS games_by_score ON games (score DESC)");
+				statement.execute("CREATE INDEX IF NOT EXISTS games_by_player ON games (player, finished_at DESC)");
+			}
+			this.connection.setAutoCommit(false);
+
+			this.selectStats = this.connection.prepareStatement("SELECT player" + statsColumns + " FROM stats");
+			this.upsertStats = this.connection.prepareStatement(
+					"INSERT OR REPLACE INTO stats (player" + statsColumns + ") VALUES (" + statsParameters + ")");
+			this.upsertGame = this.connection.prepareStatement("INSERT OR REPLACE INTO games ("
+					+ TwoZeroFourEightSqliteStorage.GAME_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			this.selectTopGames = this.connection.prepareStatement("SELECT "
+					+ TwoZeroFourEightSqliteStorage.GAME_COLUMNS + " FROM games ORDER BY score DESC LIMIT ?");
+			this.selectRecentGames = this.connection
+					.prepareStatement("SELECT " + TwoZeroFourEightSqliteStorage.GAME_COLUMNS
+							+ " FROM games WHERE player = ? ORDER BY finished_at DESC LIMIT ?");
+		} catch (SQLException e) {
+			this.abandon(created);
+			throw new IOException(e.getMessage(), e);
+		}
+
+		if (created) {
+			try {
+				TwoZeroFourEightFileStorage files = new TwoZeroFourEightFileStorage(this.folder);
+				this.writeStats(files.readStats());
+				this.writeGames(files.readGames());
+			} catch (IOException e) {
+				this.abandon(created);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Closes the connection after opening failed, and deletes the database if it
+	 * was just created, so that the flat files are imported again next time
+	 *
+	 * @param created whether the database was created by this attempt
+	 */
+	private void abandon(boolean created) {
+		try {
+			this.close();
+		} catch (IOException e) {
+			// The database is not used after this, so there is nothing else to do
+		}
+		if (created) {
+			// In write-ahead mode, SQLite keeps two more files next to the database
+			for (String suffix : new String[] { "", "-wal", "-shm" }) {
+				new File(this.folder, this.file.getName() + suffix).delete();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.connection == null) {
+			return;
+		}
+		try {
+			this.connection.close();
+		} catch (SQLException e) {
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			this.connection = null;
+		}
+	}
+
+	@Override
+	public Map<UUID, long[]> readStats() throws IOException {
+		Map<UUID, long[]> stats = new HashMap<>();
+		try {
+			try (ResultSet results = this.selectStats.executeQuery()) {
+				while (results.next()) {
+					long[] counters = new long[TwoZeroFourEightStats.COLUMNS.length];
+					for (int i = 0; i < counters.length; i++) {
+						counters[i] = results.getLong(i + 2);
+					}
+					stats.put(UUID.fromString(results.getString(1)), counters);
+				}
+			}
+			this.connection.commit();
+		} catch (SQLException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		return stats;
+	}
+
+	@Override
+	public void writeStats(Map<UUID, long[]> stats) throws IOException {
+		try {
+			for (Map.Entry<UUID, long[]> entry : stats.entrySet()) {
+				long[] counters = entry.getValue();
+				this.upsertStats.setString(1, entry.getKey().toString());
+				for (int i = 0; i < counters.length; i++) {
+					this.upsertStats.setLong(i + 2, counters[i]);
+				}
+				this.upsertStats.addBatch();
+			}
+			this.upsertStats.executeBatch();
+			this.connection.commit();
+		} catch (SQLException e) {
+			this.rollback();
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void writeGames(List<Game> games) throws IOException {
+		try {
+			for (Game game : games) {
+				this.upsertGame.setString(1, game.getPlayer().toString());
+				this.upsertGame.setLong(2, game.getSeed());
+				this.upsertGame.setString(3, game.getName());
+				this.upsertGame.setLong(4, game.getFinishedAt());
+				this.upsertGame.setInt(5, game.getScore());
+				this.upsertGame.setInt(6, game.getHighestTile());
+				this.upsertGame.setInt(7, game.getMoves());
+				this.upsertGame.setInt(8, game.isWon() ? 1 : 0);
+				if (game.getReplay() == null) {
+					this.upsertGame.setNull(9, Types.BLOB);
+				} else {
+					this.upsertGame.setBytes(9, game.getReplay());
+				}
+				this.upsertGame.addBatch();
+			}
+			this.upsertGame.executeBatch();
+			this.connection.commit();
+		} catch (SQLException e) {
+			this.rollback();
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public List<Game> readTopGames(int limit) throws IOException {
+		try {
+			this.selectTopGames.setInt(1, limit);
+			return this.readGames(this.selectTopGames);
+		} catch (SQLException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public List<Game> readRecentGames(UUID player, int limit) throws IOException {
+		try {
+			this.selectRecentGames.setString(1, player.toString());
+			this.selectRecentGames.setInt(2, limit);
+			return this.readGames(this.selectRecentGames);
+		} catch (SQLException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Reads the games that a prepared query returns, and ends the read
+	 * transaction so that it does not hold back the write-ahead log
+	 *
+	 * @param query the query, with its parameters set
+	 * @return the games
+	 * @throws SQLException if the query fails
+	 */
+	private List<Game> readGames(PreparedStatement query) throws SQLException {
+		List<Game> games = new ArrayList<>();
+		try (ResultSet results = query.executeQuery()) {
+			while (results.next()) {
+				games.add(new Game(UUID.fromString(results.getString(1)), results.getString(3), results.getLong(2),
+						results.getLong(4), results.getInt(5), results.getInt(6), results.getInt(7),
+						results.getInt(8) != 0, results.getBytes(9)));
+			}
+		}
+		this.connection.commit();
+		return games;
+	}
+
+	/**
+	 * Rolls back a failed write, so that the next one starts clean
+	 */
+	private void rollback() {
+		try {
+			this.connection.rollback();
+		} catch (SQLException e) {
+			// The write has already failed, which is what gets reported
+		}
+	}
+}
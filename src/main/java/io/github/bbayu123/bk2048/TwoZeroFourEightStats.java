@@ -0,0 +1,261 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * These are the statistics of a player across all of their 2048 games
+ * <p>
+ * Boards keep a reference to the statistics of their owner, and update them
+ * with {@link LongAdder}s, which spread concurrent updates over separate cells
+ * instead of contending on one value. Recording a move is a single increment,
+ * without any locks or I/O.
+ * <p>
+ * A task periodically queues all statistics to be written to the
+ * {@link TwoZeroFourEightStorage}. The sums of the counters are read on the
+ * thread of the {@link TwoZeroFourEightStorageWriter}, without stopping the
+ * boards.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightStats {
+	/**
+	 * The statistics of every player that has played, by unique id
+	 */
+	private static final Map<UUID, TwoZeroFourEightStats> PLAYERS = new ConcurrentHashMap<>();
+
+	/**
+	 * The names of the counters, in the order that they are stored in
+	 */
+	static final String[] COLUMNS = new String[] { "games", "finished", "total-score", "moves", "merges", "ticks",
+			"highest-tile" };
+
+	/**
+	 * Whether the stored statistics have been read, which is only changed on the
+	 * thread of the {@link TwoZeroFourEightStorageWriter}
+	 */
+	private static volatile boolean loaded = false;
+
+	/**
+	 * The unique id of the player
+	 */
+	private final UUID player;
+
+	/**
+	 * The number of games started
+	 */
+	private final LongAdder games = new LongAdder();
+	/**
+	 * The number of games that were won or lost
+	 */
+	private final LongAdder finished = new LongAdder();
+	/**
+	 * The sum of the final scores of finished games
+	 */
+	private final LongAdder totalScore = new LongAdder();
+	/**
+	 * The number of moves
+	 */
+	private final LongAdder moves = new LongAdder();
+	/**
+	 * The number of merges
+	 */
+	private final LongAdder merges = new LongAdder();
+	/**
+	 * The number of ticks spent in a game
+	 */
+	private final LongAdder ticks = new LongAdder();
+	/**
+	 * The highest tile ever reached
+	 */
+	private final LongAccumulator highestTile = new LongAccumulator(Math::max, 0L);
+
+	/**
+	 * Creates empty statistics
+	 *
+	 * @param player the unique id of the player
+	 */
+	private TwoZeroFourEightStats(UUID player) {
+		this.player = player;
+	}
+
+	/**
+	 * Gets the statistics of a player, creating empty statistics if the player has
+	 * not played yet
+	 *
+	 * @param player the unique id of the player
+	 * @return the statistics
+	 */
+	static TwoZeroFourEightStats get(UUID player) {
+		return TwoZeroFourEightStats.PLAYERS.computeIfAbsent(player, TwoZeroFourEightStats::new);
+	}
+
+	/**
+	 * Queues loading the statistics of all players
+	 * <p>
+	 * The loaded counters are added to the ones in memory, so that nothing that
+	 * happens before the statistics are loaded is lost. If reading fails, every
+	 * flush tries again.
+	 */
+	static void load() {
+		TwoZeroFourEightStorageWriter.execute(TwoZeroFourEightStats::read);
+	}
+
+	/**
+	 * Reads the stored statistics of all players, unless they have been read
+	 * already
+	 *
+	 * @param storage the storage
+	 * @throws IOException if the statistics could not be read, in which case
+	 *                     nothing is added
+	 */
+	private static void read(TwoZeroFourEightStorage storage) throws IOException {
+		if (TwoZeroFourEightStats.loaded) {
+			return;
+		}
+		for (Map.Entry<UUID, long[]> entry : storage.readStats().entrySet()) {
+			TwoZeroFourEightStats.get(entry.getKey()).add(entry.getValue());
+		}
+		TwoZeroFourEightStats.loaded = true;
+	}
+
+	/**
+	 * Queues writing the statistics of all players, which can be done from any
+	 * thread
+	 * <p>
+	 * Nothing is written until the stored statistics have been read, since the
+	 * counters would only hold what happened since the server started, and would
+	 * replace the stored statistics. A write that comes first reads them, and is
+	 * skipped if that fails. The counters are read when the write happens.
+	 */
+	static void flush() {
+		TwoZeroFourEightStorageWriter.execute(storage -> {
+			TwoZeroFourEightStats.read(storage);
+			Map<UUID, long[]> stats = new HashMap<>();
+			for (Map.Entry<UUID, TwoZeroFourEightStats> entry : TwoZeroFourEightStats.PLAYERS.entrySet()) {
+				stats.put(entry.getKey(), entry.getValue().toCounters());
+			}
+			storage.writeStats(stats);
+		});
+	}
+
+	/**
+	 * Gets the unique id of the player
+	 *
+	 * @return the unique id
+	 */
+	UUID getPlayer() {
+		return this.player;
+	}
+
+	/**
+	 * Reads the counters
+	 *
+	 * @return the counters, in the order of {@link #COLUMNS}
+	 */
+	private long[] toCounters() {
+		return new long[] { this.games.sum(), this.finished.sum(), this.totalScore.sum(), this.moves.sum(),
+				this.merges.sum(), this.ticks.sum(), this.highestTile.get() };
+	}
+
+	/**
+	 * Adds stored counters to the counters
+	 *
+	 * @param counters the counters, in the order of {@link #COLUMNS}
+	 */
+	private void add(long[] counters) {
+		this.games.add(counters[0]);
+		this.finished.add(counters[1]);
+		this.totalScore.add(counters[2]);
+		this.moves.add(counters[3]);
+		this.merges.add(counters[4]);
+		this.ticks.add(counters[5]);
+		this.highestTile.accumulate(counters[6]);
+	}
+
+	/**
+	 * Records that a game has started
+	 */
+	void recordGame() {
+		this.games.increment();
+	}
+
+	/**
+	 * Records a move
+	 */
+	void recordMove() {
+		this.moves.increment();
+	}
+
+	/**
+	 * Records a merge
+	 *
+	 * @param value the value of the merged tile
+	 */
+	void recordMerge(int value) {
+		this.merges.increment();
+		this.highestTile.accumulate(value);
+	}
+
+	/**
+	 * Records a tick spent in a game
+	 */
+	void recordTick() {
+		this.ticks.increment();
+	}
+
+	/**
+	 * Records the score of a game that was won or lost
+	 * <p>
+	 * A game that is continued after it is won is only counted once. When it is
+	 * lost later, only the score gained since is added.
+	 *
+	 * @param score         the final score
+	 * @param previousScore the score that was already recorded for this game, or
+	 *                      -1 if none was recorded yet
+	 */
+	void recordFinish(int score, int previousScore) {
+		if (previousScore < 0) {
+			this.finished.increment();
+			this.totalScore.add(score);
+		} else {
+			this.totalScore.add(score - previousScore);
+		}
+	}
+
+	/**
+	 * Formats the statistics for chat
+	 *
+	 * @return the lines of the statistics
+	 */
+	String[] format() {
+		long finishedGames = this.finished.sum();
+		long seconds = this.ticks.sum() / 20;
+		return new String[] { "Games played: " + this.games.sum(), "Moves: " + this.moves.sum(),
+				"Merges: " + this.merges.sum(), "Highest tile: " + this.highestTile.get(),
+				"Average score: " + (finishedGames == 0 ? 0 : this.totalScore.sum() / finishedGames),
+				String.format("Time played: %d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60) };
+	}
+}
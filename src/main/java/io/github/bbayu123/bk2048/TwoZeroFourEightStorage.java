@@ -0,0 +1,263 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This is where the statistics and the finished games of the 2048 game are
+ * kept
+ * <p>
+ * An implementation is only ever called from the single thread of the
+ * {@link TwoZeroFourEightStorageWriter}, so it does not have to be thread-safe,
+ * and the game never waits for it. There is one implementation that keeps
+ * everything in flat files, and one that keeps everything in an SQLite
+ * database in the plugin folder.
+ * <p>
+ * Statistics are passed around as arrays of counters, in the order of
+ * {@link TwoZeroFourEightStats#COLUMNS}.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+interface TwoZeroFourEightStorage {
+	/**
+	 * Opens the storage, creating whatever it needs
+	 *
+	 * @throws IOException if the storage cannot be opened
+	 */
+	void open() throws IOException;
+
+	/**
+	 * Closes the storage
+	 *
+	 * @throws IOException if the storage cannot be closed cleanly
+	 */
+	void close() throws IOException;
+
+	/**
+	 * Reads the statistics of all players
+	 *
+	 * @return the counters of each player, by unique id
+	 * @throws IOException if the statistics cannot be read
+	 */
+	Map<UUID, long[]> readStats() throws IOException;
+
+	/**
+	 * Writes the statistics of all players, replacing what was written before
+	 *
+	 * @param stats the counters of each player, by unique id
+	 * @throws IOException if the statistics cannot be written
+	 */
+	void writeStats(Map<UUID, long[]> stats) throws IOException;
+
+	/**
+	 * Writes finished games in one go
+	 * <p>
+	 * A game that was already written, because it was won and then continued,
+	 * is replaced.
+	 *
+	 * @param games the finished games
+	 * @throws IOException if the games cannot be written, in which case none of
+	 *                     them are
+	 */
+	void writeGames(List<Game> games) throws IOException;
+
+	/**
+	 * Reads the games with the highest scores
+	 *
+	 * @param limit the number of games
+	 * @return the games, highest score first
+	 * @throws IOException if the games cannot be read
+	 */
+	List<Game> readTopGames(int limit) throws IOException;
+
+	/**
+	 * Reads the most recent games of a player
+	 *
+	 * @param player the unique id of the player
+	 * @param limit  the number of games
+	 * @return the games, most recent first
+	 * @throws IOException if the games cannot be read
+	 */
+	List<Game> readRecentGames(UUID player, int limit) throws IOException;
+
+	/**
+	 * This is a game that was won or lost
+	 * <p>
+	 * A game is identified by its player and its seed. The replay holds one byte
+	 * per move, which is a direction of {@link TwoZeroFourEightEngine}, or
+	 * {@link #UNDO} for an undo. Together with the seed, it plays the game again
+	 * from the start.
+	 *
+	 * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+	 */
+	final class Game {
+		/**
+		 * The replay byte of an undo
+		 */
+		static final byte UNDO = 4;
+
+		/**
+		 * The unique id of the player
+		 */
+		private final UUID player;
+		/**
+		 * The name of the player when the game finished
+		 */
+		private final String name;
+		/**
+		 * The seed of the game
+		 */
+		private final long seed;
+		/**
+		 * When the game finished, in milliseconds since the epoch
+		 */
+		private final long finishedAt;
+		/**
+		 * The final score
+		 */
+		private final int score;
+		/**
+		 * The highest tile on the board
+		 */
+		private final int highestTile;
+		/**
+		 * The number of moves
+		 */
+		private final int moves;
+		/**
+		 * Whether the winning tile was reached
+		 */
+		private final boolean won;
+		/**
+		 * The replay, or {@code null} if the game was not played from the start on
+		 * this server, or was part of a race
+		 */
+		private final byte[] replay;
+
+		/**
+		 * Creates a finished game
+		 *
+		 * @param player      the unique id of the player
+		 * @param name        the name of the player
+		 * @param seed        the seed of the game
+		 * @param finishedAt  when the game finished, in milliseconds since the epoch
+		 * @param score       the final score
+		 * @param highestTile the highest tile on the board
+		 * @param moves       the number of moves
+		 * @param won         whether the winning tile was reached
+		 * @param replay      the replay, or {@code null} if there is none
+		 */
+		Game(UUID player, String name, long seed, long finishedAt, int score, int highestTile, int moves,
+				boolean won, byte[] replay) {
+			this.player = player;
+			this.name = name;
+			this.seed = seed;
+			this.finishedAt = finishedAt;
+			this.score = score;
+			this.highestTile = highestTile;
+			this.moves = moves;
+			this.won = won;
+			this.replay = replay;
+		}
+
+		/**
+		 * Gets the unique id of the player
+		 *
+		 * @return the unique id
+		 */
+		public UUID getPlayer() {
+			return this.player;
+		}
+
+		/**
+		 * Gets the name of the player when the game finished
+		 *
+		 * @return the name
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * Gets the seed of the game
+		 *
+		 * @return the seed
+		 */
+		public long getSeed() {
+			return this.seed;
+		}
+
+		/**
+		 * Gets when the game finished
+		 *
+		 * @return the time in milliseconds since the epoch
+		 */
+		public long getFinishedAt() {
+			return this.finishedAt;
+		}
+
+		/**
+		 * Gets the final score
+		 *
+		 * @return the score
+		 */
+		public int getScore() {
+			return this.score;
+		}
+
+		/**
+		 * Gets the highest tile on the board
+		 *
+		 * @return the value of the tile
+		 */
+		public int getHighestTile() {
+			return this.highestTile;
+		}
+
+		/**
+		 * Gets the number of moves
+		 *
+		 * @return the number of moves
+		 */
+		public int getMoves() {
+			return this.moves;
+		}
+
+		/**
+		 * Checks whether the winning tile was reached
+		 *
+		 * @return whether the game was won
+		 */
+		public boolean isWon() {
+			return this.won;
+		}
+
+		/**
+		 * Gets the replay
+		 *
+		 * @return the replay, or {@code null} if there is none
+		 */
+		public byte[] getReplay() {
+			return this.replay;
+		}
+	}
+}
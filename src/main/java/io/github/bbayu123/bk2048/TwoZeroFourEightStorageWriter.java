@@ -0,0 +1,314 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * This is the one thread that talks to the {@link TwoZeroFourEightStorage}
+ * <p>
+ * Everything that reads or writes the storage is queued here, so the main
+ * thread never waits for a disk or a database. Because there is only one
+ * thread, everything happens in the order it was queued, and the storage does
+ * not have to be thread-safe.
+ * <p>
+ * Finished games are collected in a queue, and written in batches. While a
+ * batch is being written, new games keep piling up, and go into the next
+ * batch, so a busy server writes fewer, larger transactions.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightStorageWriter {
+	/**
+	 * How long the server waits for the queued work when it stops, in seconds
+	 */
+	private static final long STOP_TIMEOUT_SECONDS = 30L;
+
+	/**
+	 * The writer that is currently running, or {@code null} if there is none
+	 */
+	private static volatile TwoZeroFourEightStorageWriter current = null;
+
+	/**
+	 * The plugin, which logs problems and receives the results of queries
+	 */
+	private final Plugin plugin;
+	/**
+	 * The number of games that are written in one transaction at most
+	 */
+	private final int batchSize;
+	/**
+	 * The thread that does all the work
+	 */
+	private final ExecutorService executor;
+	/**
+	 * The games that are waiting to be written
+	 */
+	private final Queue<TwoZeroFourEightStorage.Game> pending = new ConcurrentLinkedQueue<>();
+	/**
+	 * Whether writing the pending games has been queued already
+	 */
+	private final AtomicBoolean draining = new AtomicBoolean();
+	/**
+	 * The batch that is being written, which is only used by the thread
+	 */
+	private final List<TwoZeroFourEightStorage.Game> batch = new ArrayList<>();
+
+	/**
+	 * The storage, which is only used by the thread
+	 */
+	private TwoZeroFourEightStorage storage;
+
+	/**
+	 * Creates a writer
+	 *
+	 * @param plugin    the plugin
+	 * @param storage   the storage
+	 * @param batchSize the number of games that are written in one transaction at
+	 *                  most
+	 */
+	private TwoZeroFourEightStorageWriter(Plugin plugin, TwoZeroFourEightStorage storage, int batchSize) {
+		this.plugin = plugin;
+		this.storage = storage;
+		this.batchSize = batchSize;
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "BK2048 Storage");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Starts the writer, which opens the storage on its thread
+	 * <p>
+	 * If the storage cannot be opened, flat files are used instead, so that
+	 * nothing is lost.
+	 *
+	 * @param plugin    the plugin
+	 * @param storage   the storage
+	 * @param batchSize the number of games that are written in one transaction at
+	 *                  most
+	 */
+	static void start(Plugin plugin, TwoZeroFourEightStorage storage, int batchSize) {
+		TwoZeroFourEightStorageWriter writer = new TwoZeroFourEightStorageWriter(plugin, storage, batchSize);
+		writer.executor.execute(writer::open);
+		TwoZeroFourEightStorageWriter.current = writer;
+	}
+
+	/**
+	 * Stops the writer, waiting until everything that was queued has been written
+	 * and the storage is closed
+	 */
+	static void stop() {
+		TwoZeroFourEightStorageWriter writer = TwoZeroFourEightStorageWriter.current;
+		if (writer == null) {
+			return;
+		}
+		TwoZeroFourEightStorageWriter.current = null;
+		writer.executor.execute(writer::drain);
+		writer.executor.execute(writer::close);
+		writer.executor.shutdown();
+		try {
+			if (!writer.executor.awaitTermination(TwoZeroFourEightStorageWriter.STOP_TIMEOUT_SECONDS,
+					TimeUnit.SECONDS)) {
+				writer.plugin.getLogger().warning("Gave up waiting for the storage to finish writing");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues a finished game to be written, which can be done from any thread
+	 *
+	 * @param game the finished game
+	 */
+	static void submit(TwoZeroFourEightStorage.Game game) {
+		TwoZeroFourEightStorageWriter writer = TwoZeroFourEightStorageWriter.current;
+		if (writer == null) {
+			return;
+		}
+		writer.pending.add(game);
+		if (writer.draining.compareAndSet(false, true)) {
+			writer.executor.execute(writer::drain);
+		}
+	}
+
+	/**
+	 * Queues work on the storage
+	 *
+	 * @param task the work
+	 */
+	static void execute(Task task) {
+		TwoZeroFourEightStorageWriter writer = TwoZeroFourEightStorageWriter.current;
+		if (writer == null) {
+			return;
+		}
+		writer.executor.execute(() -> {
+			try {
+				task.run(writer.storage);
+			} catch (IOException e) {
+				writer.plugin.getLogger().warning("Could not access the storage: " + e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Queues a query on the storage, and passes its result to a callback on the
+	 * main thread
+	 * <p>
+	 * The query sees every game that was submitted before it.
+	 *
+	 * @param <T>      the type of the result
+	 * @param query    the query
+	 * @param callback called on the main thread with the result, or with
+	 *                 {@code null} if the query failed
+	 */
+	static <T> void query(Query<T> query, Consumer<T> callback) {
+		TwoZeroFourEightStorageWriter writer = TwoZeroFourEightStorageWriter.current;
+		if (writer == null) {
+			callback.accept(null);
+			return;
+		}
+		writer.executor.execute(() -> {
+			writer.drain();
+			T result;
+			try {
+				result = query.run(writer.storage);
+			} catch (IOException e) {
+				writer.plugin.getLogger().warning("Could not read from the storage: " + e.getMessage());
+				result = null;
+			}
+			T delivered = result;
+			Bukkit.getScheduler().runTask(writer.plugin, () -> callback.accept(delivered));
+		});
+	}
+
+	/**
+	 * Opens the storage, falling back to flat files if it cannot be opened
+	 */
+	private void open() {
+		try {
+			this.storage.open();
+			return;
+		} catch (IOException e) {
+			if (this.storage instanceof TwoZeroFourEightFileStorage) {
+				this.plugin.getLogger().severe("Could not open the storage: " + e.getMessage());
+				return;
+			}
+			this.plugin.getLogger()
+					.warning("Could not open the storage, using flat files instead: " + e.getMessage());
+		}
+		this.storage = new TwoZeroFourEightFileStorage(this.plugin.getDataFolder());
+		try {
+			this.storage.open();
+		} catch (IOException e) {
+			this.plugin.getLogger().severe("Could not open the storage: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes all pending games, in batches
+	 */
+	private void drain() {
+		this.draining.set(false);
+		TwoZeroFourEightStorage.Game game;
+		while ((game = this.pending.poll()) != null) {
+			this.batch.add(game);
+			if (this.batch.size() >= this.batchSize) {
+				this.writeBatch();
+			}
+		}
+		if (!this.batch.isEmpty()) {
+			this.writeBatch();
+		}
+	}
+
+	/**
+	 * Writes the current batch in one transaction
+	 * <p>
+	 * If that fails, the games in the batch are dropped, so that a broken storage
+	 * cannot fill up the memory.
+	 */
+	private void writeBatch() {
+		try {
+			this.storage.writeGames(this.batch);
+		} catch (IOException e) {
+			this.plugin.getLogger()
+					.warning("Could not save " + this.batch.size() + " finished games: " + e.getMessage());
+		}
+		this.batch.clear();
+	}
+
+	/**
+	 * Closes the storage
+	 */
+	private void close() {
+		try {
+			this.storage.close();
+		} catch (IOException e) {
+			this.plugin.getLogger().warning("Could not close the storage: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * This is work that is done on the storage
+	 *
+	 * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+	 */
+	@FunctionalInterface
+	interface Task {
+		/**
+		 * Does the work
+		 *
+		 * @param storage the storage
+		 * @throws IOException if the storage fails
+		 */
+		void run(TwoZeroFourEightStorage storage) throws IOException;
+	}
+
+	/**
+	 * This is a query that reads from the storage
+	 *
+	 * @param <T> the type of the result
+	 * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+	 */
+	@FunctionalInterface
+	interface Query<T> {
+		/**
+		 * Runs the query
+		 *
+		 * @param storage the storage
+		 * @return the result
+		 * @throws IOException if the storage fails
+		 */
+		T run(TwoZeroFourEightStorage storage) throws IOException;
+	}
+}
@@ -0,0 +1,409 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This is a solved table of every position on a small board
+ * <p>
+ * A tablebase is made by {@link TwoZeroFourEightTablebaseGenerator} for one
+ * merge rule and one board size. It holds, for every position that can be
+ * reached on that board, the move that gives the highest expected final score
+ * and that expected score. Looking up a position replaces the whole search, and
+ * the answer is perfect rather than a few moves deep.
+ * <p>
+ * Like the weights of a {@link TwoZeroFourEightNTupleNetwork}, the file is
+ * mapped into memory with {@link FileChannel#map} instead of being loaded onto
+ * the heap. A lookup is a binary search in the mapped file, so only the pages
+ * that are actually looked at are ever read. A 3x3 board has too many
+ * positions for a single mapping, so the positions are mapped in chunks.
+ * <p>
+ * The file is little-endian. It starts with {@link #MAGIC}, the ordinal of the
+ * merge rule, the number of rows and columns, the chance for a rank 2 tile
+ * that it was solved for, and the number of layers. Positions are grouped into
+ * layers by the sum of their tiles, which only ever grows, and for each layer
+ * its sum and the number of positions follow. Then come the positions of all
+ * layers in the same order, each layer sorted, as one {@code long} each: the
+ * key of the position in the top bits, the best move plus 1 (0 if the game is
+ * over), and the expected score in eighths of a point.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightTablebase {
+	/**
+	 * The first 4 bytes of a tablebase file
+	 */
+	static final int MAGIC = 0x54424153;
+
+	/**
+	 * The largest number of cells on a board that a tablebase can cover, which
+	 * keeps the key of a position within 36 bits
+	 */
+	static final int MAX_CELLS = 9;
+
+	/**
+	 * The number of positions in each mapped chunk is 2 to the power of this
+	 */
+	private static final int CHUNK_BITS = 27;
+
+	/**
+	 * Where the key starts in a position
+	 */
+	private static final int KEY_SHIFT = 27;
+	/**
+	 * Where the best move starts in a position
+	 */
+	private static final int MOVE_SHIFT = 24;
+	/**
+	 * The bits of the expected score in a position
+	 */
+	private static final int SCORE_MASK = (1 << TwoZeroFourEightTablebase.MOVE_SHIFT) - 1;
+	/**
+	 * The number of steps per point of the expected score
+	 */
+	private static final float SCORE_STEPS = 8f;
+
+	/**
+	 * The merge rule that the tablebase was solved for
+	 */
+	private final TwoZeroFourEightRules.Merge merge;
+	/**
+	 * The chance for a rank 2 tile that the tablebase was solved for
+	 */
+	private final float fourProbability;
+	/**
+	 * The number of rows of the board
+	 */
+	private final int rows;
+	/**
+	 * The number of columns of the board
+	 */
+	private final int cols;
+	/**
+	 * The sum of the tiles in each layer, in increasing order
+	 */
+	private final int[] sums;
+	/**
+	 * The index of the first position of each layer, and the number of positions
+	 * at the end
+	 */
+	private final int[] starts;
+	/**
+	 * The mapped chunks of positions
+	 */
+	private final ByteBuffer[] chunks;
+
+	/**
+	 * Creates a tablebase from a mapped file
+	 *
+	 * @param merge           the merge rule
+	 * @param fourProbability the chance for a rank 2 tile that it was solved for
+	 * @param rows            the number of rows
+	 * @param cols            the number of columns
+	 * @param sums            the sum of the tiles in each layer
+	 * @param starts          the index of the first position of each layer
+	 * @param chunks          the mapped chunks of positions
+	 */
+	private TwoZeroFourEightTablebase(TwoZeroFourEightRules.Merge merge, float fourProbability, int rows, int cols,
+			int[] sums, int[] starts, ByteBuffer[] chunks) {
+		this.merge = merge;
+		this.fourProbability = fourProbability;
+		this.rows = rows;
+		this.cols = cols;
+		this.sums = sums;
+		this.starts = starts;
+		this.chunks = chunks;
+	}
+
+	/**
+	 * Maps a tablebase file into memory
+	 *
+	 * @param file the tablebase file
+	 * @return the tablebase
+	 * @throws IOException if the file cannot be read, or is not a tablebase file
+	 */
+	static TwoZeroFourEightTablebase map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+			TwoZeroFourEightTablebase.fill(channel, header, 0L);
+			if (header.getInt(0) != TwoZeroFourEightTablebase.MAGIC) {
+				throw new IOException("Not a tablebase file: " + file.getName());
+			}
+			TwoZeroFourEightRules.Merge[] merges = TwoZeroFourEightRules.Merge.values();
+			int merge = header.getInt(4), rows = header.getInt(8), cols = header.getInt(12);
+			float fourProbability = header.getFloat(16);
+			int layers = header.getInt(20);
+			if (merge < 0 || merge >= merges.length || rows < 2 || cols < 2 || rows > 4 || cols > 4
+					|| rows * cols > TwoZeroFourEightTablebase.MAX_CELLS
+					|| !(fourProbability >= 0f && fourProbability <= 1f) || layers < 0
+					|| 24L + 8L * layers > channel.size()) {
+				throw new IOException("Tablebase file has a bad header: " + file.getName());
+			}
+
+			ByteBuffer table = ByteBuffer.allocate(8 * layers).order(ByteOrder.LITTLE_ENDIAN);
+			TwoZeroFourEightTablebase.fill(channel, table, 24L);
+			int[] sums = new int[layers], starts = new int[layers + 1];
+			long count = 0L;
+			for (int layer = 0; layer < layers; layer++) {
+				sums[layer] = table.getInt(8 * layer);
+				starts[layer] = (int) count;
+				count += table.getInt(8 * layer + 4);
+			}
+			long base = 24L + 8L * layers;
+			if (count > Integer.MAX_VALUE || base + 8L * count != channel.size()) {
+				throw new IOException("Tablebase file has the wrong size: " + file.getName());
+			}
+			starts[layers] = (int) count;
+
+			// The mappings stay valid after the channel is closed
+			int chunkSize = 1 << TwoZeroFourEightTablebase.CHUNK_BITS;
+			ByteBuffer[] chunks = new ByteBuffer[(int) ((count + chunkSize - 1) / chunkSize)];
+			for (int chunk = 0; chunk < chunks.length; chunk++) {
+				long first = (long) chunk * chunkSize;
+				chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, base + 8L * first,
+						8L * Math.min(chunkSize, count - first)).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return new TwoZeroFourEightTablebase(merges[merge], fourProbability, rows, cols, sums, starts, chunks);
+		}
+	}
+
+	/**
+	 * Reads part of a file completely into a buffer
+	 *
+	 * @param channel  the channel to read from
+	 * @param buffer   the buffer to fill
+	 * @param position where to start reading in the file
+	 * @throws IOException if the file ends too early, or reading fails
+	 */
+	private static void fill(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Tablebase file is too short");
+			}
+		}
+	}
+
+	/**
+	 * Writes a tablebase file
+	 *
+	 * @param file            the tablebase file
+	 * @param merge           the merge rule
+	 * @param rows            the number of rows
+	 * @param cols            the number of columns
+	 * @param fourProbability the chance for a rank 2 tile that it was solved for
+	 * @param sums            the sum of the tiles in each layer, in increasing order
+	 * @param layers          the sorted positions of each layer
+	 * @throws IOException if the file cannot be written
+	 */
+	static void write(File file, TwoZeroFourEightRules.Merge merge, int rows, int cols, double fourProbability,
+			int[] sums, long[][] layers) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(TwoZeroFourEightTablebase.MAGIC).putInt(merge.ordinal()).putInt(rows).putInt(cols)
+					.putFloat((float) fourProbability).putInt(sums.length);
+			for (int layer = 0; layer < sums.length; layer++) {
+				if (!buffer.hasRemaining()) {
+					TwoZeroFourEightTablebase.drain(channel, buffer);
+				}
+				buffer.putInt(sums[layer]).putInt(layers[layer].length);
+			}
+			for (long[] layer : layers) {
+				for (long position : layer) {
+					if (!buffer.hasRemaining()) {
+						TwoZeroFourEightTablebase.drain(channel, buffer);
+					}
+					buffer.putLong(position);
+				}
+			}
+			TwoZeroFourEightTablebase.drain(channel, buffer);
+		}
+	}
+
+	/**
+	 * Writes out a buffer completely, and clears it
+	 *
+	 * @param channel the channel to write to
+	 * @param buffer  the buffer to write
+	 * @throws IOException if writing fails
+	 */
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Checks whether the tablebase was solved for the rules of a game
+	 * <p>
+	 * The winning tile and the obstacles that are placed on a new board do not
+	 * matter here. A position with an obstacle inside the board is simply not
+	 * found. The expected scores only hold for the chance of a rank 2 tile that
+	 * the tablebase was solved for, which is stored as a {@code float}.
+	 *
+	 * @param rules           the rules of the game
+	 * @param fourProbability the chance for a rank 2 tile in the game
+	 * @return whether the merge rule, the size of the board and the chance match
+	 */
+	boolean covers(TwoZeroFourEightRules rules, double fourProbability) {
+		return rules.getMerge() == this.merge && rules.getRows() == this.rows && rules.getCols() == this.cols
+				&& (float) fourProbability == this.fourProbability;
+	}
+
+	/**
+	 * Looks up a position
+	 *
+	 * @param board the packed board, with obstacles around the small board
+	 * @return the stored position, or -1 if the position is not in the tablebase
+	 * @see #getMove(long)
+	 * @see #getExpectedScore(long)
+	 */
+	long find(long board) {
+		long key = TwoZeroFourEightTablebase.toKey(this.rows, this.cols, board);
+		if (key == -1L) {
+			return -1L;
+		}
+		int sum = 0;
+		for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+			int rank = TwoZeroFourEightEngine.getCell(board, index);
+			if (rank != 0 && rank != TwoZeroFourEightRules.OBSTACLE_RANK) {
+				sum += this.merge.getValue(rank);
+			}
+		}
+		int layer = Arrays.binarySearch(this.sums, sum);
+		if (layer < 0) {
+			return -1L;
+		}
+
+		int low = this.starts[layer], high = this.starts[layer + 1] - 1;
+		while (low <= high) {
+			int middle = low + high >>> 1;
+			long position = this.chunks[middle >>> TwoZeroFourEightTablebase.CHUNK_BITS]
+					.getLong((middle & (1 << TwoZeroFourEightTablebase.CHUNK_BITS) - 1) << 3);
+			long found = position >>> TwoZeroFourEightTablebase.KEY_SHIFT;
+			if (found < key) {
+				low = middle + 1;
+			} else if (found > key) {
+				high = middle - 1;
+			} else {
+				return position;
+			}
+		}
+		return -1L;
+	}
+
+	/**
+	 * Packs a position for the tablebase
+	 *
+	 * @param key           the key of the position
+	 * @param move          the best move, or -1 if the game is over
+	 * @param expectedScore the expected score of the rest of the game
+	 * @return the stored position
+	 */
+	static long toPosition(long key, int move, double expectedScore) {
+		long score = Math.min(TwoZeroFourEightTablebase.SCORE_MASK,
+				Math.round(expectedScore * TwoZeroFourEightTablebase.SCORE_STEPS));
+		return key << TwoZeroFourEightTablebase.KEY_SHIFT | (long) (move + 1) << TwoZeroFourEightTablebase.MOVE_SHIFT
+				| score;
+	}
+
+	/**
+	 * Gets the key of a stored position
+	 *
+	 * @param position the stored position
+	 * @return the key
+	 */
+	static long getKey(long position) {
+		return position >>> TwoZeroFourEightTablebase.KEY_SHIFT;
+	}
+
+	/**
+	 * Gets the best move of a stored position
+	 *
+	 * @param position the stored position
+	 * @return the direction of the best move, or -1 if the game is over
+	 * @see TwoZeroFourEightEngine
+	 */
+	static int getMove(long position) {
+		return (int) (position >>> TwoZeroFourEightTablebase.MOVE_SHIFT & 7) - 1;
+	}
+
+	/**
+	 * Gets the expected score of the rest of the game from a stored position,
+	 * when the best move is always made
+	 *
+	 * @param position the stored position
+	 * @return the expected score
+	 */
+	static float getExpectedScore(long position) {
+		return (position & TwoZeroFourEightTablebase.SCORE_MASK) / TwoZeroFourEightTablebase.SCORE_STEPS;
+	}
+
+	/**
+	 * Gets the key of a position, which holds the ranks of the cells of the small
+	 * board, 4 bits each, in reading order
+	 *
+	 * @param rows  the number of rows
+	 * @param cols  the number of columns
+	 * @param board the packed board
+	 * @return the key, or -1 if a cell of the small board holds an obstacle
+	 */
+	static long toKey(int rows, int cols, long board) {
+		long key = 0L;
+		int shift = 0;
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++) {
+				long rank = TwoZeroFourEightEngine.getCell(board, row * 4 + col);
+				if (rank == TwoZeroFourEightRules.OBSTACLE_RANK) {
+					return -1L;
+				}
+				key |= rank << shift;
+				shift += 4;
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Turns a key back into a packed board
+	 *
+	 * @param rules the rules of the small board
+	 * @param key   the key
+	 * @return the packed board, with obstacles around the small board
+	 */
+	static long fromKey(TwoZeroFourEightRules rules, long key) {
+		long board = rules.getLayout();
+		int shift = 0;
+		for (int row = 0; row < rules.getRows(); row++) {
+			for (int col = 0; col < rules.getCols(); col++) {
+				board = TwoZeroFourEightEngine.setCell(board, row * 4 + col, (int) (key >>> shift & 0xF));
+				shift += 4;
+			}
+		}
+		return board;
+	}
+}
@@ -0,0 +1,370 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * This solves a small board completely, and writes a
+ * {@link TwoZeroFourEightTablebase}
+ * <p>
+ * The generator runs on its own, without a server. It first finds every
+ * position that can be reached from a new game, and then works backwards from
+ * the positions with the most tiles to find the expected score of each
+ * position when the best move is always made. Because the sum of the tiles
+ * grows by the spawned tile with every move, and never changes otherwise, the
+ * positions fall into layers by that sum, and each layer only depends on the
+ * layers above it.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * java -Xmx16G -cp bk2048-poc.jar io.github.bbayu123.bk2048.TwoZeroFourEightTablebaseGenerator &lt;output&gt; &lt;rules&gt; &lt;rows&gt;x&lt;cols&gt; [four probability]
+ * </pre>
+ *
+ * A 2x2 or 2x3 board is solved in seconds. A 3x3 board has hundreds of
+ * millions of positions, and needs a heap of 16 gigabytes or more and a long
+ * time. The output file can then be placed in the plugin folder, see
+ * {@code config.yml}.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightTablebaseGenerator {
+	/**
+	 * How many layers are worked through between progress reports
+	 */
+	private static final int REPORT_INTERVAL = 100;
+
+	/**
+	 * The rules of the board that is solved
+	 */
+	private final TwoZeroFourEightRules rules;
+	/**
+	 * The chance for a new tile to have rank 2
+	 */
+	private final double fourProbability;
+	/**
+	 * The positions of each layer, by the sum of their tiles. These are keys after
+	 * the first pass, and stored positions after the second.
+	 */
+	private final TreeMap<Integer, long[]> layers = new TreeMap<>();
+
+	/**
+	 * Creates a generator
+	 *
+	 * @param rules           the rules of the board
+	 * @param fourProbability the chance for a new tile to have rank 2
+	 */
+	private TwoZeroFourEightTablebaseGenerator(TwoZeroFourEightRules rules, double fourProbability) {
+		this.rules = rules;
+		this.fourProbability = fourProbability;
+	}
+
+	/**
+	 * Solves a board, and writes the tablebase to a file
+	 *
+	 * @param args the output file, the merge rule, the size of the board, and
+	 *             optionally the chance for a new tile to have rank 2
+	 * @throws IOException if the output file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		TwoZeroFourEightRules.Merge merge = args.length < 3 ? null : TwoZeroFourEightRules.Merge.fromName(args[1]);
+		if (merge == null || !args[2].matches("[2-4]x[2-4]")) {
+			System.err.println("Usage: TwoZeroFourEightTablebaseGenerator <output> <rules> <rows>x<cols> "
+					+ "[four probability]");
+			System.exit(1);
+		}
+		File output = new File(args[0]);
+		int rows = args[2].charAt(0) - '0', cols = args[2].charAt(2) - '0';
+		if (rows * cols > TwoZeroFourEightTablebase.MAX_CELLS) {
+			System.err.println("A tablebase covers at most " + TwoZeroFourEightTablebase.MAX_CELLS + " cells");
+			System.exit(1);
+		}
+		double fourProbability = args.length > 3 ? Double.parseDouble(args[3])
+				: TwoZeroFourEightSpawnSequence.FOUR_PROBABILITY;
+
+		TwoZeroFourEightTablebaseGenerator generator = new TwoZeroFourEightTablebaseGenerator(
+				TwoZeroFourEightRules.compile(merge, merge.getDefaultWinTile(), 0, rows, cols), fourProbability);
+		long start = System.nanoTime();
+		long count = generator.explore();
+		System.out.printf("Found %d positions in %d layers in %.1f s%n", count, generator.layers.size(),
+				(System.nanoTime() - start) / 1e9);
+		double expected = generator.solve();
+		System.out.printf("Solved in %.1f s, a new game scores %.1f on average%n", (System.nanoTime() - start) / 1e9,
+				expected);
+
+		int[] sums = new int[generator.layers.size()];
+		long[][] positions = new long[sums.length][];
+		int layer = 0;
+		for (Map.Entry<Integer, long[]> entry : generator.layers.entrySet()) {
+			sums[layer] = entry.getKey();
+			positions[layer++] = entry.getValue();
+		}
+		TwoZeroFourEightTablebase.write(output, merge, rows, cols, fourProbability, sums, positions);
+		System.out.println("Wrote " + output.length() + " bytes to " + output);
+	}
+
+	/**
+	 * Finds every position that can be reached from a new game, layer by layer
+	 *
+	 * @return the number of positions
+	 */
+	private long explore() {
+		TreeMap<Integer, KeySet> pending = new TreeMap<>();
+		long layout = this.rules.getLayout();
+		for (int first = 0; first < TwoZeroFourEightEngine.CELLS; first++) {
+			for (int second = first + 1; second < TwoZeroFourEightEngine.CELLS; second++) {
+				if (!this.rules.isPlayable(first) || !this.rules.isPlayable(second)) {
+					continue;
+				}
+				for (int firstRank = 1; firstRank <= 2; firstRank++) {
+					for (int secondRank = 1; secondRank <= 2; secondRank++) {
+						long board = TwoZeroFourEightEngine.setCell(
+								TwoZeroFourEightEngine.setCell(layout, first, firstRank), second, secondRank);
+						this.add(pending, this.rules.toValue(firstRank) + this.rules.toValue(secondRank), board);
+					}
+				}
+			}
+		}
+
+		long count = 0L;
+		while (!pending.isEmpty()) {
+			Map.Entry<Integer, KeySet> next = pending.pollFirstEntry();
+			int sum = next.getKey();
+			long[] keys = next.getValue().toSortedArray();
+			this.layers.put(sum, keys);
+			count += keys.length;
+
+			for (long key : keys) {
+				long board = TwoZeroFourEightTablebase.fromKey(this.rules, key);
+				for (int direction = 0; direction < 4; direction++) {
+					long moved = this.rules.move(board, direction);
+					if (moved == board) {
+						continue;
+					}
+					for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+						if (TwoZeroFourEightEngine.getCell(moved, index) == 0) {
+							for (int rank = 1; rank <= 2; rank++) {
+								this.add(pending, sum + this.rules.toValue(rank),
+										TwoZeroFourEightEngine.setCell(moved, index, rank));
+							}
+						}
+					}
+				}
+			}
+			if (this.layers.size() % TwoZeroFourEightTablebaseGenerator.REPORT_INTERVAL == 0) {
+				System.out.printf("Explored up to a sum of %d, %d positions%n", sum, count);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Adds a position to the layer it belongs to
+	 *
+	 * @param pending the layers that are still being filled
+	 * @param sum     the sum of the tiles of the position
+	 * @param board   the packed board
+	 */
+	private void add(TreeMap<Integer, KeySet> pending, int sum, long board) {
+		pending.computeIfAbsent(sum, s -> new KeySet())
+				.add(TwoZeroFourEightTablebase.toKey(this.rules.getRows(), this.rules.getCols(), board));
+	}
+
+	/**
+	 * Works out the best move and expected score of every position, from the last
+	 * layer to the first
+	 * <p>
+	 * The positions of a layer do not depend on each other, so each layer is
+	 * solved in parallel.
+	 *
+	 * @return the average expected score of a new game
+	 */
+	private double solve() {
+		int solved = 0;
+		for (Map.Entry<Integer, long[]> entry : this.layers.descendingMap().entrySet()) {
+			int sum = entry.getKey();
+			long[] layer = entry.getValue();
+			long[] two = this.layers.get(sum + this.rules.toValue(1));
+			long[] four = this.layers.get(sum + this.rules.toValue(2));
+			IntStream.range(0, layer.length).parallel().forEach(i -> layer[i] = this.solve(layer[i], two, four));
+			if (++solved % TwoZeroFourEightTablebaseGenerator.REPORT_INTERVAL == 0) {
+				System.out.printf("Solved down to a sum of %d%n", sum);
+			}
+		}
+
+		// Every starting position is as likely as any other with the same tiles
+		double total = 0.0, weight = 0.0;
+		for (long[] layer : this.layers.headMap(this.rules.toValue(2) * 2, true).values()) {
+			for (long position : layer) {
+				long board = TwoZeroFourEightTablebase.fromKey(this.rules,
+						TwoZeroFourEightTablebase.getKey(position));
+				if (TwoZeroFourEightEngine.CELLS - TwoZeroFourEightEngine.countEmpty(board)
+						- (TwoZeroFourEightEngine.CELLS - this.rules.getRows() * this.rules.getCols()) != 2) {
+					continue;
+				}
+				double chance = 1.0;
+				for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+					int rank = TwoZeroFourEightEngine.getCell(board, index);
+					if (rank == 1 || rank == 2) {
+						chance *= rank == 2 ? this.fourProbability : 1.0 - this.fourProbability;
+					}
+				}
+				total += chance * TwoZeroFourEightTablebase.getExpectedScore(position);
+				weight += chance;
+			}
+		}
+		return weight == 0.0 ? 0.0 : total / weight;
+	}
+
+	/**
+	 * Works out the best move and expected score of a position
+	 *
+	 * @param key  the key of the position
+	 * @param two  the solved layer that a rank 1 spawn leads to, if any
+	 * @param four the solved layer that a rank 2 spawn leads to, if any
+	 * @return the stored position
+	 */
+	private long solve(long key, long[] two, long[] four) {
+		long board = TwoZeroFourEightTablebase.fromKey(this.rules, key);
+		int best = -1;
+		double bestValue = 0.0;
+		for (int direction = 0; direction < 4; direction++) {
+			long moved = this.rules.move(board, direction);
+			if (moved == board) {
+				continue;
+			}
+			double sum = 0.0;
+			int empty = 0;
+			for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+				if (TwoZeroFourEightEngine.getCell(moved, index) == 0) {
+					empty++;
+					sum += (1.0 - this.fourProbability)
+							* this.lookup(two, TwoZeroFourEightEngine.setCell(moved, index, 1));
+					sum += this.fourProbability * this.lookup(four, TwoZeroFourEightEngine.setCell(moved, index, 2));
+				}
+			}
+			double value = this.rules.score(board, direction) + sum / empty;
+			if (best == -1 || value > bestValue) {
+				best = direction;
+				bestValue = value;
+			}
+		}
+		return TwoZeroFourEightTablebase.toPosition(key, best, bestValue);
+	}
+
+	/**
+	 * Gets the expected score of a position in a solved layer
+	 *
+	 * @param layer the solved layer
+	 * @param board the packed board
+	 * @return the expected score
+	 */
+	private double lookup(long[] layer, long board) {
+		long key = TwoZeroFourEightTablebase.toKey(this.rules.getRows(), this.rules.getCols(), board);
+		int low = 0, high = layer.length - 1;
+		while (low <= high) {
+			int middle = low + high >>> 1;
+			long found = TwoZeroFourEightTablebase.getKey(layer[middle]);
+			if (found < key) {
+				low = middle + 1;
+			} else if (found > key) {
+				high = middle - 1;
+			} else {
+				return TwoZeroFourEightTablebase.getExpectedScore(layer[middle]);
+			}
+		}
+		throw new IllegalStateException("Position was not explored: " + Long.toHexString(board));
+	}
+
+	/**
+	 * This is a set of keys, using open addressing so that it holds many millions
+	 * of keys without an object for each
+	 *
+	 * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+	 */
+	private static final class KeySet {
+		/**
+		 * The keys, plus 1 so that 0 marks an empty slot
+		 */
+		private long[] slots = new long[1 << 10];
+		/**
+		 * The number of keys in the set
+		 */
+		private int size = 0;
+
+		/**
+		 * Adds a key to the set
+		 *
+		 * @param key the key, which is never negative
+		 */
+		void add(long key) {
+			if (this.size * 2 >= this.slots.length) {
+				long[] old = this.slots;
+				this.slots = new long[old.length * 2];
+				this.size = 0;
+				for (long slot : old) {
+					if (slot != 0L) {
+						this.insert(slot);
+					}
+				}
+			}
+			this.insert(key + 1);
+		}
+
+		/**
+		 * Puts a stored key into a free slot, unless it is already there
+		 *
+		 * @param stored the key plus 1
+		 */
+		private void insert(long stored) {
+			int mask = this.slots.length - 1;
+			int slot = (int) (stored * 0x9E3779B97F4A7C15L >>> 32) & mask;
+			while (this.slots[slot] != 0L) {
+				if (this.slots[slot] == stored) {
+					return;
+				}
+				slot = slot + 1 & mask;
+			}
+			this.slots[slot] = stored;
+			this.size++;
+		}
+
+		/**
+		 * Gets all keys, sorted
+		 *
+		 * @return the keys
+		 */
+		long[] toSortedArray() {
+			long[] keys = new long[this.size];
+			int count = 0;
+			for (long slot : this.slots) {
+				if (slot != 0L) {
+					keys[count++] = slot - 1;
+				}
+			}
+			Arrays.sort(keys);
+			return keys;
+		}
+	}
+}
@@ -0,0 +1,322 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+
+import com.bergerkiller.bukkit.common.map.MapColorPalette;
+import com.bergerkiller.bukkit.common.map.MapDisplay;
+
+import io.github.bbayu123.bk2048.Main.TwoZeroFourEight;
+
+/**
+ * This is a color theme for the 2048 game
+ * <p>
+ * A theme is loaded from a file in the {@code themes} folder of the plugin, and
+ * all of its colors are resolved to map colors right away. Drawing code only
+ * reads the resolved colors, it never has to look up an RGB color again.
+ * <p>
+ * Colors are written either as {@code "#RRGGBB"} or as {@code "R, G, B"}. Any
+ * color that is missing from the file is taken from {@link #DEFAULT}.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightTheme {
+	/**
+	 * The built-in theme, which is also used for any missing colors
+	 */
+	static final TwoZeroFourEightTheme DEFAULT = new TwoZeroFourEightTheme("default",
+			MapColorPalette.getColor(223, 223, 223), MapColorPalette.getColor(158, 148, 137),
+			MapColorPalette.getColor(205, 193, 181), MapColorPalette.getColor(229, 198, 67),
+			MapColorPalette.getColor(114, 121, 175), MapColorPalette.getColor(118, 111, 100),
+			MapColorPalette.getColor(251, 247, 241),
+			new byte[] { MapColorPalette.getColor(236, 228, 219), MapColorPalette.getColor(235, 227, 207),
+					MapColorPalette.getColor(234, 180, 132), MapColorPalette.getColor(233, 155, 115),
+					MapColorPalette.getColor(231, 132, 111), MapColorPalette.getColor(230, 107, 82),
+					MapColorPalette.getColor(234, 214, 153), MapColorPalette.getColor(233, 213, 142),
+					MapColorPalette.getColor(240, 213, 113), MapColorPalette.getColor(232, 207, 122),
+					MapColorPalette.getColor(229, 198, 67), MapColorPalette.getColor(244, 102, 116),
+					MapColorPalette.getColor(241, 75, 97), MapColorPalette.getColor(235, 66, 63),
+					MapColorPalette.getColor(113, 179, 218), MapColorPalette.getColor(94, 160, 230),
+					MapColorPalette.getColor(2, 125, 192) });
+
+	/**
+	 * The names of the themes that are shipped with the plugin
+	 */
+	static final String[] BUNDLED = new String[] { "default", "winter" };
+
+	/**
+	 * The theme that is currently in use
+	 */
+	private static volatile TwoZeroFourEightTheme current = TwoZeroFourEightTheme.DEFAULT;
+
+	/**
+	 * The name of the theme
+	 */
+	private final String name;
+	/**
+	 * The color of the display background
+	 */
+	private final byte background;
+	/**
+	 * The color of the board
+	 */
+	private final byte board;
+	/**
+	 * The color of an empty cell on the board
+	 */
+	private final byte emptyCell;
+	/**
+	 * The color of the title text
+	 */
+	private final byte title;
+	/**
+	 * The color of the win/lose dialog
+	 */
+	private final byte dialog;
+	/**
+	 * The text color on low value tiles
+	 */
+	private final byte textDark;
+	/**
+	 * The text color on high value tiles
+	 */
+	private final byte textLight;
+	/**
+	 * The tile colors, indexed by the power of two of the value minus 1
+	 */
+	private final byte[] tiles;
+
+	/**
+	 * Creates a theme from resolved colors
+	 */
+	private TwoZeroFourEightTheme(String name, byte background, byte board, byte emptyCell, byte title,
+			byte dialog, byte textDark, byte textLight, byte[] tiles) {
+		this.name = name;
+		this.background = background;
+		this.board = board;
+		this.emptyCell = emptyCell;
+		this.title = title;
+		this.dialog = dialog;
+		this.textDark = textDark;
+		this.textLight = textLight;
+		this.tiles = tiles;
+	}
+
+	/**
+	 * Gets the theme that is currently in use
+	 *
+	 * @return the current theme
+	 */
+	public static TwoZeroFourEightTheme getCurrent() {
+		return TwoZeroFourEightTheme.current;
+	}
+
+	/**
+	 * Loads a theme from the {@code themes} folder of the plugin
+	 *
+	 * @param plugin the plugin
+	 * @param name   the name of the theme, without the {@code .yml} extension
+	 * @return the loaded theme
+	 * @throws FileNotFoundException    if there is no theme with that name
+	 * @throws IllegalArgumentException if a color in the theme is not valid
+	 */
+	public static TwoZeroFourEightTheme load(Plugin plugin, String name) throws FileNotFoundException {
+		File file = new File(new File(plugin.getDataFolder(), "themes"), name + ".yml");
+		if (!name.matches("[A-Za-z0-9_-]+") || !file.isFile()) {
+			throw new FileNotFoundException("Theme not found: " + name);
+		}
+		YamlConfiguration yaml = YamlConfiguration.loadConfiguration(file);
+		TwoZeroFourEightTheme def = TwoZeroFourEightTheme.DEFAULT;
+
+		byte[] tiles = def.tiles.clone();
+		List<String> tileColors = yaml.getStringList("tiles");
+		for (int i = 0; i < tileColors.size() && i < tiles.length; i++) {
+			tiles[i] = TwoZeroFourEightTheme.parseColor(tileColors.get(i));
+		}
+
+		return new TwoZeroFourEightTheme(name, TwoZeroFourEightTheme.getColor(yaml, "background", def.background),
+				TwoZeroFourEightTheme.getColor(yaml, "board", def.board),
+				TwoZeroFourEightTheme.getColor(yaml, "empty-cell", def.emptyCell),
+				TwoZeroFourEightTheme.getColor(yaml, "title", def.title),
+				TwoZeroFourEightTheme.getColor(yaml, "dialog", def.dialog),
+				TwoZeroFourEightTheme.getColor(yaml, "text-dark", def.textDark),
+				TwoZeroFourEightTheme.getColor(yaml, "text-light", def.textLight), tiles);
+	}
+
+	/**
+	 * Switches to another theme without interrupting any running games
+	 * <p>
+	 * The theme is loaded, and the sprites of every scale that is in use are drawn
+	 * in the background. The single map scale is always drawn, so that it is ready
+	 * for the first game after a restart. Only when everything is ready, the theme
+	 * and sprites are swapped in on the main thread, and all displays are redrawn.
+	 *
+	 * @param plugin   the plugin
+	 * @param name     the name of the theme
+	 * @param callback called on the main thread with {@code null} when the theme
+	 *                 has been applied, or with an error message if it failed
+	 */
+	public static void apply(Plugin plugin, String name, Consumer<String> callback) {
+		Set<Integer> scales = TwoZeroFourEightSprites.getScales();
+		scales.add(1);
+		Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+			TwoZeroFourEightTheme theme;
+			try {
+				theme = TwoZeroFourEightTheme.load(plugin, name);
+			} catch (FileNotFoundException | IllegalArgumentException e) {
+				Bukkit.getScheduler().runTask(plugin, () -> callback.accept(e.getMessage()));
+				return;
+			}
+
+			Map<Integer, TwoZeroFourEightSprites> caches = TwoZeroFourEightSprites.prerender(theme, scales);
+
+			Bukkit.getScheduler().runTask(plugin, () -> {
+				TwoZeroFourEightTheme.current = theme;
+				TwoZeroFourEightSprites.swap(caches);
+				for (TwoZeroFourEight game : MapDisplay.getAllDisplays(TwoZeroFourEight.class)) {
+					game.refreshTheme();
+				}
+				callback.accept(null);
+			});
+		});
+	}
+
+	/**
+	 * Reads a color from a configuration
+	 *
+	 * @param config the configuration
+	 * @param path   the path of the color
+	 * @param def    the color to use if the path is not set
+	 * @return the resolved map color
+	 */
+	private static byte getColor(ConfigurationSection config, String path, byte def) {
+		String value = config.getString(path);
+		return value == null ? def : TwoZeroFourEightTheme.parseColor(value);
+	}
+
+	/**
+	 * Parses a color, and resolves it to the closest map color
+	 *
+	 * @param value the color, either {@code "#RRGGBB"} or {@code "R, G, B"}
+	 * @return the resolved map color
+	 * @throws IllegalArgumentException if the color is not valid
+	 */
+	static byte parseColor(String value) {
+		String text = value.trim();
+		try {
+			if (text.startsWith("#") && text.length() == 7) {
+				int rgb = Integer.parseInt(text.substring(1), 16);
+				return MapColorPalette.getColor(rgb >> 16 & 0xFF, rgb >> 8 & 0xFF, rgb & 0xFF);
+			}
+			String[] parts = text.split("\\s*,\\s*");
+			if (parts.length == 3) {
+				return MapColorPalette.getColor(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+						Integer.parseInt(parts[2]));
+			}
+		} catch (NumberFormatException e) {
+			// Fall through to the error below
+		}
+		throw new IllegalArgumentException("Invalid color: " + value);
+	}
+
+	/**
+	 * Gets the name of the theme
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Gets the color of the display background
+	 *
+	 * @return the background color
+	 */
+	public byte getBackground() {
+		return this.background;
+	}
+
+	/**
+	 * Gets the color of the board
+	 *
+	 * @return the board color
+	 */
+	public byte getBoard() {
+		return this.board;
+	}
+
+	/**
+	 * Gets the color of an empty cell on the board
+	 *
+	 * @return the empty cell color
+	 */
+	public byte getEmptyCell() {
+		return this.emptyCell;
+	}
+
+	/**
+	 * Gets the color of the title text
+	 *
+	 * @return the title color
+	 */
+	public byte getTitle() {
+		return this.title;
+	}
+
+	/**
+	 * Gets the color of the win/lose dialog
+	 *
+	 * @return the dialog color
+	 */
+	public byte getDialog() {
+		return this.dialog;
+	}
+
+	/**
+	 * Gets the background color of a tile
+	 *
+	 * @param value the value of the tile
+	 * @return the tile color
+	 */
+	public byte getTile(int value) {
+		int index = 31 - Integer.numberOfLeadingZeros(value) - 1;
+		return this.tiles[Math.max(0, Math.min(index, this.tiles.length - 1))];
+	}
+
+	/**
+	 * Gets the text color of a tile
+	 *
+	 * @param value the value of the tile
+	 * @return the text color
+	 */
+	public byte getText(int value) {
+		return value > 4 ? this.textLight : this.textDark;
+	}
+}
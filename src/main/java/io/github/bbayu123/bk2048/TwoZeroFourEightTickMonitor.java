@@ -0,0 +1,115 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This measures how long server ticks take, and how much of that is spent in
+ * 2048 games
+ * <p>
+ * The monitor runs once per tick. The time between two runs is the length of a
+ * server tick, which is 50 ms when the server keeps up. Boards add the time that
+ * their own tick takes to {@link #recordGame(long)}. Both are smoothed with an
+ * exponential moving average.
+ * <p>
+ * After every run, the {@link TwoZeroFourEightQuality} of animations is updated
+ * from the average.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightTickMonitor implements Runnable {
+	/**
+	 * The length of a tick when the server keeps up, in nanoseconds
+	 */
+	static final long TARGET_TICK_NANOS = 50_000_000L;
+
+	/**
+	 * How much weight the latest tick has in the averages
+	 */
+	private static final double SMOOTHING = 0.05;
+
+	/**
+	 * The time spent in games during the current tick, in nanoseconds
+	 */
+	private static final LongAdder GAME_NANOS = new LongAdder();
+
+	/**
+	 * The average length of a tick, in nanoseconds
+	 */
+	private static volatile double averageTickNanos = TwoZeroFourEightTickMonitor.TARGET_TICK_NANOS;
+	/**
+	 * The average time spent in games per tick, in nanoseconds
+	 */
+	private static volatile double averageGameNanos = 0;
+
+	/**
+	 * When the monitor last ran, in nanoseconds
+	 */
+	private long lastRun = System.nanoTime();
+
+	/**
+	 * Adds time spent in a game during the current tick
+	 *
+	 * @param nanos the time in nanoseconds
+	 */
+	static void recordGame(long nanos) {
+		TwoZeroFourEightTickMonitor.GAME_NANOS.add(nanos);
+	}
+
+	/**
+	 * Gets the average length of a tick
+	 *
+	 * @return the average in nanoseconds
+	 */
+	static double getAverageTickNanos() {
+		return TwoZeroFourEightTickMonitor.averageTickNanos;
+	}
+
+	/**
+	 * Gets the average time spent in games per tick
+	 *
+	 * @return the average in nanoseconds
+	 */
+	static double getAverageGameNanos() {
+		return TwoZeroFourEightTickMonitor.averageGameNanos;
+	}
+
+	/**
+	 * Gets the number of ticks per second, based on the average tick length
+	 *
+	 * @return the ticks per second, at most 20
+	 */
+	static double getTps() {
+		return Math.min(20.0, 1e9 / TwoZeroFourEightTickMonitor.averageTickNanos);
+	}
+
+	@Override
+	public void run() {
+		long now = System.nanoTime();
+		long tick = now - this.lastRun;
+		this.lastRun = now;
+
+		double s = TwoZeroFourEightTickMonitor.SMOOTHING;
+		TwoZeroFourEightTickMonitor.averageTickNanos = TwoZeroFourEightTickMonitor.averageTickNanos * (1 - s)
+				+ tick * s;
+		TwoZeroFourEightTickMonitor.averageGameNanos = TwoZeroFourEightTickMonitor.averageGameNanos * (1 - s)
+				+ TwoZeroFourEightTickMonitor.GAME_NANOS.sumThenReset() * s;
+		TwoZeroFourEightQuality.update(TwoZeroFourEightTickMonitor.getTps());
+	}
+}
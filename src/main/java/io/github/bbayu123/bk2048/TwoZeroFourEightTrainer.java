@@ -0,0 +1,235 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * This trains the weights of a {@link TwoZeroFourEightNTupleNetwork}
+ * <p>
+ * The trainer runs on its own, without a server, using only
+ * {@link TwoZeroFourEightEngine}. It plays games by always choosing the move
+ * with the best reward plus estimated value of the resulting position, and
+ * learns from the difference between estimates of consecutive positions
+ * (temporal difference learning on afterstates).
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * java -Xmx1G -cp bk2048-poc.jar io.github.bbayu123.bk2048.TwoZeroFourEightTrainer &lt;output&gt; &lt;games&gt; [learning rate]
+ * </pre>
+ *
+ * The output file can then be placed in the plugin folder, see
+ * {@code config.yml}.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightTrainer {
+	/**
+	 * The learning rate that is used if none is given
+	 */
+	private static final float DEFAULT_LEARNING_RATE = 0.0025f;
+	/**
+	 * How many games are played between progress reports
+	 */
+	private static final int REPORT_INTERVAL = 1000;
+
+	/**
+	 * The shapes of the network
+	 */
+	private final int[][] shapes;
+	/**
+	 * The weights of each shape
+	 */
+	private final float[][] weights;
+	/**
+	 * The learning rate
+	 */
+	private final float learningRate;
+	/**
+	 * The random generator for spawns
+	 */
+	private final Random random = new Random();
+	/**
+	 * The score of the last game that was played
+	 */
+	private int lastScore = 0;
+
+	/**
+	 * Creates a trainer with all weights at zero
+	 *
+	 * @param shapes       the shapes of the network
+	 * @param learningRate the learning rate
+	 */
+	private TwoZeroFourEightTrainer(int[][] shapes, float learningRate) {
+		this.shapes = shapes;
+		this.learningRate = learningRate;
+		this.weights = new float[shapes.length][];
+		for (int i = 0; i < shapes.length; i++) {
+			this.weights[i] = new float[1 << 4 * shapes[i].length];
+		}
+	}
+
+	/**
+	 * Trains a network, and writes the weights to a file
+	 *
+	 * @param args the output file, the number of games, and optionally the
+	 *             learning rate
+	 * @throws IOException if the output file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: TwoZeroFourEightTrainer <output> <games> [learning rate]");
+			System.exit(1);
+		}
+		File output = new File(args[0]);
+		int games = Integer.parseInt(args[1]);
+		float learningRate = args.length > 2 ? Float.parseFloat(args[2])
+				: TwoZeroFourEightTrainer.DEFAULT_LEARNING_RATE;
+
+		TwoZeroFourEightTrainer trainer = new TwoZeroFourEightTrainer(TwoZeroFourEightNTupleNetwork.DEFAULT_SHAPES,
+				learningRate);
+		long totalScore = 0L;
+		int reached2048 = 0;
+		for (int game = 1; game <= games; game++) {
+			long board = trainer.playGame();
+			totalScore += trainer.lastScore;
+			if (TwoZeroFourEightTrainer.highestRank(board) >= 11) {
+				reached2048++;
+			}
+			if (game % TwoZeroFourEightTrainer.REPORT_INTERVAL == 0) {
+				System.out.printf("%d games: average score %d, reached 2048 in %.1f%%%n", game,
+						totalScore / TwoZeroFourEightTrainer.REPORT_INTERVAL,
+						100.0 * reached2048 / TwoZeroFourEightTrainer.REPORT_INTERVAL);
+				totalScore = 0L;
+				reached2048 = 0;
+			}
+		}
+
+		TwoZeroFourEightNTupleNetwork.write(output, trainer.shapes, trainer.weights);
+		System.out.println("Wrote " + output.length() + " bytes to " + output);
+	}
+
+	/**
+	 * Plays one game, learning after every move
+	 *
+	 * @return the final board
+	 */
+	private long playGame() {
+		long board = this.spawn(this.spawn(0L));
+		long previous = -1L;
+		this.lastScore = 0;
+
+		while (true) {
+			int bestDirection = -1;
+			float bestValue = Float.NEGATIVE_INFINITY;
+			for (int direction = 0; direction < 4; direction++) {
+				long moved = TwoZeroFourEightEngine.move(board, direction);
+				if (moved == board) {
+					continue;
+				}
+				float value = TwoZeroFourEightEngine.score(board, direction) + this.evaluate(moved);
+				if (value > bestValue) {
+					bestValue = value;
+					bestDirection = direction;
+				}
+			}
+
+			if (bestDirection == -1) {
+				// The game is over, so the last position is worth nothing more
+				if (previous != -1L) {
+					this.update(previous, -this.evaluate(previous));
+				}
+				return board;
+			}
+
+			long afterstate = TwoZeroFourEightEngine.move(board, bestDirection);
+			int reward = TwoZeroFourEightEngine.score(board, bestDirection);
+			if (previous != -1L) {
+				this.update(previous, reward + this.evaluate(afterstate) - this.evaluate(previous));
+			}
+			this.lastScore += reward;
+			previous = afterstate;
+			board = this.spawn(afterstate);
+		}
+	}
+
+	/**
+	 * Estimates the value of a position with the current weights
+	 *
+	 * @param board the packed board
+	 * @return the estimate
+	 */
+	private float evaluate(long board) {
+		float value = 0f;
+		for (int symmetry = 0; symmetry < TwoZeroFourEightNTupleNetwork.SYMMETRIES; symmetry++) {
+			long view = TwoZeroFourEightNTupleNetwork.symmetry(board, symmetry);
+			for (int i = 0; i < this.shapes.length; i++) {
+				value += this.weights[i][TwoZeroFourEightNTupleNetwork.index(view, this.shapes[i])];
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Moves the estimate of a position towards its target
+	 *
+	 * @param board the packed board
+	 * @param error the difference between the target and the current estimate
+	 */
+	private void update(long board, float error) {
+		float delta = this.learningRate * error;
+		for (int symmetry = 0; symmetry < TwoZeroFourEightNTupleNetwork.SYMMETRIES; symmetry++) {
+			long view = TwoZeroFourEightNTupleNetwork.symmetry(board, symmetry);
+			for (int i = 0; i < this.shapes.length; i++) {
+				this.weights[i][TwoZeroFourEightNTupleNetwork.index(view, this.shapes[i])] += delta;
+			}
+		}
+	}
+
+	/**
+	 * Spawns a tile on a random empty cell
+	 *
+	 * @param board the packed board
+	 * @return the packed board with the new tile
+	 */
+	private long spawn(long board) {
+		int empty = TwoZeroFourEightEngine.countEmpty(board);
+		if (empty == 0) {
+			return board;
+		}
+		int rank = this.random.nextDouble() < TwoZeroFourEightSpawnSequence.FOUR_PROBABILITY ? 2 : 1;
+		return TwoZeroFourEightEngine.spawn(board, this.random.nextInt(empty), rank);
+	}
+
+	/**
+	 * Gets the highest rank on a board
+	 *
+	 * @param board the packed board
+	 * @return the highest rank
+	 */
+	private static int highestRank(long board) {
+		int highest = 0;
+		for (int index = 0; index < TwoZeroFourEightEngine.CELLS; index++) {
+			highest = Math.max(highest, TwoZeroFourEightEngine.getCell(board, index));
+		}
+		return highest;
+	}
+}
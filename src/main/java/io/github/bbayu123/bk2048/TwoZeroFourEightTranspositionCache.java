@@ -0,0 +1,306 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This is the cache of search results that all AI requests share
+ * <p>
+ * Many players reach the same positions, especially early in a game, so the
+ * expected value of a position that one hint has worked out is kept for the
+ * next hint, autoplay move or analysis that reaches it. An entry is keyed by
+ * the packed board, the depth that is left to search, and the rules of the
+ * game.
+ * <p>
+ * The cache never grows. All of its memory is allocated when it is created, as
+ * primitive arrays, so it holds millions of entries without an object for
+ * each. It is split into sets of {@link #WAYS} entries, and a key can only be
+ * in one set. When a set is full, an entry is evicted with the CLOCK algorithm:
+ * a hand goes around the set, giving every entry that was used since the hand
+ * last passed a second chance, and evicting the first one that was not.
+ * <p>
+ * No locks are taken. Each entry is two {@code long}s, the data and the board
+ * mixed with the data, so a reader that sees half of a concurrent write finds a
+ * key that does not match, and treats it as a miss. The use bits and the hands
+ * are plain bytes, because losing an update only makes the eviction a little
+ * less accurate.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+final class TwoZeroFourEightTranspositionCache {
+	/**
+	 * The number of entries in a set
+	 */
+	static final int WAYS = 8;
+	/**
+	 * The number of bytes that each entry takes, not counting the hands
+	 */
+	static final int BYTES_PER_ENTRY = 17;
+
+	/**
+	 * The bit that marks an entry as used, so that an empty entry never matches
+	 */
+	private static final long VALID = 1L << 63;
+
+	/**
+	 * The number of sets is 2 to the power of this
+	 */
+	private final int setBits;
+	/**
+	 * The entries, two {@code long}s each: the board mixed with the data, and the
+	 * data
+	 */
+	private final AtomicLongArray entries;
+	/**
+	 * Whether each entry was used since the hand last passed it
+	 */
+	private final byte[] referenced;
+	/**
+	 * Where the hand of each set is
+	 */
+	private final byte[] hands;
+
+	/**
+	 * The number of lookups that found an entry
+	 */
+	private final LongAdder hits = new LongAdder();
+	/**
+	 * The number of lookups that did not find an entry
+	 */
+	private final LongAdder misses = new LongAdder();
+	/**
+	 * The number of entries that were evicted to make room
+	 */
+	private final LongAdder evictions = new LongAdder();
+	/**
+	 * The number of entries that are in use
+	 */
+	private final LongAdder filled = new LongAdder();
+
+	/**
+	 * Creates a cache
+	 *
+	 * @param megabytes the most memory that the cache may use, at least 1
+	 */
+	TwoZeroFourEightTranspositionCache(int megabytes) {
+		int capacity = TwoZeroFourEightTranspositionCache.getCapacity(megabytes);
+		this.setBits = Integer.numberOfTrailingZeros(capacity / TwoZeroFourEightTranspositionCache.WAYS);
+		this.entries = new AtomicLongArray(capacity * 2);
+		this.referenced = new byte[capacity];
+		this.hands = new byte[capacity / TwoZeroFourEightTranspositionCache.WAYS];
+	}
+
+	/**
+	 * Gets the number of entries that a cache can hold within a memory limit,
+	 * which is a power of two
+	 *
+	 * @param megabytes the most memory that the cache may use, at least 1
+	 * @return the capacity
+	 */
+	static int getCapacity(int megabytes) {
+		long limit = (long) megabytes * 1024 * 1024;
+		int capacity = TwoZeroFourEightTranspositionCache.WAYS * 2;
+		while (capacity < 1 << 29 && TwoZeroFourEightTranspositionCache.getBytes(capacity * 2) <= limit) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Looks up the expected value of a position
+	 *
+	 * @param board the packed board
+	 * @param depth the depth that is left to search
+	 * @param rules the rules of the game
+	 * @return the cached value, or {@link Float#NaN} if it is not cached
+	 */
+	float get(long board, int depth, TwoZeroFourEightRules rules) {
+		long meta = TwoZeroFourEightTranspositionCache.meta(depth, rules);
+		int first = this.getSet(board, meta) * TwoZeroFourEightTranspositionCache.WAYS;
+		for (int entry = first; entry < first + TwoZeroFourEightTranspositionCache.WAYS; entry++) {
+			long data = this.entries.get(entry * 2 + 1);
+			if ((data & 0xFFFFFFFF00000000L) == meta && (this.entries.get(entry * 2) ^ data) == board) {
+				this.referenced[entry] = 1;
+				this.hits.increment();
+				return Float.intBitsToFloat((int) data);
+			}
+		}
+		this.misses.increment();
+		return Float.NaN;
+	}
+
+	/**
+	 * Stores the expected value of a position, evicting another entry of its set
+	 * if the set is full
+	 *
+	 * @param board the packed board
+	 * @param depth the depth that is left to search
+	 * @param rules the rules of the game
+	 * @param value the expected value
+	 */
+	void put(long board, int depth, TwoZeroFourEightRules rules, float value) {
+		long meta = TwoZeroFourEightTranspositionCache.meta(depth, rules);
+		int set = this.getSet(board, meta), first = set * TwoZeroFourEightTranspositionCache.WAYS;
+		int target = -1;
+		for (int entry = first; entry < first + TwoZeroFourEightTranspositionCache.WAYS; entry++) {
+			long data = this.entries.get(entry * 2 + 1);
+			if (data == 0L) {
+				this.filled.increment();
+				target = entry;
+				break;
+			}
+			if ((data & 0xFFFFFFFF00000000L) == meta && (this.entries.get(entry * 2) ^ data) == board) {
+				target = entry;
+				break;
+			}
+		}
+		if (target == -1) {
+			int hand = this.hands[set];
+			while (this.referenced[first + hand] != 0) {
+				this.referenced[first + hand] = 0;
+				hand = hand + 1 & TwoZeroFourEightTranspositionCache.WAYS - 1;
+			}
+			target = first + hand;
+			this.hands[set] = (byte) (hand + 1 & TwoZeroFourEightTranspositionCache.WAYS - 1);
+			this.evictions.increment();
+		}
+
+		long data = meta | Float.floatToRawIntBits(value) & 0xFFFFFFFFL;
+		this.entries.set(target * 2, board ^ data);
+		this.entries.set(target * 2 + 1, data);
+		this.referenced[target] = 1;
+	}
+
+	/**
+	 * Removes all entries, which is needed when the values that were cached would
+	 * now come out differently
+	 */
+	void clear() {
+		for (int i = 0; i < this.entries.length(); i++) {
+			this.entries.set(i, 0L);
+		}
+		this.filled.reset();
+	}
+
+	/**
+	 * Gets the number of entries that the cache can hold
+	 *
+	 * @return the capacity
+	 */
+	int getCapacity() {
+		return this.referenced.length;
+	}
+
+	/**
+	 * Gets the memory that the cache uses
+	 *
+	 * @return the size in bytes
+	 */
+	long getBytes() {
+		return TwoZeroFourEightTranspositionCache.getBytes(this.getCapacity());
+	}
+
+	/**
+	 * Gets the memory that a cache of some capacity uses
+	 *
+	 * @param capacity the number of entries
+	 * @return the size in bytes
+	 */
+	private static long getBytes(int capacity) {
+		return (long) capacity * TwoZeroFourEightTranspositionCache.BYTES_PER_ENTRY
+				+ capacity / TwoZeroFourEightTranspositionCache.WAYS;
+	}
+
+	/**
+	 * Gets the number of entries that are in use
+	 * <p>
+	 * Two threads can fill the same empty entry at once, so this is counted
+	 * loosely, and never shown as more than the capacity.
+	 *
+	 * @return the number of entries
+	 */
+	long getFilled() {
+		return Math.min(this.getCapacity(), this.filled.sum());
+	}
+
+	/**
+	 * Gets the number of lookups that found an entry
+	 *
+	 * @return the number of hits
+	 */
+	long getHits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * Gets the number of lookups that did not find an entry
+	 *
+	 * @return the number of misses
+	 */
+	long getMisses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * Gets the number of entries that were evicted to make room
+	 *
+	 * @return the number of evictions
+	 */
+	long getEvictions() {
+		return this.evictions.sum();
+	}
+
+	/**
+	 * Gets the share of lookups that found an entry
+	 *
+	 * @return the hit rate from 0 to 1, or 0 if nothing has been looked up
+	 */
+	double getHitRate() {
+		long hits = this.getHits(), total = hits + this.getMisses();
+		return total == 0L ? 0.0 : (double) hits / total;
+	}
+
+	/**
+	 * Gets the set that a key belongs to
+	 *
+	 * @param board the packed board
+	 * @param meta  the rest of the key
+	 * @return the index of the set
+	 */
+	private int getSet(long board, long meta) {
+		long z = board ^ meta * 0x9E3779B97F4A7C15L;
+		z = (z ^ z >>> 30) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ z >>> 27) * 0x94D049BB133111EBL;
+		return (int) ((z ^ z >>> 31) >>> 64 - this.setBits);
+	}
+
+	/**
+	 * Packs the part of the key that is not the board into the top half of the
+	 * data of an entry
+	 *
+	 * @param depth the depth that is left to search
+	 * @param rules the rules of the game
+	 * @return the packed key
+	 */
+	private static long meta(int depth, TwoZeroFourEightRules rules) {
+		return TwoZeroFourEightTranspositionCache.VALID | (long) (rules.getId() & 0x7FFFFF) << 40
+				| (long) (depth & 0xFF) << 32;
+	}
+}
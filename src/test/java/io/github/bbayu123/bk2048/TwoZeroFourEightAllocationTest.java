@@ -0,0 +1,172 @@
+/* **********************************************************************
+ * Copyright (C) 2023 Cyrus Mian Xi Li (bbayu/bbayu123)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * **********************************************************************
+ */
+package io.github.bbayu123.bk2048;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.github.bbayu123.bk2048.Main.TwoZeroFourEightBoard;
+
+/**
+ * These are the checks that moves, spawns and ticks do not allocate
+ * <p>
+ * Each check runs its loop until the JIT has compiled it, and then measures
+ * the bytes that the thread allocates during a second run, which must be none.
+ * New games and finished games are allowed to allocate, so they are left out of
+ * the measurement.
+ *
+ * @author Cyrus Mian Xi Li (bbayu/bbayu123)
+ */
+public class TwoZeroFourEightAllocationTest {
+	/**
+	 * The number of rounds that are run before measuring
+	 */
+	private static final int WARMUP_ROUNDS = 20000;
+	/**
+	 * The number of rounds that are measured
+	 */
+	private static final int MEASURED_ROUNDS = 2000;
+	/**
+	 * The number of boards that are played at once
+	 */
+	private static final int BOARDS = 20;
+	/**
+	 * The number of moves after which every board starts a new game, so that the
+	 * buffers of a game never have to grow while measuring
+	 */
+	private static final int MAX_MOVES = 200;
+
+	/**
+	 * Prevents the JIT from dropping the results of the packed moves
+	 */
+	private static volatile long sink;
+
+	/**
+	 * Checks that moves and spawns on packed boards do not allocate, under every
+	 * merge rule
+	 */
+	@Test
+	public void packedMovesDoNotAllocate() {
+		assumeTrue(TwoZeroFourEightLoadHarness.allocatedBytes() >= 0L);
+		for (TwoZeroFourEightRules.Merge merge : TwoZeroFourEightRules.Merge.values()) {
+			TwoZeroFourEightRules rules = TwoZeroFourEightRules.compile(merge, merge.getDefaultWinTile(), 0, 4, 4);
+			TwoZeroFourEightAllocationTest.playPacked(rules, TwoZeroFourEightAllocationTest.WARMUP_ROUNDS);
+
+			long overhead = TwoZeroFourEightAllocationTest.measureOverhead();
+			long start = TwoZeroFourEightLoadHarness.allocatedBytes();
+			TwoZeroFourEightAllocationTest.playPacked(rules, TwoZeroFourEightAllocationTest.MEASURED_ROUNDS);
+			long allocated = TwoZeroFourEightLoadHarness.allocatedBytes() - start - overhead;
+			assertEquals("Bytes allocated by packed moves under " + merge, 0L, allocated);
+		}
+	}
+
+	/**
+	 * Checks that moves, spawns and ticks of running games on boards do not
+	 * allocate
+	 */
+	@Test
+	public void boardMovesDoNotAllocate() {
+		assumeTrue(TwoZeroFourEightLoadHarness.allocatedBytes() >= 0L);
+		Random random = new Random(2048L);
+		TwoZeroFourEightBoard[] boards = new TwoZeroFourEightBoard[TwoZeroFourEightAllocationTest.BOARDS];
+		for (int i = 0; i < boards.length; i++) {
+			boards[i] = new TwoZeroFourEightBoard();
+			boards[i].startGame();
+		}
+
+		TwoZeroFourEightAllocationTest.playBoards(boards, random, TwoZeroFourEightAllocationTest.WARMUP_ROUNDS);
+		assertEquals("Bytes allocated by board moves", 0L, TwoZeroFourEightAllocationTest.playBoards(boards, random,
+				TwoZeroFourEightAllocationTest.MEASURED_ROUNDS));
+	}
+
+	/**
+	 * Plays random moves on a packed board, spawning a tile before each move and
+	 * starting over when the board is full
+	 *
+	 * @param rules  the rules of the game
+	 * @param rounds the number of moves
+	 */
+	private static void playPacked(TwoZeroFourEightRules rules, int rounds) {
+		long random = 2048L, board = 0L, total = 0L;
+		for (int round = 0; round < rounds; round++) {
+			random = random * 6364136223846793005L + 1442695040888963407L;
+			int empty = TwoZeroFourEightEngine.countEmpty(board);
+			if (empty == 0) {
+				board = 0L;
+				continue;
+			}
+			board = TwoZeroFourEightEngine.spawn(board, (int) ((random >>> 33) % empty), (random & 0xF) == 0 ? 2 : 1);
+
+			int direction = (int) (random >>> 62);
+			total += rules.score(board, direction) + rules.getDestinations(board, direction);
+			board = rules.move(board, direction);
+		}
+		TwoZeroFourEightAllocationTest.sink = total + board;
+	}
+
+	/**
+	 * Plays one instant move and one tick on every board in each round
+	 * <p>
+	 * Only boards whose game is still running afterwards are measured, since a
+	 * game that ends opens its dialog. New games are started outside of the
+	 * measurement.
+	 *
+	 * @param boards the boards
+	 * @param random the random generator
+	 * @param rounds the number of rounds
+	 * @return the number of bytes that were allocated while measuring
+	 */
+	private static long playBoards(TwoZeroFourEightBoard[] boards, Random random, int rounds) {
+		long overhead = TwoZeroFourEightAllocationTest.measureOverhead();
+		long allocated = 0L;
+		for (int round = 0; round < rounds; round++) {
+			for (TwoZeroFourEightBoard board : boards) {
+				if (round % TwoZeroFourEightAllocationTest.MAX_MOVES == 0 || !board.isPlaying()) {
+					board.startGame();
+					continue;
+				}
+				long start = TwoZeroFourEightLoadHarness.allocatedBytes();
+				board.playInstantMove(random);
+				board.onTick();
+				long used = TwoZeroFourEightLoadHarness.allocatedBytes() - start - overhead;
+				if (board.isPlaying()) {
+					allocated += used;
+				}
+			}
+		}
+		return allocated;
+	}
+
+	/**
+	 * Measures how many bytes reading the allocated bytes allocates itself
+	 *
+	 * @return the smallest number of bytes of a few tries
+	 */
+	private static long measureOverhead() {
+		long overhead = Long.MAX_VALUE;
+		for (int i = 0; i < 100; i++) {
+			long start = TwoZeroFourEightLoadHarness.allocatedBytes();
+			overhead = Math.min(overhead, TwoZeroFourEightLoadHarness.allocatedBytes() - start);
+		}
+		return overhead;
+	}
+}